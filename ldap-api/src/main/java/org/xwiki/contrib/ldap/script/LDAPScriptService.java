@@ -19,6 +19,8 @@
  */
 package org.xwiki.contrib.ldap.script;
 
+import java.util.Map;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -29,6 +31,7 @@ import org.xwiki.contrib.ldap.XWikiLDAPConfig;
 import org.xwiki.contrib.ldap.XWikiLDAPConnection;
 import org.xwiki.contrib.ldap.XWikiLDAPException;
 import org.xwiki.contrib.ldap.internal.LDAPGroupsCache;
+import org.xwiki.contrib.ldap.internal.LDAPSynchronizationQueue;
 import org.xwiki.script.service.ScriptService;
 import org.xwiki.stability.Unstable;
 
@@ -58,6 +61,9 @@ public class LDAPScriptService implements ScriptService
     @Inject
     private LDAPGroupsCache caches;
 
+    @Inject
+    private LDAPSynchronizationQueue synchronizationQueue;
+
     /**
      * @return the XWiki context associated with this execution.
      */
@@ -117,6 +123,30 @@ public class LDAPScriptService implements ScriptService
         this.caches.reset();
     }
 
+    /**
+     * @return the number of groups and members stored in the groups cache and the approximate memory they use (in
+     *         bytes), the number of users and groups remembered as not found and how many searches it avoided, for each
+     *         LDAP server
+     * @since 9.16.3
+     */
+    @Unstable
+    public Map<String, Map<String, Long>> getGroupCacheStatistics()
+    {
+        return this.caches.getStatistics();
+    }
+
+    /**
+     * @return the number of users currently waiting to be synchronized in the background, and how many
+     *         synchronizations were submitted, merged with a waiting one, rejected because the queue was full, completed
+     *         and failed
+     * @since 9.16.3
+     */
+    @Unstable
+    public Map<String, Long> getSynchronizationStatistics()
+    {
+        return this.synchronizationQueue.getStatistics();
+    }
+
     /**
      * Get the error generated while performing the previously called action.
      *
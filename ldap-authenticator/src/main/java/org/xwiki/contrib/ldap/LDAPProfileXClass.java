@@ -60,6 +60,16 @@ public class LDAPProfileXClass
 
     public static final String LDAP_XFIELDPN_UID = "LDAP user unique identifier";
 
+    /**
+     * @since 9.16.3
+     */
+    public static final String LDAP_XFIELD_FINGERPRINT = "fingerprint";
+
+    /**
+     * @since 9.16.3
+     */
+    public static final String LDAP_XFIELDPN_FINGERPRINT = "LDAP entry fingerprint";
+
     public static final EntityReference LDAPPROFILECLASS_REFERENCE =
         new EntityReference("LDAPProfileClass", EntityType.DOCUMENT, new EntityReference("XWiki", EntityType.SPACE));
 
@@ -126,6 +136,7 @@ public class LDAPProfileXClass
         textAreaClass.setContentType("PureText");
 
         newClass.addTextField(LDAP_XFIELD_UID, LDAP_XFIELDPN_UID, 80);
+        newClass.addTextField(LDAP_XFIELD_FINGERPRINT, LDAP_XFIELDPN_FINGERPRINT, 80);
     }
 
     /**
@@ -181,6 +192,27 @@ public class LDAPProfileXClass
         return uid.length() == 0 ? null : uid;
     }
 
+    /**
+     * @param userDocument the user profile page.
+     * @return the fingerprint of the LDAP entry at the time of the last synchronization. Null if it can't find any or
+     *         if it's empty.
+     * @since 9.16.3
+     */
+    public static String getFingerprint(XWikiDocument userDocument)
+    {
+        BaseObject ldapObject = userDocument.getXObject(LDAPPROFILECLASS_REFERENCE);
+
+        if (ldapObject != null) {
+            String fingerprint = ldapObject.getStringValue(LDAP_XFIELD_FINGERPRINT);
+
+            if (fingerprint.length() > 0) {
+                return fingerprint;
+            }
+        }
+
+        return null;
+    }
+
     /**
      * Update or create LDAP profile of an existing user profile with provided LDAP user informations.
      * 
@@ -210,6 +242,21 @@ public class LDAPProfileXClass
      * @return true if modifications has been made to provided user profile, false otherwise.
      */
     public boolean updateLDAPObject(XWikiDocument userDocument, String dn, String uid)
+    {
+        return updateLDAPObject(userDocument, dn, uid, null);
+    }
+
+    /**
+     * Update LDAP profile object with provided LDAP user informations.
+     * 
+     * @param userDocument the user profile page to update.
+     * @param dn the dn to store in the LDAP profile.
+     * @param uid the uid to store in the LDAP profile.
+     * @param fingerprint the fingerprint of the LDAP entry to store in the LDAP profile, null to keep the current one
+     * @return true if modifications has been made to provided user profile, false otherwise.
+     * @since 9.16.3
+     */
+    public boolean updateLDAPObject(XWikiDocument userDocument, String dn, String uid, String fingerprint)
     {
         BaseObject ldapObject = userDocument.getXObject(this.ldapClass.getDocumentReference(), true, this.context);
 
@@ -229,6 +276,11 @@ public class LDAPProfileXClass
             needsUpdate = true;
         }
 
+        if (fingerprint != null && !fingerprint.equals(ldapObject.getStringValue(LDAP_XFIELD_FINGERPRINT))) {
+            map.put(LDAP_XFIELD_FINGERPRINT, fingerprint);
+            needsUpdate = true;
+        }
+
         if (needsUpdate) {
             this.ldapClass.fromMap(map, ldapObject);
         }
@@ -19,7 +19,19 @@
  */
 package org.xwiki.contrib.ldap;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,6 +55,16 @@ public class PagedLDAPSearchResults implements AutoCloseable
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(PagedLDAPSearchResults.class);
 
+    /**
+     * How long (in milliseconds) a prefetched page waits to be consumed when the connection has no time limit.
+     */
+    private static final long DEFAULT_CONSUME_TIMEOUT = 60000L;
+
+    /**
+     * How often (in milliseconds) the prefetcher and the consumer check if the other side is still there.
+     */
+    private static final long CHECK_INTERVAL = 1000L;
+
     private final XWikiLDAPConnection connection;
 
     private final String base;
@@ -61,6 +83,257 @@ public class PagedLDAPSearchResults implements AutoCloseable
 
     private boolean lastResult;
 
+    private final PagePrefetcher prefetcher;
+
+    /**
+     * A page of results fully received.
+     */
+    private static final class Page
+    {
+        private final List<LDAPEntry> entries;
+
+        private final LDAPException exception;
+
+        private final boolean last;
+
+        Page(List<LDAPEntry> entries, LDAPException exception, boolean last)
+        {
+            this.entries = entries;
+            this.exception = exception;
+            this.last = last;
+        }
+    }
+
+    /**
+     * Request the next page as soon as the current one is received and buffer the received pages until they are
+     * consumed. The search is abandoned when the buffer stays full longer than the search time limit, so that results
+     * which are never closed don't keep the thread and the connection forever.
+     */
+    private final class PagePrefetcher implements Runnable
+    {
+        private final BlockingQueue<Page> pages;
+
+        private final Object lock = new Object();
+
+        private final long consumeTimeout;
+
+        private volatile boolean closed;
+
+        private volatile boolean timedOut;
+
+        /**
+         * The page to return once the queued ones are consumed when the prefetcher stopped unexpectedly.
+         */
+        private volatile Page terminalPage;
+
+        private LDAPSearchResults runningSearch;
+
+        private Page currentPage;
+
+        private int index;
+
+        PagePrefetcher(int prefetch, int timeLimit)
+        {
+            this.pages = new ArrayBlockingQueue<>(prefetch);
+            this.consumeTimeout = timeLimit > 0 ? timeLimit : DEFAULT_CONSUME_TIMEOUT;
+        }
+
+        @Override
+        public void run()
+        {
+            boolean complete = false;
+            RuntimeException failure = null;
+            try {
+                complete = prefetch();
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                if (!complete) {
+                    // Make sure the consumer does not wait forever for a page which will never come
+                    this.terminalPage = new Page(new ArrayList<>(), new LDAPException(
+                        "Failed to get the next search page", LDAPException.LOCAL_ERROR, null, failure), true);
+                }
+            }
+        }
+
+        /**
+         * @return true if the last page was queued or if the consumer is gone
+         * @throws RuntimeException when an unexpected error happen while getting the results
+         */
+        private boolean prefetch()
+        {
+            byte[] cookie = null;
+            boolean last;
+            do {
+                LDAPSearchResults results;
+                List<LDAPEntry> entries = new ArrayList<>();
+                LDAPException exception = null;
+                last = true;
+
+                try {
+                    synchronized (this.lock) {
+                        if (this.closed) {
+                            return true;
+                        }
+
+                        this.runningSearch = search(cookie);
+                        results = this.runningSearch;
+                    }
+
+                    while (results.hasMore()) {
+                        entries.add(results.next());
+                    }
+
+                    cookie = getCookie(results);
+                    last = cookie == null || cookie.length == 0;
+                } catch (LDAPReferralException e) {
+                    LOGGER.debug("Failed to get the next search result because it require a referral but referral"
+                        + " following is disabled", e);
+                } catch (LDAPException e) {
+                    exception = e;
+                }
+
+                if (!put(new Page(entries, exception, last))) {
+                    return this.closed;
+                }
+            } while (!last);
+
+            return true;
+        }
+
+        private boolean put(Page page)
+        {
+            long deadline = System.currentTimeMillis() + this.consumeTimeout;
+
+            try {
+                // Regularly check if the consumer is still there
+                while (!this.pages.offer(page, Math.min(this.consumeTimeout, CHECK_INTERVAL), TimeUnit.MILLISECONDS)) {
+                    if (this.closed) {
+                        return false;
+                    }
+
+                    if (System.currentTimeMillis() >= deadline) {
+                        LOGGER.warn("Abandoning the search [{}] in [{}] because its results were not consumed for [{}]"
+                            + " milliseconds", filter, base, this.consumeTimeout);
+
+                        this.timedOut = true;
+                        abandon();
+
+                        return false;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                return false;
+            }
+
+            return !this.closed;
+        }
+
+        boolean hasMore() throws LDAPException
+        {
+            while (this.currentPage == null || this.index >= this.currentPage.entries.size()) {
+                if (this.currentPage != null && this.currentPage.last) {
+                    LDAPException exception = this.currentPage.exception;
+                    if (exception != null) {
+                        // Only report the error once
+                        this.currentPage = new Page(this.currentPage.entries, null, true);
+
+                        throw exception;
+                    }
+
+                    return false;
+                }
+
+                try {
+                    this.currentPage = take();
+                    this.index = 0;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+
+                    throw new LDAPException("Interrupted while waiting for the next search page",
+                        LDAPException.LOCAL_ERROR, null, e);
+                }
+            }
+
+            return true;
+        }
+
+        private Page take() throws InterruptedException, LDAPException
+        {
+            Page page;
+            // Regularly check if the prefetcher is still there
+            while ((page = this.pages.poll(CHECK_INTERVAL, TimeUnit.MILLISECONDS)) == null) {
+                if (this.timedOut) {
+                    throw new LDAPException("The search was abandoned because its results were not consumed in time",
+                        LDAPException.LDAP_TIMEOUT, null);
+                }
+
+                if (this.terminalPage != null) {
+                    // The pages queued before the prefetcher stopped come first
+                    page = this.pages.poll();
+
+                    return page != null ? page : this.terminalPage;
+                }
+            }
+
+            return page;
+        }
+
+        LDAPEntry next() throws LDAPException
+        {
+            if (!hasMore()) {
+                throw new NoSuchElementException();
+            }
+
+            return this.currentPage.entries.get(this.index++);
+        }
+
+        List<LDAPEntry> nextPage() throws LDAPException
+        {
+            if (!hasMore()) {
+                return new ArrayList<>();
+            }
+
+            List<LDAPEntry> entries =
+                new ArrayList<>(this.currentPage.entries.subList(this.index, this.currentPage.entries.size()));
+            this.index = this.currentPage.entries.size();
+
+            return entries;
+        }
+
+        void close() throws LDAPException
+        {
+            synchronized (this.lock) {
+                this.closed = true;
+
+                // Unblock the prefetcher
+                this.pages.clear();
+
+                if (this.runningSearch != null) {
+                    connection.getConnection().abandon(this.runningSearch);
+                }
+            }
+        }
+
+        private void abandon()
+        {
+            synchronized (this.lock) {
+                // Stop requesting pages but keep the received ones for a late consumer
+                this.closed = true;
+
+                if (this.runningSearch != null) {
+                    try {
+                        connection.getConnection().abandon(this.runningSearch);
+                    } catch (LDAPException e) {
+                        LOGGER.debug("Failed to abandon the search", e);
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * @param connection the connection
      * @param base The base distinguished name to search from.
@@ -79,6 +352,33 @@ public class PagedLDAPSearchResults implements AutoCloseable
      */
     public PagedLDAPSearchResults(XWikiLDAPConnection connection, String base, int scope, String filter, String[] attrs,
         boolean typesOnly, int pageSize) throws LDAPException
+    {
+        this(connection, base, scope, filter, attrs, typesOnly, pageSize, 0);
+    }
+
+    /**
+     * @param connection the connection
+     * @param base The base distinguished name to search from.
+     * @param scope The scope of the entries to search. The following are the valid options:
+     *            <ul>
+     *            <li>SCOPE_BASE - searches only the base DN
+     *            <li>SCOPE_ONE - searches only entries under the base DN
+     *            <li>SCOPE_SUB - searches the base DN and all entries within its subtree
+     *            </ul>
+     * @param filter The search filter specifying the search criteria.
+     * @param attrs The names of attributes to retrieve.
+     * @param typesOnly If true, returns the names but not the values of the attributes found. If false, returns the
+     *            names and values for attributes found.
+     * @param pageSize the maximum number of results to get in one page
+     * @param prefetch the maximum number of pages to receive in the background before they are consumed, 0 to request
+     *            a page only once the previous one is consumed. The search is abandoned if the received pages are not
+     *            consumed within the time limit of the connection (or a minute when there is none), so the results
+     *            should be consumed or closed promptly.
+     * @throws LDAPException A general exception which includes an error message and an LDAP error code.
+     * @since 9.16.3
+     */
+    public PagedLDAPSearchResults(XWikiLDAPConnection connection, String base, int scope, String filter, String[] attrs,
+        boolean typesOnly, int pageSize, int prefetch) throws LDAPException
     {
         this.connection = connection;
 
@@ -90,11 +390,23 @@ public class PagedLDAPSearchResults implements AutoCloseable
 
         this.pageSize = pageSize;
 
-        // First search page
-        search(null);
+        if (prefetch > 0) {
+            this.prefetcher = new PagePrefetcher(prefetch, connection.getConnection().getConstraints().getTimeLimit());
+
+            try {
+                connection.getExecutors().getExecutor().execute(this.prefetcher);
+            } catch (RejectedExecutionException e) {
+                throw new LDAPException("Failed to start the search", LDAPException.LOCAL_ERROR, null, e);
+            }
+        } else {
+            this.prefetcher = null;
+
+            // First search page
+            this.currentSearchResults = search(null);
+        }
     }
 
-    private void search(byte[] cookie) throws LDAPException
+    private LDAPSearchResults search(byte[] cookie) throws LDAPException
     {
         LDAPPagedResultsControl control = new LDAPPagedResultsControl(this.pageSize, cookie, false);
         LDAPSearchConstraints constraints = new LDAPSearchConstraints(this.connection.getConnection().getConstraints());
@@ -108,8 +420,22 @@ public class PagedLDAPSearchResults implements AutoCloseable
                 this.typesOnly, this.pageSize, cookie != null ? Arrays.asList(cookie) : null);
         }
 
-        this.currentSearchResults = this.connection.getConnection().search(this.base, this.scope, this.filter,
-            this.attrs, this.typesOnly, constraints);
+        return this.connection.getConnection().search(this.base, this.scope, this.filter, this.attrs,
+            this.typesOnly, constraints);
+    }
+
+    private static byte[] getCookie(LDAPSearchResults results)
+    {
+        LDAPControl[] controls = results.getResponseControls();
+        if (controls != null) {
+            for (LDAPControl resposeControl : controls) {
+                if (resposeControl instanceof LDAPPagedResultsResponse) {
+                    return ((LDAPPagedResultsResponse) resposeControl).getCookie();
+                }
+            }
+        }
+
+        return null;
     }
 
     private LDAPSearchResults getCurrentLDAPSearchResults() throws LDAPException
@@ -146,13 +472,135 @@ public class PagedLDAPSearchResults implements AutoCloseable
     private void nextLDAPSearchResults(byte[] cookie) throws LDAPException
     {
         if (cookie != null) {
-            search(cookie);
+            this.currentSearchResults = search(cookie);
         } else {
             // Mark that we reached the last page
             this.lastResult = true;
         }
     }
 
+    /**
+     * Iterate over the search results, requesting the next page when needed.
+     */
+    private final class EntrySpliterator implements Spliterator<LDAPEntry>
+    {
+        private static final int CHARACTERISTICS = ORDERED | NONNULL;
+
+        @Override
+        public boolean tryAdvance(Consumer<? super LDAPEntry> action)
+        {
+            try {
+                if (hasMoreEntries()) {
+                    LDAPEntry entry = next();
+                    if (entry != null) {
+                        action.accept(entry);
+
+                        return true;
+                    }
+                }
+            } catch (LDAPException e) {
+                throw new UncheckedLDAPException(e);
+            }
+
+            return false;
+        }
+
+        @Override
+        public Spliterator<LDAPEntry> trySplit()
+        {
+            // Split on page boundaries: the rest of the current page is handed over as is while this spliterator
+            // continues with the next pages
+            List<LDAPEntry> entries;
+            try {
+                entries = nextPage();
+            } catch (LDAPException e) {
+                throw new UncheckedLDAPException(e);
+            }
+
+            return entries.isEmpty() ? null : Spliterators.spliterator(entries, CHARACTERISTICS);
+        }
+
+        @Override
+        public long estimateSize()
+        {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics()
+        {
+            return CHARACTERISTICS;
+        }
+    }
+
+    private boolean hasMoreEntries() throws LDAPException
+    {
+        if (this.prefetcher != null) {
+            return this.prefetcher.hasMore();
+        }
+
+        return getCurrentLDAPSearchResults().hasMore();
+    }
+
+    /**
+     * @return the not yet consumed entries of the current page, or of the next one if the current one is fully
+     *         consumed
+     */
+    private List<LDAPEntry> nextPage() throws LDAPException
+    {
+        if (this.prefetcher != null) {
+            return this.prefetcher.nextPage();
+        }
+
+        LDAPSearchResults results = getCurrentLDAPSearchResults();
+
+        List<LDAPEntry> entries = new ArrayList<>();
+        try {
+            while (results.hasMore()) {
+                entries.add(results.next());
+            }
+        } catch (LDAPReferralException e) {
+            LOGGER.debug("Failed to call next value because it require a referral but referral following is disabled",
+                e);
+
+            // Mark that we reached the last page
+            this.lastResult = true;
+        }
+
+        return entries;
+    }
+
+    /**
+     * The returned {@link Spliterator} throws {@link UncheckedLDAPException} when failing to get the results and can be
+     * split on page boundaries.
+     * 
+     * @return a {@link Spliterator} over the search results
+     * @since 9.16.3
+     */
+    public Spliterator<LDAPEntry> spliterator()
+    {
+        return new EntrySpliterator();
+    }
+
+    /**
+     * The returned {@link Stream} throws {@link UncheckedLDAPException} when failing to get the results and should be
+     * closed (with a try-with-resources for example) to abandon the search when not fully consumed. It can be made
+     * parallel, in which case each page is processed as a separate chunk.
+     * 
+     * @return a {@link Stream} of the search results
+     * @since 9.16.3
+     */
+    public Stream<LDAPEntry> stream()
+    {
+        return StreamSupport.stream(spliterator(), false).onClose(() -> {
+            try {
+                close();
+            } catch (LDAPException e) {
+                throw new UncheckedLDAPException(e);
+            }
+        });
+    }
+
     /**
      * Reports if there are more search results.
      *
@@ -160,16 +608,13 @@ public class PagedLDAPSearchResults implements AutoCloseable
      */
     public boolean hasMore()
     {
-        LDAPSearchResults results;
         try {
-            results = getCurrentLDAPSearchResults();
+            return hasMoreEntries();
         } catch (LDAPException e) {
-            // TODO: log something
+            LOGGER.debug("Failed to get the next search result", e);
 
             return false;
         }
-
-        return results.hasMore();
     }
 
     /**
@@ -181,6 +626,10 @@ public class PagedLDAPSearchResults implements AutoCloseable
      */
     public LDAPEntry next() throws LDAPException
     {
+        if (this.prefetcher != null) {
+            return this.prefetcher.next();
+        }
+
         try {
             return getCurrentLDAPSearchResults().next();
         } catch (LDAPReferralException e) {
@@ -197,7 +646,9 @@ public class PagedLDAPSearchResults implements AutoCloseable
     @Override
     public void close() throws LDAPException
     {
-        if (this.currentSearchResults != null) {
+        if (this.prefetcher != null) {
+            this.prefetcher.close();
+        } else if (this.currentSearchResults != null) {
             this.connection.getConnection().abandon(this.currentSearchResults);
         }
     }
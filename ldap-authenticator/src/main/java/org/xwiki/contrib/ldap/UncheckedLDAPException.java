@@ -0,0 +1,48 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap;
+
+import com.novell.ldap.LDAPException;
+
+/**
+ * Wraps an {@link LDAPException} with an unchecked exception, typically to report it from a
+ * {@link java.util.stream.Stream}.
+ * 
+ * @version $Id$
+ * @since 9.16.3
+ */
+public class UncheckedLDAPException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param cause the wrapped exception
+     */
+    public UncheckedLDAPException(LDAPException cause)
+    {
+        super(cause);
+    }
+
+    @Override
+    public LDAPException getCause()
+    {
+        return (LDAPException) super.getCause();
+    }
+}
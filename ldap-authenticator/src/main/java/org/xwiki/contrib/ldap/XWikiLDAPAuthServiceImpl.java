@@ -24,8 +24,11 @@ import java.security.Principal;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
 
 import org.securityfilter.filter.SecurityRequestWrapper;
 import org.securityfilter.realm.SimplePrincipal;
@@ -33,6 +36,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
+import org.xwiki.contrib.ldap.internal.LDAPCredentialsCache;
+import org.xwiki.contrib.ldap.internal.LDAPExecutors;
+import org.xwiki.contrib.ldap.internal.LDAPSynchronizationQueue;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.text.StringUtils;
 
 import com.novell.ldap.LDAPDN;
@@ -71,6 +78,12 @@ public class XWikiLDAPAuthServiceImpl extends XWikiAuthServiceImpl
 
     private Execution execution;
 
+    private LDAPCredentialsCache credentialsCache;
+
+    private LDAPSynchronizationQueue synchronizationQueue;
+
+    private LDAPExecutors executors;
+
     protected ExecutionContext getExecutionContext()
     {
         if (this.execution == null) {
@@ -80,6 +93,33 @@ public class XWikiLDAPAuthServiceImpl extends XWikiAuthServiceImpl
         return this.execution.getContext();
     }
 
+    private LDAPCredentialsCache getCredentialsCache()
+    {
+        if (this.credentialsCache == null) {
+            this.credentialsCache = Utils.getComponent(LDAPCredentialsCache.class);
+        }
+
+        return this.credentialsCache;
+    }
+
+    private LDAPSynchronizationQueue getSynchronizationQueue()
+    {
+        if (this.synchronizationQueue == null) {
+            this.synchronizationQueue = Utils.getComponent(LDAPSynchronizationQueue.class);
+        }
+
+        return this.synchronizationQueue;
+    }
+
+    private LDAPExecutors getExecutors()
+    {
+        if (this.executors == null) {
+            this.executors = Utils.getComponent(LDAPExecutors.class);
+        }
+
+        return this.executors;
+    }
+
     /**
      * @deprecated since 9.1.1, use {@link #initConfiguration(String)} instead
      */
@@ -303,12 +343,17 @@ public class XWikiLDAPAuthServiceImpl extends XWikiAuthServiceImpl
             return authenticateSuperAdmin(password, context);
         }
 
-        // Try authentication against ldap
-        Principal principal = ldapAuthenticate(userId, password, false, true, context);
+        Principal principal;
+        try {
+            // Try authentication against ldap
+            principal = ldapAuthenticate(userId, password, false, true, context);
 
-        if (principal == null) {
-            // Fallback to local DB only if trylocal is true
-            principal = xwikiAuthenticate(userId, password, context);
+            if (principal == null) {
+                // Fallback to local DB only if trylocal is true
+                principal = xwikiAuthenticate(userId, password, context);
+            }
+        } finally {
+            removeConfiguration();
         }
 
         if (LOGGER.isDebugEnabled()) {
@@ -319,8 +364,6 @@ public class XWikiLDAPAuthServiceImpl extends XWikiAuthServiceImpl
             }
         }
 
-        removeConfiguration();
-
         return principal;
     }
 
@@ -527,14 +570,7 @@ public class XWikiLDAPAuthServiceImpl extends XWikiAuthServiceImpl
 
         XWikiLDAPConfig configuration = initConfiguration(trimedAuthInput);
         XWikiLDAPConnection connector = new XWikiLDAPConnection(configuration);
-        XWikiLDAPUtils ldapUtils = new XWikiLDAPUtils(connector, configuration);
-
-        ldapUtils.setUidAttributeName(configuration.getLDAPParam(XWikiLDAPConfig.PREF_LDAP_UID, LDAP_DEFAULT_UID));
-        ldapUtils.setGroupClasses(configuration.getGroupClasses());
-        ldapUtils.setGroupMemberFields(configuration.getGroupMemberFields());
-        ldapUtils.setBaseDN(configuration.getLDAPParam("ldap_base_DN", ""));
-        ldapUtils.setUserSearchFormatString(configuration.getLDAPParam("ldap_user_search_fmt", "({0}={1})"));
-        ldapUtils.setResolveSubgroups(configuration.getLDAPParamAsLong("ldap_group_sync_resolve_subgroups", 1) == 1);
+        XWikiLDAPUtils ldapUtils = createLDAPUtils(connector, configuration);
 
         String uid = configuration.getMemoryConfiguration().get("uid");
 
@@ -550,6 +586,20 @@ public class XWikiLDAPAuthServiceImpl extends XWikiAuthServiceImpl
             return principal;
         }
 
+        // Recent successful authentications with the same password don't need to go through the LDAP server again:
+        // the groups were checked when the authentication was cached and the cache expiration limits how long it's
+        // trusted
+        boolean authCache = !trusted && configuration.getAuthCacheExpiration() > 0;
+        String authCacheKey = context.getWikiId() + ':' + local + ':' + trimedAuthInput;
+        if (authCache) {
+            Principal cachedPrincipal = getCredentialsCache().get(configuration, authCacheKey, password);
+            if (cachedPrincipal != null) {
+                LOGGER.debug("Credentials of user [{}] found in cache", trimedAuthInput);
+
+                return cachedPrincipal;
+            }
+        }
+
         // ////////////////////////////////////////////////////////////////////
         // 2. bind to LDAP => if failed try db
         // ////////////////////////////////////////////////////////////////////
@@ -586,6 +636,13 @@ public class XWikiLDAPAuthServiceImpl extends XWikiAuthServiceImpl
                 ldapDn = bindDN;
             }
 
+            // Search for the user while checking the groups instead of waiting for step 7
+            CompletableFuture<List<XWikiLDAPSearchAttribute>> searchAttributesFuture = null;
+            if (ldapDn == null && configuration.isLoginSearchAsync()) {
+                searchAttributesFuture =
+                    ldapUtils.searchUserAttributesByUidAsync(uid, ldapUtils.getAttributeNameTable(context));
+            }
+
             // ////////////////////////////////////////////////////////////////////
             // 5. if group param, verify group membership (& get DN)
             // ////////////////////////////////////////////////////////////////////
@@ -630,16 +687,29 @@ public class XWikiLDAPAuthServiceImpl extends XWikiAuthServiceImpl
 
             // if we still don't have a dn, search for it. Also get the attributes, we might need
             // them
-            if (ldapDn == null) {
+            if (searchAttributesFuture != null) {
+                searchAttributes = join(searchAttributesFuture);
+
+                if (ldapDn != null && searchAttributes != null && !searchAttributes.isEmpty()
+                    && !ldapDn.equals(searchAttributes.get(0).value)) {
+                    // Not the entry found in the group
+                    searchAttributes = null;
+                }
+            } else if (ldapDn == null) {
                 searchAttributes = ldapUtils.searchUserAttributesByUid(uid, ldapUtils.getAttributeNameTable(context));
+            }
+
+            // No attributes means that the user could not be found
+            if (searchAttributes != null && searchAttributes.isEmpty()) {
+                searchAttributes = null;
+            }
 
-                if (searchAttributes != null) {
-                    for (XWikiLDAPSearchAttribute searchAttribute : searchAttributes) {
-                        if ("dn".equals(searchAttribute.name)) {
-                            ldapDn = searchAttribute.value;
+            if (ldapDn == null && searchAttributes != null) {
+                for (XWikiLDAPSearchAttribute searchAttribute : searchAttributes) {
+                    if ("dn".equals(searchAttribute.name)) {
+                        ldapDn = searchAttribute.value;
 
-                            break;
-                        }
+                        break;
                     }
                 }
             }
@@ -668,11 +738,16 @@ public class XWikiLDAPAuthServiceImpl extends XWikiAuthServiceImpl
                                 + ldapDn);
                     }
                 } else if (!ldapDn.equals(bindDN)) {
-                    // Validate user credentials
-                    connector.bind(ldapDn, password);
-
-                    // Rebind admin user
-                    connector.bind(bindDN, configuration.getLDAPBindPassword(trimedAuthInput, password));
+                    if (configuration.isBindPoolEnabled()) {
+                        // Validate user credentials without touching the connection bound with the admin user
+                        connector.checkCredentials(ldapDn, password, context);
+                    } else {
+                        // Validate user credentials
+                        connector.bind(ldapDn, password);
+
+                        // Rebind admin user
+                        connector.bind(bindDN, configuration.getLDAPBindPassword(trimedAuthInput, password));
+                    }
                 }
             }
 
@@ -686,6 +761,17 @@ public class XWikiLDAPAuthServiceImpl extends XWikiAuthServiceImpl
                 isNewUser = userProfile == null || userProfile.isNew();
             }
 
+            // Existing users can enter the application right away and be synchronized in the background
+            if (!isNewUser && configuration.isSyncAsync() && configuration.isStaticBind()
+                && syncInBackground(userProfile, searchAttributes, ldapDn, trimedAuthInput, configuration, context)) {
+                LOGGER.debug("Synchronization of user [{}] queued", userProfile.getDocumentReference());
+
+                principal = local ? new SimplePrincipal(userProfile.getFullName())
+                    : new SimplePrincipal(userProfile.getPrefixedFullName());
+
+                return principal;
+            }
+
             // ////////////////////////////////////////////////////////////////////
             // 10. sync user
             // ////////////////////////////////////////////////////////////////////
@@ -710,11 +796,102 @@ public class XWikiLDAPAuthServiceImpl extends XWikiAuthServiceImpl
             }
         } finally {
             connector.close();
+
+            if (authCache) {
+                if (principal == null) {
+                    // The user is not allowed anymore
+                    getCredentialsCache().remove(authCacheKey);
+                } else {
+                    getCredentialsCache().set(configuration, authCacheKey, password, principal);
+                }
+            }
         }
 
         return principal;
     }
 
+    private static <T> T join(CompletableFuture<T> future) throws LDAPException
+    {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            // Give back the LDAP errors the way the synchronous calls report them
+            if (e.getCause() instanceof LDAPException) {
+                throw (LDAPException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    private XWikiLDAPUtils createLDAPUtils(XWikiLDAPConnection connector, XWikiLDAPConfig configuration)
+    {
+        XWikiLDAPUtils ldapUtils = new XWikiLDAPUtils(connector, configuration);
+
+        ldapUtils.setUidAttributeName(configuration.getLDAPParam(XWikiLDAPConfig.PREF_LDAP_UID, LDAP_DEFAULT_UID));
+        ldapUtils.setGroupClasses(configuration.getGroupClasses());
+        ldapUtils.setGroupMemberFields(configuration.getGroupMemberFields());
+        ldapUtils.setBaseDN(configuration.getLDAPParam("ldap_base_DN", ""));
+        ldapUtils.setUserSearchFormatString(configuration.getLDAPParam("ldap_user_search_fmt", "({0}={1})"));
+        ldapUtils.setResolveSubgroups(configuration.getLDAPParamAsLong("ldap_group_sync_resolve_subgroups", 1) == 1);
+
+        return ldapUtils;
+    }
+
+    /**
+     * Queue the synchronization of an existing user profile and groups membership.
+     * 
+     * @return false if the synchronization could not be queued and should be done right away
+     */
+    private boolean syncInBackground(XWikiDocument userProfile, List<XWikiLDAPSearchAttribute> searchAttributes,
+        String ldapDn, String authInput, XWikiLDAPConfig configuration, XWikiContext context)
+    {
+        DocumentReference userReference = userProfile.getDocumentReference();
+
+        Supplier<Boolean> task = getExecutors().withContext(context,
+            backgroundContext -> syncInBackground(userReference, searchAttributes, ldapDn, authInput, configuration,
+                backgroundContext));
+
+        return getSynchronizationQueue().submit(userReference.toString(), configuration.getSyncQueueSize(), task);
+    }
+
+    /**
+     * @return true if the synchronization succeeded
+     */
+    private boolean syncInBackground(DocumentReference userReference, List<XWikiLDAPSearchAttribute> searchAttributes,
+        String ldapDn, String authInput, XWikiLDAPConfig configuration, XWikiContext context)
+    {
+        getExecutionContext().setProperty(CONTEXT_CONFIGURATION, configuration);
+
+        // The connection used for the login is closed, use one bound with the configured bind DN
+        XWikiLDAPConnection connector = new XWikiLDAPConnection(configuration);
+        XWikiLDAPUtils ldapUtils = createLDAPUtils(connector, configuration);
+
+        try {
+            if (!connector.open("", "", context)) {
+                LOGGER.error("Failed to synchronise user [{}] in the background: bind to LDAP server failed",
+                    userReference);
+
+                return false;
+            }
+
+            XWikiDocument userProfile = context.getWiki().getDocument(userReference, context);
+
+            userProfile = syncUser(userProfile, searchAttributes, ldapDn, authInput, ldapUtils, context);
+            syncGroupsMembership(userProfile.getFullName(), ldapDn, false, ldapUtils, context);
+
+            return true;
+        } catch (XWikiException e) {
+            LOGGER.error("Failed to synchronise user [{}] in the background", userReference, e);
+
+            return false;
+        } finally {
+            connector.close();
+        }
+    }
+
     /**
      * Update or create XWiki user base on LDAP.
      * 
@@ -107,6 +107,20 @@ public class XWikiLDAPConfig
      */
     public static final String USERMAPPING_SEP = DEFAULT_SEPARATOR;
 
+    /**
+     * Group resolution relying on the Active Directory LDAP_MATCHING_RULE_IN_CHAIN matching rule.
+     * 
+     * @since 9.16.3
+     */
+    public static final String GROUP_RESOLUTION_MATCHING_RULE_IN_CHAIN = "matching_rule_in_chain";
+
+    /**
+     * User fingerprint computed from the values of all the synchronized attributes.
+     * 
+     * @since 9.16.3
+     */
+    public static final String USER_FINGERPRINT_DIGEST = "digest";
+
     /**
      * Character user to link XWiki field name and LDAP field name in user mappings property.
      */
@@ -742,6 +756,179 @@ public class XWikiLDAPConfig
         return (int) getLDAPParamAsLong("ldap_groupcache_expiration", 21600);
     }
 
+    /**
+     * @return the time in seconds after which a group is reloaded in the background while the cached version is still
+     *         used (until {@link #getCacheExpiration()}), 0 to disable background refresh. Requires a static bind DN.
+     * @since 9.16.3
+     */
+    public int getCacheRefresh()
+    {
+        return (int) getLDAPParamAsLong("ldap_groupcache_refresh", 0);
+    }
+
+    /**
+     * @return the time in seconds between two searches for the groups modified in the LDAP server (to reload the
+     *         cached groups containing them), 0 to disable it. Requires a static bind DN.
+     * @since 9.16.3
+     */
+    public int getCacheIncrementalRefresh()
+    {
+        return (int) getLDAPParamAsLong("ldap_groupcache_incremental_refresh", 0);
+    }
+
+    /**
+     * @return true if the LDAP server should be asked to notify the modified entries (persistent search) to update the
+     *         cached groups and memberships containing them. When not supported by the server the modified groups are
+     *         searched every {@link #getCacheIncrementalRefresh()} seconds (5 minutes if not set). Requires a static
+     *         bind DN.
+     * @since 9.16.3
+     */
+    public boolean isCachePersistentSearch()
+    {
+        return "1".equals(getLDAPParam("ldap_groupcache_persistent_search", "0"));
+    }
+
+    /**
+     * @return the ordered attribute used to find the groups modified in the LDAP server (generally
+     *         {@code modifyTimestamp} or {@code uSNChanged} for Active Directory)
+     * @since 9.16.3
+     */
+    public String getCacheWatermarkAttribute()
+    {
+        return getLDAPParam("ldap_groupcache_watermark", "modifyTimestamp");
+    }
+
+    /**
+     * @return the maximum percentage by which the refresh and expiration time of each cached group is randomly reduced
+     *         to avoid reloading all the groups at the same time
+     * @since 9.16.3
+     */
+    public int getCacheJitter()
+    {
+        return (int) getLDAPParamAsLong("ldap_groupcache_jitter", 10);
+    }
+
+    /**
+     * @return true if the cached groups should be saved on disk when XWiki stops and loaded back (with their original
+     *         refresh and expiration dates) when it starts
+     * @since 9.16.3
+     */
+    public boolean isCacheSnapshot()
+    {
+        return "1".equals(getLDAPParam("ldap_groupcache_snapshot", "0"));
+    }
+
+    /**
+     * @return the time in seconds between two saves of the cached groups on disk, 0 to only save them when XWiki stops
+     * @since 9.16.3
+     */
+    public int getCacheSnapshotInterval()
+    {
+        return (int) getLDAPParamAsLong("ldap_groupcache_snapshot_interval", 0);
+    }
+
+    /**
+     * @return the time in seconds until the groups of a user are to be resolved again, 0 to disable the users
+     *         membership cache
+     * @since 9.16.3
+     */
+    public int getMembershipCacheExpiration()
+    {
+        return (int) getLDAPParamAsLong("ldap_membershipcache_expiration", getCacheExpiration());
+    }
+
+    /**
+     * @return {@link #USER_FINGERPRINT_DIGEST} or the name of an LDAP attribute modified with the entry (like
+     *         {@code modifyTimestamp} or {@code uSNChanged}) used to skip the update of users which did not change
+     *         since the last synchronization, empty to always update the users
+     * @since 9.16.3
+     */
+    public String getUserFingerprint()
+    {
+        return getLDAPParam("ldap_update_user_fingerprint", "");
+    }
+
+    /**
+     * @return the time in seconds during which a successful authentication is reused without contacting the LDAP
+     *         server when the same user provides the same password (the groups and the profile of the user are not
+     *         checked again either), 0 to disable the authentication cache
+     * @since 9.16.3
+     */
+    public int getAuthCacheExpiration()
+    {
+        return (int) getLDAPParamAsLong("ldap_auth_cache", 0);
+    }
+
+    /**
+     * @return the maximum number of successful authentications to remember
+     * @since 9.16.3
+     */
+    public int getAuthCacheSize()
+    {
+        return (int) getLDAPParamAsLong("ldap_auth_cache_size", 1000);
+    }
+
+    /**
+     * @return true if the profile and groups of existing users should be synchronized in the background after the
+     *         login instead of during the login (new users are always synchronized during the login). Requires a
+     *         static bind DN.
+     * @since 9.16.3
+     */
+    public boolean isSyncAsync()
+    {
+        return "1".equals(getLDAPParam("ldap_sync_async", "0"));
+    }
+
+    /**
+     * @return the maximum number of users waiting to be synchronized in the background, when reached users are
+     *         synchronized during the login
+     * @since 9.16.3
+     */
+    public int getSyncQueueSize()
+    {
+        return (int) getLDAPParamAsLong("ldap_sync_queue_size", 1000);
+    }
+
+    /**
+     * @return the time in seconds during which a user or a group which could not be found (or an entry which is not a
+     *         group) is not searched again, 0 to disable the negative cache
+     * @since 9.16.3
+     */
+    public int getNegativeCacheExpiration()
+    {
+        return (int) getLDAPParamAsLong("ldap_negativecache_expiration", 0);
+    }
+
+    /**
+     * @return the maximum number of users and groups which could not be found to remember
+     * @since 9.16.3
+     */
+    public int getNegativeCacheSize()
+    {
+        return (int) getLDAPParamAsLong("ldap_negativecache_size", 10000);
+    }
+
+    /**
+     * @return the prefix of the identifier of the groups cache configuration, followed by {@code .<uid attribute>.<LDAP
+     *         host>:<LDAP port>} (can be used to associate the cache to a replicated cache configuration)
+     * @since 9.16.3
+     */
+    public String getCacheConfigurationId()
+    {
+        return getLDAPParam("ldap_groupcache_configuration", "ldap.groups");
+    }
+
+    /**
+     * @return the prefix of the identifier of the users membership cache configuration, followed by
+     *         {@code .<uid attribute>.<LDAP host>:<LDAP port>} (can be used to associate the cache to a replicated
+     *         cache configuration)
+     * @since 9.16.3
+     */
+    public String getMembershipCacheConfigurationId()
+    {
+        return getLDAPParam("ldap_membershipcache_configuration", "ldap.membership");
+    }
+
     /**
      * @param context the XWiki context.
      * @return the pattern to resolve to find the password to use to connect to LDAP server. It is based on
@@ -1231,6 +1418,17 @@ public class XWikiLDAPConfig
         return (int) getLDAPParamAsLong("ldap_searchPageSize", 500);
     }
 
+    /**
+     * @return the number of search pages to request in advance while the current one is being consumed, 0 to only
+     *         request the next page when the current one is fully consumed. A search whose pages are not consumed
+     *         within {@link #getLDAPTimeout()} (or a minute when there is no timeout) is abandoned.
+     * @since 9.16.3
+     */
+    public int getSearchPagePrefetch()
+    {
+        return (int) getLDAPParamAsLong("ldap_searchPagePrefetch", 0);
+    }
+
     /**
      * @return true if referrals should be followed
      * @since 9.12.0
@@ -1239,4 +1437,244 @@ public class XWikiLDAPConfig
     {
         return "1".equals(getLDAPParam("ldap_follow_referrals", "1"));
     }
+
+    /**
+     * @return true if the DN and password used to bind the LDAP connection don't depend on the authenticated user
+     *         (i.e. a service account is configured)
+     * @since 9.16.3
+     */
+    public boolean isStaticBind()
+    {
+        return getLDAPBindDN("a", "a").equals(getLDAPBindDN("b", "b"))
+            && getLDAPBindPassword("a", "a").equals(getLDAPBindPassword("b", "b"));
+    }
+
+    /**
+     * @return true if bound LDAP connections should be reused between authentications
+     * @since 9.16.3
+     */
+    public boolean isConnectionPoolEnabled()
+    {
+        return "1".equals(getLDAPParam("ldap_pool", "0"));
+    }
+
+    /**
+     * @return the number of connections to keep open in the pool even when they are idle
+     * @since 9.16.3
+     */
+    public int getConnectionPoolMinSize()
+    {
+        return (int) getLDAPParamAsLong("ldap_pool_min_size", 0);
+    }
+
+    /**
+     * @return the maximum number of connections (idle or in use) to open for the same server and bind DN
+     * @since 9.16.3
+     */
+    public int getConnectionPoolMaxSize()
+    {
+        return (int) getLDAPParamAsLong("ldap_pool_max_size", 10);
+    }
+
+    /**
+     * @return the maximum number of milliseconds to wait for a connection when the pool is exhausted
+     * @since 9.16.3
+     */
+    public long getConnectionPoolMaxWait()
+    {
+        return getLDAPParamAsLong("ldap_pool_max_wait", 5000);
+    }
+
+    /**
+     * @return the time in seconds after which an idle connection is closed
+     * @since 9.16.3
+     */
+    public int getConnectionPoolIdleTimeout()
+    {
+        return (int) getLDAPParamAsLong("ldap_pool_idle_timeout", 300);
+    }
+
+    /**
+     * @return the time in seconds after which a connection is closed, whatever its state
+     * @since 9.16.3
+     */
+    public int getConnectionPoolMaxLifetime()
+    {
+        return (int) getLDAPParamAsLong("ldap_pool_max_lifetime", 3600);
+    }
+
+    /**
+     * @return true if a pooled connection should be checked against the server before being reused
+     * @since 9.16.3
+     */
+    public boolean isConnectionPoolValidateOnBorrow()
+    {
+        return "1".equals(getLDAPParam("ldap_pool_validate", "1"));
+    }
+
+    /**
+     * @return true if user credentials should be validated on dedicated connections instead of rebinding the
+     *         connection used for searches
+     * @since 9.16.3
+     */
+    public boolean isBindPoolEnabled()
+    {
+        return "1".equals(getLDAPParam("ldap_bind_pool", "0"));
+    }
+
+    /**
+     * @return the maximum number of connections dedicated to the validation of user credentials
+     * @since 9.16.3
+     */
+    public int getBindPoolMaxSize()
+    {
+        return (int) getLDAPParamAsLong("ldap_bind_pool_max_size", 5);
+    }
+
+    /**
+     * @return true if the Active Directory fast bind mode should be enabled on the connections dedicated to the
+     *         validation of user credentials
+     * @since 9.16.3
+     */
+    public boolean isFastBind()
+    {
+        return "1".equals(getLDAPParam("ldap_fast_bind", "0"));
+    }
+
+    /**
+     * @return the number of seconds the result of a SRV service discovery is reused, 0 to disable the cache
+     * @since 9.16.3
+     */
+    public long getServiceDiscoveryTTL()
+    {
+        return getLDAPParamAsLong("ldap_service_discovery_ttl", 300);
+    }
+
+    /**
+     * @return the number of seconds an expired result of a SRV service discovery can still be used when the DNS server
+     *         cannot be reached
+     * @since 9.16.3
+     */
+    public long getServiceDiscoveryStaleTTL()
+    {
+        return getLDAPParamAsLong("ldap_service_discovery_stale_ttl", 86400);
+    }
+
+    /**
+     * @return true if connections should be opened to the fastest available server instead of trying the servers in
+     *         the configured or discovered order
+     * @since 9.16.3
+     */
+    public boolean isServerHealthTracking()
+    {
+        return "1".equals(getLDAPParam("ldap_server_health_tracking", "0"));
+    }
+
+    /**
+     * @return the number of seconds between two checks of a server which failed to accept a connection
+     * @since 9.16.3
+     */
+    public long getServerHealthProbeInterval()
+    {
+        return getLDAPParamAsLong("ldap_server_health_probe_interval", 30);
+    }
+
+    /**
+     * @return the maximum number of servers to try to connect to at the same time
+     * @since 9.16.3
+     */
+    public int getConnectParallelism()
+    {
+        return (int) getLDAPParamAsLong("ldap_connect_parallelism", 1);
+    }
+
+    /**
+     * @return the number of milliseconds to wait for a connection attempt before starting one with the next server
+     * @since 9.16.3
+     */
+    public long getConnectStagger()
+    {
+        return getLDAPParamAsLong("ldap_connect_stagger", 250);
+    }
+
+    /**
+     * @return the maximum number of milliseconds to wait for a server to accept a connection, 0 for no limit
+     * @since 9.16.3
+     */
+    public long getConnectTimeout()
+    {
+        return getLDAPParamAsLong("ldap_connect_timeout", 0);
+    }
+
+    /**
+     * @return the maximum number of threads used to connect to the servers at the same time (for all the
+     *         authentications)
+     * @since 9.16.3
+     */
+    public int getConnectThreads()
+    {
+        return (int) getLDAPParamAsLong("ldap_connect_threads", 20);
+    }
+
+    /**
+     * @return true if the user should be searched during authentication at the same time as the group membership
+     *         checks, on the same connection
+     * @since 9.16.3
+     */
+    public boolean isLoginSearchAsync()
+    {
+        return "1".equals(getLDAPParam("ldap_login_search_async", "0"));
+    }
+
+    /**
+     * @return the maximum number of DNs to resolve with a single search when expanding the members of a group, 0 to
+     *         resolve each member with its own search
+     * @since 9.16.3
+     */
+    public int getGroupExpansionBatchSize()
+    {
+        return (int) getLDAPParamAsLong("ldap_group_expansion_batch_size", 0);
+    }
+
+    /**
+     * @return the attribute containing the DN of an entry, used to search several entries by DN in a single search
+     *         (generally {@code distinguishedName} for Active Directory and {@code entryDN} for OpenLDAP)
+     * @since 9.16.3
+     */
+    public String getGroupExpansionDNAttribute()
+    {
+        return getLDAPParam("ldap_group_expansion_dn_attribute", "distinguishedName");
+    }
+
+    /**
+     * @return the maximum number of group members to resolve at the same time when expanding the members of a group, 1
+     *         to resolve them one after the other (takes precedence over {@link #getGroupExpansionBatchSize()})
+     * @since 9.16.3
+     */
+    public int getGroupExpansionParallelism()
+    {
+        return (int) getLDAPParamAsLong("ldap_group_expansion_parallelism", 1);
+    }
+
+    /**
+     * @return the strategy used to resolve the members of a group: {@code default} to expand the group and its
+     *         subgroups on client side or {@value #GROUP_RESOLUTION_MATCHING_RULE_IN_CHAIN} to let Active Directory
+     *         resolve the subgroups (falling back on the default strategy when it fails)
+     * @since 9.16.3
+     */
+    public String getGroupResolution()
+    {
+        return getLDAPParam("ldap_group_resolution", "default");
+    }
+
+    /**
+     * @return true if the membership of a single user should be checked by asking the LDAP server directly (compare
+     *         on the group and walk up the {@code memberOf} attribute) instead of retrieving all the members of the
+     *         group
+     * @since 9.16.3
+     */
+    public boolean isGroupMembershipCheck()
+    {
+        return "1".equals(getLDAPParam("ldap_group_membership_check", "0"));
+    }
 }
@@ -20,6 +20,7 @@
 package org.xwiki.contrib.ldap;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.security.Provider;
 import java.security.Security;
 import java.util.ArrayList;
@@ -27,24 +28,33 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
-import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
-
-import javax.naming.Context;
-import javax.naming.NameNotFoundException;
-import javax.naming.NamingException;
-import javax.naming.directory.Attribute;
-import javax.naming.directory.Attributes;
-import javax.naming.directory.DirContext;
-import javax.naming.directory.InitialDirContext;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLSocketFactory;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xwiki.contrib.ldap.internal.LDAPConnectionPool;
+import org.xwiki.contrib.ldap.internal.LDAPConnectionPool.PooledConnection;
+import org.xwiki.contrib.ldap.internal.LDAPExecutors;
+import org.xwiki.contrib.ldap.internal.LDAPServerHealthTracker;
+import org.xwiki.contrib.ldap.internal.LDAPServerHealthTracker.Server;
+import org.xwiki.contrib.ldap.internal.LDAPServiceDiscovery;
+import org.xwiki.contrib.ldap.internal.LDAPTimeoutSocketFactory;
+import org.xwiki.contrib.ldap.internal.SRVRecord;
 
 import com.novell.ldap.LDAPAttribute;
 import com.novell.ldap.LDAPAttributeSet;
@@ -52,11 +62,19 @@ import com.novell.ldap.LDAPConnection;
 import com.novell.ldap.LDAPDN;
 import com.novell.ldap.LDAPEntry;
 import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPExtendedOperation;
 import com.novell.ldap.LDAPJSSESecureSocketFactory;
+import com.novell.ldap.LDAPMessage;
+import com.novell.ldap.LDAPResponse;
+import com.novell.ldap.LDAPResponseQueue;
 import com.novell.ldap.LDAPSearchConstraints;
+import com.novell.ldap.LDAPSearchQueue;
+import com.novell.ldap.LDAPSearchResult;
+import com.novell.ldap.LDAPSearchResultReference;
 import com.novell.ldap.LDAPSearchResults;
 import com.novell.ldap.LDAPSocketFactory;
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.web.Utils;
 
 /**
  * LDAP communication tool.
@@ -71,6 +89,11 @@ public class XWikiLDAPConnection
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(XWikiLDAPConnection.class);
 
+    /**
+     * The OID of the Active Directory fast bind extended operation.
+     */
+    private static final String FAST_BIND_OID = "1.2.840.113556.1.4.1781";
+
     /**
      * The LDAP connection.
      */
@@ -83,6 +106,24 @@ public class XWikiLDAPConnection
 
     private final XWikiLDAPConfig configuration;
 
+    /**
+     * The pooled connection currently used, null if the connection does not come from the pool.
+     */
+    private PooledConnection pooledConnection;
+
+    /**
+     * The DN the connection is currently bound with.
+     */
+    private String boundDN;
+
+    private LDAPConnectionPool connectionPool;
+
+    private LDAPServiceDiscovery serviceDiscovery;
+
+    private LDAPServerHealthTracker healthTracker;
+
+    private LDAPExecutors executors;
+
     /**
      * @deprecated since 8.5, use {@link #XWikiLDAPConnection(XWikiLDAPConfig)} instead
      */
@@ -110,6 +151,43 @@ public class XWikiLDAPConnection
 
         this.connection = connection.connection;
         this.binaryAttributes = connection.binaryAttributes;
+        this.boundDN = connection.boundDN;
+    }
+
+    LDAPExecutors getExecutors()
+    {
+        if (this.executors == null) {
+            this.executors = Utils.getComponent(LDAPExecutors.class);
+        }
+
+        return this.executors;
+    }
+
+    private LDAPServerHealthTracker getHealthTracker()
+    {
+        if (this.healthTracker == null) {
+            this.healthTracker = Utils.getComponent(LDAPServerHealthTracker.class);
+        }
+
+        return this.healthTracker;
+    }
+
+    private LDAPServiceDiscovery getServiceDiscovery()
+    {
+        if (this.serviceDiscovery == null) {
+            this.serviceDiscovery = Utils.getComponent(LDAPServiceDiscovery.class);
+        }
+
+        return this.serviceDiscovery;
+    }
+
+    private LDAPConnectionPool getConnectionPool()
+    {
+        if (this.connectionPool == null) {
+            this.connectionPool = Utils.getComponent(LDAPConnectionPool.class);
+        }
+
+        return this.connectionPool;
     }
 
     /**
@@ -149,31 +227,57 @@ public class XWikiLDAPConnection
      * @throws XWikiLDAPException error when trying to open connection.
      */
     public boolean open(String ldapUserName, String password, XWikiContext context) throws XWikiLDAPException
+    {
+        return open(ldapUserName, password, true, context);
+    }
+
+    /**
+     * Open a LDAP connection which is never taken from (or given back to) the connection pool, for example because it
+     * will be kept for a long time.
+     * 
+     * @param ldapUserName the user name to connect to LDAP server.
+     * @param password the password to connect to LDAP server.
+     * @param context the XWiki context.
+     * @return true if connection succeed, false otherwise.
+     * @throws XWikiLDAPException error when trying to open connection.
+     * @since 9.16.3
+     */
+    public boolean openDedicated(String ldapUserName, String password, XWikiContext context)
+        throws XWikiLDAPException
+    {
+        return open(ldapUserName, password, false, context);
+    }
+
+    private boolean open(String ldapUserName, String password, boolean pooled, XWikiContext context)
+        throws XWikiLDAPException
     {
         // open LDAP
         int ldapPort = this.configuration.getLDAPPort();
-        String ldapHost = this.configuration.getLDAPParam("ldap_server", "localhost");
+        String ldapHost = getHost();
 
         // allow to use the given user and password also as the LDAP bind user and password
         String bindDN = this.configuration.getLDAPBindDN(ldapUserName, password);
         String bindPassword = this.configuration.getLDAPBindPassword(ldapUserName, password);
 
-        boolean bind;
-        if ("1".equals(this.configuration.getLDAPParam("ldap_ssl", "0"))) {
-            String keyStore = this.configuration.getLDAPParam("ldap_ssl.keystore", "");
+        boolean ssl = isSSL();
+        String keyStore = null;
+        if (ssl) {
+            keyStore = getKeyStore();
 
             LOGGER.debug("Connecting to LDAP using SSL");
+        }
 
-            bind = open(ldapHost, ldapPort, bindDN, bindPassword, keyStore, true, context);
-        } else {
-            bind = open(ldapHost, ldapPort, bindDN, bindPassword, null, false, context);
+        // Only reuse connections bound with a service account: a connection bound with the credentials provided by the
+        // user is what validates those credentials
+        if (pooled && this.configuration.isConnectionPoolEnabled() && this.configuration.isStaticBind()) {
+            return openPooled(ldapHost, ldapPort, bindDN, bindPassword, keyStore, ssl, context);
         }
 
-        return bind;
+        return open(ldapHost, ldapPort, bindDN, bindPassword, keyStore, ssl, context);
     }
 
     /**
-     * Open LDAP connection.
+     * Borrow an already bound connection from the pool or create a new one.
      * 
      * @param ldapHost the host of the server to connect to.
      * @param ldapPort the port of the server to connect to.
@@ -185,8 +289,52 @@ public class XWikiLDAPConnection
      * @return true if the connection succeed, false otherwise.
      * @throws XWikiLDAPException error when trying to open connection.
      */
-    public boolean open(String ldapHost, int ldapPort, String loginDN, String password, String pathToKeys, boolean ssl,
-        XWikiContext context) throws XWikiLDAPException
+    private boolean openPooled(String ldapHost, int ldapPort, String loginDN, String password, String pathToKeys,
+        boolean ssl, XWikiContext context) throws XWikiLDAPException
+    {
+        int port = getPort(ldapPort, ssl);
+        boolean doServiceDiscovery = isServiceDiscovery();
+
+        setBinaryAttributes(this.configuration.getBinaryAttributes());
+
+        String key = LDAPConnectionPool.createKey(ldapHost, port, ssl, pathToKeys, doServiceDiscovery, loginDN,
+            password);
+
+        // The factory is kept by the pool and also called from the eviction thread to maintain the minimum number of
+        // idle connections: it must not reference the current request (context, this connection), the constraints are
+        // applied when the connection is borrowed
+        XWikiLDAPConnection connector = new XWikiLDAPConnection(this.configuration);
+        byte[] passwordBytes = password.getBytes(StandardCharsets.UTF_8);
+
+        try {
+            this.pooledConnection =
+                getConnectionPool().borrow(key, loginDN, new LDAPConnectionPool.Settings(this.configuration), () -> {
+                    LDAPConnection ldapConnection =
+                        connector.connect(ldapHost, port, doServiceDiscovery, ssl, pathToKeys);
+                    try {
+                        ldapConnection.bind(LDAPConnection.LDAP_V3, loginDN, passwordBytes);
+                    } catch (LDAPException e) {
+                        disconnect(ldapConnection);
+
+                        throw e;
+                    }
+
+                    return ldapConnection;
+                });
+            this.connection = this.pooledConnection.getConnection();
+            this.boundDN = loginDN;
+
+            // The connection might have been created by another request (or without any) and the configuration might
+            // have changed since then
+            setConstraints(this.connection, loginDN, password, context);
+        } catch (LDAPException e) {
+            throw new XWikiLDAPException("LDAP bind failed with LDAPException.", e);
+        }
+
+        return true;
+    }
+
+    private int getPort(int ldapPort, boolean ssl)
     {
         int port = ldapPort;
 
@@ -194,51 +342,55 @@ public class XWikiLDAPConnection
             port = ssl ? LDAPConnection.DEFAULT_SSL_PORT : LDAPConnection.DEFAULT_PORT;
         }
 
-        setBinaryAttributes(this.configuration.getBinaryAttributes());
+        return port;
+    }
 
-        try {
-            if (ssl) {
-                // The security providers are preregistered and used depending on the context, so there is no need to
-                // set one. Dynamically set it only if a specific provider is requested.
-                Provider secureProvider = this.configuration.getSecureProvider();
-                if (secureProvider != null) {
-                    Security.addProvider(secureProvider);
-                }
+    private boolean isServiceDiscovery()
+    {
+        return "1".equals(this.configuration.getLDAPParam("ldap_service_discovery", "1"));
+    }
 
-                if (pathToKeys != null && pathToKeys.length() > 0) {
-                    // Dynamically set the property that JSSE uses to identify
-                    // the keystore that holds trusted root certificates
+    private String getHost()
+    {
+        return this.configuration.getLDAPParam("ldap_server", "localhost");
+    }
 
-                    System.setProperty("javax.net.ssl.trustStore", pathToKeys);
-                    // obviously unnecessary: sun default pwd = "changeit"
-                    // System.setProperty("javax.net.ssl.trustStorePassword", sslpwd);
-                }
+    private boolean isSSL()
+    {
+        return "1".equals(this.configuration.getLDAPParam("ldap_ssl", "0"));
+    }
 
-                LDAPSocketFactory ssf = new LDAPJSSESecureSocketFactory();
+    private String getKeyStore()
+    {
+        return this.configuration.getLDAPParam("ldap_ssl.keystore", "");
+    }
 
-                // Set the socket factory as the default for all future connections
-                // LDAPConnection.setSocketFactory(ssf);
+    /**
+     * Open LDAP connection.
+     * 
+     * @param ldapHost the host of the server to connect to.
+     * @param ldapPort the port of the server to connect to.
+     * @param loginDN the user DN to connect to LDAP server.
+     * @param password the password to connect to LDAP server.
+     * @param pathToKeys the path to SSL keystore to use.
+     * @param ssl if true connect using SSL.
+     * @param context the XWiki context.
+     * @return true if the connection succeed, false otherwise.
+     * @throws XWikiLDAPException error when trying to open connection.
+     */
+    public boolean open(String ldapHost, int ldapPort, String loginDN, String password, String pathToKeys, boolean ssl,
+        XWikiContext context) throws XWikiLDAPException
+    {
+        int port = getPort(ldapPort, ssl);
 
-                // Note: the socket factory can also be passed in as a parameter
-                // to the constructor to set it for this connection only.
-                this.connection = new LDAPConnection(ssf);
-            } else {
-                this.connection = new LDAPConnection();
-            }
+        setBinaryAttributes(this.configuration.getBinaryAttributes());
 
+        try {
             // connect
-            boolean doServiceDiscovery = "1".equals(this.configuration.getLDAPParam("ldap_service_discovery", "1"));
-            connect(ldapHost, port, doServiceDiscovery, ssl);
+            this.connection = connect(ldapHost, port, isServiceDiscovery(), ssl, pathToKeys);
 
             // set referral following
-            LDAPSearchConstraints constraints = new LDAPSearchConstraints(this.connection.getConstraints());
-            constraints.setTimeLimit(getTimeout(context));
-            constraints.setMaxResults(getMaxResults(context));
-            if (this.configuration.isFollowReferrals()) {
-                constraints.setReferralFollowing(true);
-                constraints.setReferralHandler(new LDAPPluginReferralHandler(loginDN, password, context));
-            }
-            this.connection.setConstraints(constraints);
+            setConstraints(this.connection, loginDN, password, context);
 
             // bind
             bind(loginDN, password);
@@ -251,6 +403,84 @@ public class XWikiLDAPConnection
         return true;
     }
 
+    /**
+     * @param ssl if true connect using SSL.
+     * @param pathToKeys the path to SSL keystore to use.
+     * @return a new not yet connected LDAP connection
+     * @throws LDAPException error when trying to setup the secure provider
+     */
+    LDAPConnection createConnection(boolean ssl, String pathToKeys) throws LDAPException
+    {
+        // Don't let the operating system decide how long to wait for an unreachable server
+        int connectTimeout = (int) this.configuration.getConnectTimeout();
+
+        if (ssl) {
+            // The security providers are preregistered and used depending on the context, so there is no need to
+            // set one. Dynamically set it only if a specific provider is requested.
+            Provider secureProvider;
+            try {
+                secureProvider = this.configuration.getSecureProvider();
+            } catch (XWikiLDAPException e) {
+                throw new LDAPException("Failed to get the secure provider", LDAPException.LOCAL_ERROR,
+                    e.getMessage(), e);
+            }
+            if (secureProvider != null) {
+                Security.addProvider(secureProvider);
+            }
+
+            if (pathToKeys != null && pathToKeys.length() > 0) {
+                // Dynamically set the property that JSSE uses to identify
+                // the keystore that holds trusted root certificates
+
+                System.setProperty("javax.net.ssl.trustStore", pathToKeys);
+                // obviously unnecessary: sun default pwd = "changeit"
+                // System.setProperty("javax.net.ssl.trustStorePassword", sslpwd);
+            }
+
+            if (connectTimeout > 0) {
+                return new LDAPConnection(
+                    new LDAPTimeoutSocketFactory(connectTimeout, (SSLSocketFactory) SSLSocketFactory.getDefault()));
+            }
+
+            LDAPSocketFactory ssf = new LDAPJSSESecureSocketFactory();
+
+            // Set the socket factory as the default for all future connections
+            // LDAPConnection.setSocketFactory(ssf);
+
+            // Note: the socket factory can also be passed in as a parameter
+            // to the constructor to set it for this connection only.
+            return new LDAPConnection(ssf);
+        }
+
+        if (connectTimeout > 0) {
+            return new LDAPConnection(new LDAPTimeoutSocketFactory(connectTimeout, null));
+        }
+
+        return new LDAPConnection();
+    }
+
+    /**
+     * Set the search constraints (timeout, maximum number of results, referral following) of the connection.
+     * 
+     * @param ldapConnection the connection to configure
+     * @param loginDN the user DN used to follow referrals.
+     * @param password the password used to follow referrals.
+     * @param context the XWiki context.
+     */
+    private void setConstraints(LDAPConnection ldapConnection, String loginDN, String password, XWikiContext context)
+    {
+        LDAPSearchConstraints constraints = new LDAPSearchConstraints(ldapConnection.getConstraints());
+        constraints.setTimeLimit(getTimeout(context));
+        constraints.setMaxResults(getMaxResults(context));
+        if (this.configuration.isFollowReferrals()) {
+            constraints.setReferralFollowing(true);
+            constraints.setReferralHandler(new LDAPPluginReferralHandler(loginDN, password, context));
+        } else {
+            constraints.setReferralFollowing(false);
+        }
+        ldapConnection.setConstraints(constraints);
+    }
+
     /**
      * Connect to server.
      * 
@@ -259,14 +489,31 @@ public class XWikiLDAPConnection
      * @param doServiceDiscovery if true, LDAP hosts are discovered via a SRV record lookup. If no SRV record is found,
      *            <code>ldapHost</code> is used as fallback.
      * @param ssl if true service discovery is performed for LDAPS.
+     * @param pathToKeys the path to SSL keystore to use.
+     * @return the connected LDAP connection
      * @throws LDAPException error when trying to connect.
      */
-    private void connect(String ldapHost, int port, boolean doServiceDiscovery, boolean ssl) throws LDAPException
+    private LDAPConnection connect(String ldapHost, int port, boolean doServiceDiscovery, boolean ssl,
+        String pathToKeys) throws LDAPException
     {
+        // Each server needs to be handled separately to choose the order and the timeout of the attempts
+        boolean serverSelection = this.configuration.isServerHealthTracking()
+            || this.configuration.getConnectParallelism() > 1 || this.configuration.getConnectTimeout() > 0;
+
         if (doServiceDiscovery) {
-            List<SRVRecord> ldapSRVRecords = discoverLDAPService(ldapHost, ssl);
+            List<SRVRecord> ldapSRVRecords = getServiceDiscovery().discover(ldapHost, ssl, this.configuration);
             if (ldapSRVRecords != null && !ldapSRVRecords.isEmpty()) {
                 LOGGER.debug("{} SRV record(s) discovered", ldapSRVRecords.size());
+
+                if (serverSelection) {
+                    List<Server> servers = new ArrayList<>(ldapSRVRecords.size());
+                    for (SRVRecord ldapSRVRecord : ldapSRVRecords) {
+                        servers.add(new Server(ldapSRVRecord.getTarget(), ldapSRVRecord.getPort()));
+                    }
+
+                    return connect(servers, ssl, pathToKeys);
+                }
+
                 StringBuilder ldapHostListBuilder = new StringBuilder();
                 final String SEPARATOR = " ";
                 for (SRVRecord ldapSRVRecord : ldapSRVRecords) {
@@ -279,160 +526,244 @@ public class XWikiLDAPConnection
             }
         }
 
+        if (serverSelection) {
+            return connect(parseServers(ldapHost, port), ssl, pathToKeys);
+        }
+
         LOGGER.debug("Connection to LDAP server [{}:{}]", ldapHost, port);
 
         // connect to the server
-        this.connection.connect(ldapHost, port);
+        LDAPConnection ldapConnection = createConnection(ssl, pathToKeys);
+        try {
+            ldapConnection.connect(ldapHost, port);
+        } catch (LDAPException e) {
+            disconnect(ldapConnection);
+
+            throw e;
+        }
+
+        return ldapConnection;
     }
 
     /**
-     * This class encapsulates an SRV record.
+     * Connect to one of the passed servers.
+     * <p>
+     * The servers are tried in order (the order of the health tracker if enabled). A new attempt is started when the
+     * previous one failed or when it did not succeed after the configured stagger delay, with at most the configured
+     * number of attempts running at the same time. The first connection established wins and the other ones are
+     * closed.
+     * <p>
+     * The connect timeout is applied to the sockets themselves so that the threads (taken from a bounded pool) which
+     * are trying to reach an unavailable server are released after that delay too. When all those threads are busy, the
+     * attempt is executed by the current thread.
      * 
-     * @see <a href="https://tools.ietf.org/html/rfc2782">RFC 2782: A DNS RR for specifying the location of services
-     *      (DNS SRV)</a>
+     * @param servers the candidate servers
+     * @param ssl if true connect using SSL.
+     * @param pathToKeys the path to SSL keystore to use.
+     * @return the connected LDAP connection
+     * @throws LDAPException error when failing to connect to any of the servers
      */
-    private static class SRVRecord
+    LDAPConnection connect(List<Server> servers, boolean ssl, String pathToKeys) throws LDAPException
     {
-        private int priority, weight, port;
+        LDAPServerHealthTracker healthTracker =
+            this.configuration.isServerHealthTracking() ? getHealthTracker() : null;
+        List<Server> candidates = healthTracker != null ? healthTracker.sort(servers) : servers;
 
-        private String target;
+        int parallelism = Math.max(1, this.configuration.getConnectParallelism());
+        long stagger = this.configuration.getConnectStagger();
+        long timeout = this.configuration.getConnectTimeout();
 
-        /**
-         * Creates an SRV Record from the given data
-         *
-         * @param attributes A string array that contains priority, weight, port and name of the server (in that order)
-         */
-        public SRVRecord(String[] attributes)
-        {
-            if (attributes.length != 4)
-                throw new IllegalArgumentException(
-                    "attributes array needs exactly 4 entries: priority, weight, port and server name");
-            // format for an JNDI SRV record lookup is "0 100 389 dc1.example.com."
-            this.priority = Integer.parseInt(attributes[0]);
-            this.weight = Integer.parseInt(attributes[1]);
-            this.port = Integer.parseInt(attributes[2]);
-            this.target = attributes[3];
-        }
-
-        /** Returns the priority */
-        public int getPriority()
-        {
-            return priority;
-        }
+        ExecutorService connectExecutor = getExecutors().getConnectExecutor(this.configuration.getConnectThreads());
+        CompletionService<ConnectAttempt> completionService = new ExecutorCompletionService<>(command -> {
+            try {
+                connectExecutor.execute(command);
+            } catch (RejectedExecutionException e) {
+                // Too many attempts are already waiting for (probably unreachable) servers, connect from the current
+                // thread instead of failing (the socket connect timeout still applies)
+                LOGGER.debug("No thread available to connect to the LDAP server, connecting from the current thread");
 
-        /** Returns the weight */
-        public int getWeight()
-        {
-            return weight;
+                command.run();
+            }
+        });
+        List<ConnectAttempt> running = new ArrayList<>(parallelism);
+        int next = 0;
+        long lastStart = 0;
+        LDAPException lastException = null;
+
+        try {
+            while (true) {
+                long now = System.currentTimeMillis();
+
+                boolean canStart = next < candidates.size() && running.size() < parallelism;
+                if (canStart && (running.isEmpty() || now - lastStart >= stagger)) {
+                    Server server = candidates.get(next++);
+
+                    LOGGER.debug("Connection to LDAP server [{}]", server);
+
+                    ConnectAttempt attempt = new ConnectAttempt(server, createConnection(ssl, pathToKeys));
+                    completionService.submit(attempt);
+                    running.add(attempt);
+                    lastStart = now;
+
+                    continue;
+                }
+
+                if (running.isEmpty()) {
+                    break;
+                }
+
+                // Wait for an attempt to finish, the next attempt to start or the first attempt to time out
+                long wait = canStart ? lastStart + stagger - now : Long.MAX_VALUE;
+                if (timeout > 0) {
+                    for (ConnectAttempt attempt : running) {
+                        wait = Math.min(wait, attempt.start + timeout - now);
+                    }
+                }
+
+                Future<ConnectAttempt> future = wait == Long.MAX_VALUE ? completionService.take()
+                    : completionService.poll(Math.max(0, wait), TimeUnit.MILLISECONDS);
+
+                if (future != null) {
+                    ConnectAttempt attempt = future.get();
+                    running.remove(attempt);
+
+                    if (attempt.exception == null) {
+                        if (healthTracker != null) {
+                            healthTracker.onSuccess(attempt.server, attempt.end - attempt.start);
+                        }
+
+                        return attempt.connection;
+                    }
+
+                    if (healthTracker != null) {
+                        healthTracker.onFailure(attempt.server, attempt.exception,
+                            this.configuration.getServerHealthProbeInterval());
+                    }
+                    lastException = attempt.exception;
+
+                    // Don't wait for the stagger delay to try the next server
+                    lastStart = 0;
+                } else if (timeout > 0) {
+                    now = System.currentTimeMillis();
+                    for (Iterator<ConnectAttempt> it = running.iterator(); it.hasNext();) {
+                        ConnectAttempt attempt = it.next();
+                        if (now - attempt.start >= timeout) {
+                            it.remove();
+                            attempt.abandon();
+
+                            lastException = new LDAPException("Connection to [" + attempt.server + "] timed out",
+                                LDAPException.CONNECT_ERROR, null);
+                            if (healthTracker != null) {
+                                healthTracker.onFailure(attempt.server, lastException,
+                                    this.configuration.getServerHealthProbeInterval());
+                            }
+
+                            lastStart = 0;
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new LDAPException("Interrupted while connecting", LDAPException.CONNECT_ERROR, null, e);
+        } catch (ExecutionException e) {
+            // Should never happen since the attempts catch their own exceptions
+            throw new LDAPException("Failed to connect", LDAPException.CONNECT_ERROR, null, e.getCause());
+        } finally {
+            // Close the losers
+            for (ConnectAttempt attempt : running) {
+                attempt.abandon();
+            }
         }
 
-        /** Returns the port that the service runs on */
-        public int getPort()
-        {
-            return port;
+        if (lastException != null) {
+            throw lastException;
         }
 
-        /** Returns the host running the service */
-        public String getTarget()
+        throw new LDAPException("No LDAP server to connect to", LDAPException.CONNECT_ERROR, null);
+    }
+
+    /**
+     * An attempt to connect to a specific server.
+     */
+    private static final class ConnectAttempt implements Callable<ConnectAttempt>
+    {
+        private final Server server;
+
+        private final LDAPConnection connection;
+
+        private final long start = System.currentTimeMillis();
+
+        private long end;
+
+        private LDAPException exception;
+
+        private boolean done;
+
+        private boolean abandoned;
+
+        ConnectAttempt(Server server, LDAPConnection connection)
         {
-            return target;
+            this.server = server;
+            this.connection = connection;
         }
 
-        /** Converts SRV record to a String */
         @Override
-        public String toString()
+        public ConnectAttempt call()
         {
-            StringBuilder sb = new StringBuilder();
-            sb.append(priority).append(" ");
-            sb.append(weight).append(" ");
-            sb.append(port).append(" ");
-            sb.append(target);
-            return sb.toString();
+            try {
+                this.connection.connect(this.server.getHost(), this.server.getPort());
+            } catch (LDAPException e) {
+                this.exception = e;
+            }
+
+            this.end = System.currentTimeMillis();
+
+            synchronized (this) {
+                this.done = true;
+
+                if (this.abandoned) {
+                    disconnect(this.connection);
+                }
+            }
+
+            return this;
         }
 
         /**
-         * Performs a weighted shuffle on a list of SRV records using Efraimidis/Spirakis fast parallel weighted random
-         * sampling algorithm A
-         * 
-         * @param records a list of SRV records
-         * @return a list of SRV records, shuffled according to their weight
+         * Indicate that the result of the attempt is not needed anymore.
          */
-        private static List<SRVRecord> efraimidisWeightedShuffle(List<SRVRecord> records)
+        synchronized void abandon()
         {
-            List<Pair<SRVRecord, Double>> recordKeyList = new ArrayList<>(records.size());
-            for (SRVRecord record : records) {
-                // Math.radom() returns doubles < 1.0 so this is not entirely correct, but since key is always 0 for
-                // u < 1.0 and weight=0 it saves us from handling 0-weighted records separately (permissible by RFC 2782
-                // but weights need to be strictly positive reals for Efraimidis/Spirakis algorithm A to work)
-                double key = Math.pow(Math.random(), (1.0 / record.getWeight()));
-                recordKeyList.add(Pair.of(record, key));
-            }
-            recordKeyList.sort(
-                (Pair<SRVRecord, Double> p1, Pair<SRVRecord, Double> p2) -> p2.getRight().compareTo(p1.getRight()));
-
-            List<SRVRecord> resultList = new ArrayList<>(records.size());
-            for (Pair<SRVRecord, Double> p : recordKeyList)
-                resultList.add(p.getLeft());
+            this.abandoned = true;
 
-            return resultList;
+            if (this.done) {
+                disconnect(this.connection);
+            }
         }
     }
 
     /**
-     * Performs an SRV record lookup on <code>_ldap._tcp.realm</code> or <code>_ldaps._tcp.realm</code> if ssl is
-     * enabled.
-     * 
-     * @param realm the realm for which SRV records should be looked up.
-     * @param ldaps if true, service discovery uses <code>_ldaps._tcp</code>, if false <code>_ldap._tcp</code> is used.
-     * @return a list of SRV records sorted by priority/weight, null if SRV lookup failed or returned an empty result.
-     */
-    private List<SRVRecord> discoverLDAPService(String realm, boolean ldaps)
-    {
-        String service = ldaps ? "_ldaps" : "_ldap";
-        String proto = "_tcp";
-        String lookup = service + "." + proto + "." + realm;
-        Hashtable<String, String> env = new Hashtable<String, String>();
-        env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.dns.DnsContextFactory");
-        Attributes attributes;
-        try {
-            DirContext ctx = new InitialDirContext(env);
-            attributes = ctx.getAttributes(lookup, new String[] {"SRV"});
-        } catch (NameNotFoundException e) {
-            LOGGER.debug("No SRV record for {} found.", lookup);
-            return null;
-        } catch (NamingException e) {
-            LOGGER.debug("DNS lookup failed.", e);
-            return null;
-        }
-
-        Attribute attribute = attributes.get("SRV");
-        if (attribute == null) {
-            LOGGER.debug("No SRV record found in {}.", attribute);
-            return null;
-        }
-
-        // organise entries by priority so a weighted shuffle can be performed for all entries with a given priority
-        SortedMap<Integer, List<SRVRecord>> priorityMap = new TreeMap<>();
-        for (int i = 0; i < attribute.size(); i++) {
-            try {
-                Object value = attribute.get(i);
-                if (value != null) {
-                    SRVRecord srvRecord = new SRVRecord(value.toString().split(" "));
-                    LOGGER.trace("SRV record found: {}", srvRecord.toString());
-                    priorityMap.putIfAbsent(srvRecord.getPriority(), new ArrayList<SRVRecord>());
-                    priorityMap.get(srvRecord.getPriority()).add(srvRecord);
-                }
-            } catch (NamingException e) {
-                LOGGER.debug("Unable to get {}-th value from attributes.", i, e);
-            } catch (IllegalArgumentException e) {
-                LOGGER.debug("Unable to create SRVRecord object.", e);
+     * @param ldapHost the space separated list of hosts, each one optionally followed by a port
+     * @param port the port to use for the hosts without explicit port
+     * @return the servers
+     */
+    private List<Server> parseServers(String ldapHost, int port)
+    {
+        String[] hosts = StringUtils.split(ldapHost);
+        List<Server> servers = new ArrayList<>(hosts.length);
+        for (String host : hosts) {
+            int index = host.lastIndexOf(':');
+            // Don't mistake the end of an IPv6 address for a port
+            if (index > 0 && index == host.indexOf(':') && StringUtils.isNumeric(host.substring(index + 1))) {
+                servers.add(new Server(host.substring(0, index), Integer.parseInt(host.substring(index + 1))));
+            } else {
+                servers.add(new Server(host, port));
             }
         }
-        List<SRVRecord> sortedWeightedRecordList = new ArrayList<>();
-        for (int priority : priorityMap.keySet())
-            sortedWeightedRecordList.addAll(SRVRecord.efraimidisWeightedShuffle(priorityMap.get(priority)));
 
-        return sortedWeightedRecordList;
+        return servers;
     }
 
     /**
@@ -447,18 +778,121 @@ public class XWikiLDAPConnection
     {
         LOGGER.debug("Binding to LDAP server with credentials login=[{}]", loginDN);
 
+        // Whatever happen the connection won't be bound with the previous credentials anymore
+        this.boundDN = null;
+
         // authenticate to the server
         this.connection.bind(LDAPConnection.LDAP_V3, loginDN, password.getBytes("UTF8"));
+
+        this.boundDN = loginDN;
+    }
+
+    /**
+     * Validate the credentials of a user on a connection dedicated to that task, leaving this connection bound with
+     * its current credentials.
+     * 
+     * @param userDN the DN of the user.
+     * @param password the password of the user.
+     * @param context the XWiki context.
+     * @throws LDAPException error when trying to bind (in which case the credentials are generally invalid).
+     * @since 9.16.3
+     */
+    public void checkCredentials(String userDN, String password, XWikiContext context) throws LDAPException
+    {
+        boolean ssl = isSSL();
+        String pathToKeys = ssl ? getKeyStore() : null;
+        int port = getPort(this.configuration.getLDAPPort(), ssl);
+        String ldapHost = getHost();
+        boolean doServiceDiscovery = isServiceDiscovery();
+        boolean fastBind = this.configuration.isFastBind();
+
+        // Those connections are not bound with a service account so they get their own pool
+        String key = LDAPConnectionPool.createKey(ldapHost, port, ssl, pathToKeys, doServiceDiscovery,
+            fastBind ? "#fastbind" : "#bind", "");
+        LDAPConnectionPool.Settings settings =
+            new LDAPConnectionPool.Settings(this.configuration, 0, this.configuration.getBindPoolMaxSize());
+
+        PooledConnection bindConnection = getConnectionPool().borrow(key, null, settings, () -> {
+            LDAPConnection ldapConnection = connect(ldapHost, port, doServiceDiscovery, ssl, pathToKeys);
+
+            if (fastBind) {
+                enableFastBind(ldapConnection);
+            }
+
+            return ldapConnection;
+        });
+
+        boolean reusable = false;
+        try {
+            LOGGER.debug("Validating credentials of [{}] on a dedicated connection", userDN);
+
+            // The configuration might have changed since the connection was created
+            setConstraints(bindConnection.getConnection(), userDN, password, context);
+
+            bindConnection.getConnection().bind(LDAPConnection.LDAP_V3, userDN,
+                password.getBytes(StandardCharsets.UTF_8));
+
+            // The next bind will replace the credentials
+            reusable = true;
+        } catch (LDAPException e) {
+            // Keep the connection only if the server actually answered
+            reusable = isServerResult(e);
+
+            throw e;
+        } finally {
+            getConnectionPool().release(bindConnection, reusable);
+        }
+    }
+
+    /**
+     * @param e the error
+     * @return true if the error is a result sent by the server (the connection is still usable), false if it was
+     *         generated by the client (connection lost, timeout, etc.)
+     */
+    private static boolean isServerResult(LDAPException e)
+    {
+        return e.getResultCode() != LDAPException.OTHER && e.getResultCode() < LDAPException.SERVER_DOWN;
+    }
+
+    /**
+     * Ask an Active Directory server to only validate the credentials of the following binds, without creating any
+     * security context. Binds are a lot cheaper but the connection stays anonymous.
+     * 
+     * @param ldapConnection the connection on which no bind was done yet
+     */
+    private void enableFastBind(LDAPConnection ldapConnection)
+    {
+        try {
+            ldapConnection.extendedOperation(new LDAPExtendedOperation(FAST_BIND_OID, null));
+        } catch (LDAPException e) {
+            LOGGER.warn("Failed to enable fast bind mode (only supported by Active Directory): {}",
+                ExceptionUtils.getRootCauseMessage(e));
+        }
     }
 
     /**
      * Close LDAP connection.
      */
     public void close()
+    {
+        if (this.pooledConnection != null) {
+            // Only give back to the pool a connection which is still bound with the credentials it was created with
+            getConnectionPool().release(this.pooledConnection,
+                this.pooledConnection.getBindDN().equals(this.boundDN));
+
+            this.pooledConnection = null;
+            this.connection = null;
+            this.boundDN = null;
+        } else {
+            disconnect(this.connection);
+        }
+    }
+
+    private static void disconnect(LDAPConnection ldapConnection)
     {
         try {
-            if (this.connection != null) {
-                this.connection.disconnect();
+            if (ldapConnection != null) {
+                ldapConnection.disconnect();
             }
         } catch (LDAPException e) {
             LOGGER.debug("LDAP close failed.", e);
@@ -591,8 +1025,127 @@ public class XWikiLDAPConnection
         boolean typesOnly) throws LDAPException
     {
         int pageSize = this.configuration.getSearchPageSize();
+        int prefetch = this.configuration.getSearchPagePrefetch();
 
-        return new PagedLDAPSearchResults(this, base, scope, filter, attrs, typesOnly, pageSize);
+        return new PagedLDAPSearchResults(this, base, scope, filter, attrs, typesOnly, pageSize, prefetch);
+    }
+
+    /**
+     * Send a search request and return without waiting for the result. Several requests can be in flight at the same
+     * time on the same connection.
+     * 
+     * @param base the root DN from where to search.
+     * @param scope the scope of the entries to search (SCOPE_BASE, SCOPE_ONE or SCOPE_SUB)
+     * @param filter filter the LDAP filter
+     * @param attrs the attributes names of values to return
+     * @param maxResults the maximum number of entries to return, 0 for the maximum allowed by the configuration
+     * @return the entries found, completed exceptionally with an {@link LDAPException} when the search fails
+     * @throws LDAPException error when sending the request
+     * @since 9.16.3
+     */
+    public CompletableFuture<List<LDAPEntry>> searchAsync(String base, int scope, String filter, String[] attrs,
+        int maxResults) throws LDAPException
+    {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("LDAP asynchronous search: baseDN=[{}] query=[{}] attr=[{}] ldapScope=[{}]", base, filter,
+                attrs != null ? Arrays.asList(attrs) : null, scope);
+        }
+
+        LDAPSearchConstraints constraints = new LDAPSearchConstraints(this.connection.getSearchConstraints());
+        if (maxResults > 0) {
+            constraints.setMaxResults(maxResults);
+        }
+
+        LDAPSearchQueue queue =
+            this.connection.search(base, scope, filter, attrs, false, (LDAPSearchQueue) null, constraints);
+
+        return supplyAsync(() -> {
+            List<LDAPEntry> entries = new ArrayList<>();
+
+            while (true) {
+                LDAPMessage message = queue.getResponse();
+
+                if (message instanceof LDAPSearchResult) {
+                    entries.add(((LDAPSearchResult) message).getEntry());
+                } else if (message instanceof LDAPResponse) {
+                    LDAPResponse response = (LDAPResponse) message;
+
+                    // Reaching the requested maximum is not an error
+                    if (response.getResultCode() != LDAPException.SUCCESS
+                        && response.getResultCode() != LDAPException.SIZE_LIMIT_EXCEEDED) {
+                        throw toException(response);
+                    }
+
+                    return entries;
+                } else if (message instanceof LDAPSearchResultReference) {
+                    LOGGER.debug("Ignoring search result reference [{}]",
+                        Arrays.asList(((LDAPSearchResultReference) message).getReferrals()));
+                } else if (message == null) {
+                    return entries;
+                }
+            }
+        });
+    }
+
+    /**
+     * Send a compare request and return without waiting for the result.
+     * 
+     * @param dn the DN of the entry
+     * @param attribute the name of the attribute to compare
+     * @param value the value to compare
+     * @return true if the entry has the passed value, completed exceptionally with an {@link LDAPException} when the
+     *         comparison fails
+     * @throws LDAPException error when sending the request
+     * @since 9.16.3
+     */
+    public CompletableFuture<Boolean> compareAsync(String dn, String attribute, String value) throws LDAPException
+    {
+        LOGGER.debug("LDAP asynchronous compare: dn=[{}] attribute=[{}]", dn, attribute);
+
+        LDAPResponseQueue queue = this.connection.compare(dn, new LDAPAttribute(attribute, value),
+            (LDAPResponseQueue) null, this.connection.getConstraints());
+
+        return supplyAsync(() -> {
+            LDAPResponse response = (LDAPResponse) queue.getResponse();
+
+            if (response.getResultCode() == LDAPException.COMPARE_TRUE) {
+                return true;
+            } else if (response.getResultCode() == LDAPException.COMPARE_FALSE) {
+                return false;
+            }
+
+            throw toException(response);
+        });
+    }
+
+    private static LDAPException toException(LDAPResponse response)
+    {
+        return new LDAPException(response.getErrorMessage(), response.getResultCode(), response.getErrorMessage(),
+            response.getMatchedDN());
+    }
+
+    /**
+     * Wait for a response in a background thread.
+     */
+    private <T> CompletableFuture<T> supplyAsync(LDAPResponseReader<T> reader)
+    {
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        getExecutors().getExecutor().execute(() -> {
+            try {
+                future.complete(reader.read());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+
+        return future;
+    }
+
+    @FunctionalInterface
+    private interface LDAPResponseReader<T>
+    {
+        T read() throws LDAPException;
     }
 
     /**
@@ -20,11 +20,20 @@
 package org.xwiki.contrib.ldap;
 
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
+import java.text.SimpleDateFormat;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -33,21 +42,35 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.ImageInputStream;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.contrib.ldap.internal.LDAPGroupMembers;
 import org.xwiki.contrib.ldap.internal.LDAPGroupsCache;
+import org.xwiki.contrib.ldap.internal.LDAPGroupsWatermark;
+import org.xwiki.contrib.ldap.internal.LDAPMembership;
 import org.xwiki.contrib.ldap.internal.RangeLDAPAttribute;
 import org.xwiki.contrib.ldap.internal.RangeLDAPAttribute.Range;
 import org.xwiki.model.reference.DocumentReference;
@@ -55,10 +78,18 @@ import org.xwiki.rendering.syntax.Syntax;
 
 import com.novell.ldap.LDAPAttribute;
 import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPControl;
 import com.novell.ldap.LDAPDN;
 import com.novell.ldap.LDAPEntry;
 import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPMessage;
+import com.novell.ldap.LDAPResponse;
+import com.novell.ldap.LDAPSearchConstraints;
+import com.novell.ldap.LDAPSearchQueue;
+import com.novell.ldap.LDAPSearchResult;
 import com.novell.ldap.LDAPSearchResults;
+import com.novell.ldap.controls.LDAPEntryChangeControl;
+import com.novell.ldap.controls.LDAPPersistSearchControl;
 import com.novell.ldap.rfc2251.RfcFilter;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
@@ -108,6 +139,41 @@ public class XWikiLDAPUtils
      */
     private static final String LDAP_FIELD_DN = "dn";
 
+    /**
+     * The Active Directory matching rule which walks the chain of ancestry (LDAP_MATCHING_RULE_IN_CHAIN).
+     */
+    private static final String MATCHING_RULE_IN_CHAIN_OID = "1.2.840.113556.1.4.1941";
+
+    /**
+     * The name of the LDAP attribute listing the groups an entry is a direct member of.
+     */
+    private static final String LDAP_FIELD_MEMBEROF = "memberOf";
+
+    /**
+     * The name of the LDAP group attribute containing the uid (and not the DN) of its members.
+     */
+    private static final String LDAP_FIELD_MEMBERUID = "memberUid";
+
+    /**
+     * The time in seconds between two searches for modified groups when persistent search is not supported.
+     */
+    private static final int DEFAULT_CHANGES_POLLING_INTERVAL = 300;
+
+    /**
+     * The time in seconds to wait before restarting a persistent search which failed.
+     */
+    private static final int PERSISTENT_SEARCH_RETRY_DELAY = 30;
+
+    /**
+     * The prefix of the negative cache keys of the entries which are not groups.
+     */
+    private static final String NOT_FOUND_GROUP = "group:";
+
+    /**
+     * The prefix of the negative cache keys of the users which could not be found.
+     */
+    private static final String NOT_FOUND_UID = "uid:";
+
     /**
      * The LDAP connection.
      */
@@ -503,13 +569,10 @@ public class XWikiLDAPUtils
      * Extract group's members from provided LDAP search result.
      * 
      * @param ldapEntry the LDAP search result.
-     * @param memberMap the result: maps DN to member id.
-     * @param subgroups return all the subgroups identified.
-     * @param context the XWiki context.
+     * @param memberResolver called for each member found
      * @since 9.3
      */
-    private void getGroupMembersFromLDAPEntry(LDAPEntry ldapEntry, Map<String, String> memberMap,
-        List<String> subgroups, XWikiContext context)
+    private void getGroupMembersFromLDAPEntry(LDAPEntry ldapEntry, Consumer<String> memberResolver)
     {
         for (String memberField : getGroupMemberFields()) {
             Enumeration<String> values = getStringValues(memberField, ldapEntry);
@@ -523,7 +586,7 @@ public class XWikiLDAPUtils
 
                         // we check for subgroups recursive call to scan all subgroups and identify members
                         // and their uid
-                        getGroupMembers(member, memberMap, subgroups, context);
+                        memberResolver.accept(member);
                     }
                 }
             }
@@ -654,6 +717,13 @@ public class XWikiLDAPUtils
      */
     public boolean getGroupMembers(Map<String, String> memberMap, List<String> subgroups, LDAPEntry ldapEntry,
         XWikiContext context) throws LDAPException
+    {
+        return getGroupMembers(memberMap, subgroups, ldapEntry,
+            member -> getGroupMembers(member, memberMap, subgroups, context));
+    }
+
+    private boolean getGroupMembers(Map<String, String> memberMap, Collection<String> subgroups, LDAPEntry ldapEntry,
+        Consumer<String> memberResolver)
     {
         boolean isGroup = false;
 
@@ -681,7 +751,7 @@ public class XWikiLDAPUtils
                 subgroups.add(ldapEntry.getDN().toLowerCase());
             }
 
-            getGroupMembersFromLDAPEntry(ldapEntry, memberMap, subgroups, context);
+            getGroupMembersFromLDAPEntry(ldapEntry, memberResolver);
         } else {
             LOGGER.debug("[{}] is a user", ldapEntry.getDN());
 
@@ -963,242 +1033,1516 @@ public class XWikiLDAPUtils
         return isGroup;
     }
 
+    boolean resolveGroupMembers(String groupDN, Map<String, String> memberMap, List<String> subgroups,
+        XWikiContext context)
+    {
+        if (isMatchingRuleInChain(groupDN)) {
+            Boolean isGroup = getGroupMembersInChain(groupDN, memberMap, subgroups);
+            if (isGroup != null) {
+                return isGroup;
+            }
+        }
+
+        int parallelism = getConfiguration().getGroupExpansionParallelism();
+        if (parallelism > 1) {
+            return getGroupMembersInParallel(groupDN, memberMap, subgroups, parallelism);
+        }
+
+        int batchSize = getConfiguration().getGroupExpansionBatchSize();
+        if (batchSize > 0) {
+            return getGroupMembersBreadthFirst(groupDN, memberMap, subgroups, batchSize);
+        }
+
+        return getGroupMembers(groupDN, memberMap, subgroups, context);
+    }
+
     /**
-     * Get group members from cache or update it from LDAP if it is not already cached.
+     * Get all members of a given group, level by level: the DNs found at one level are resolved together with a few
+     * searches combining them in a single filter instead of one search per DN.
      * 
-     * @param groupDN the name of the group.
-     * @param context the XWiki context.
-     * @return the members of the group, or null if the given name is not a group.
-     * @throws XWikiException error when getting the group cache.
+     * @param groupDN the group to retrieve the members of and scan for subgroups.
+     * @param memberMap the result: maps DN to member id.
+     * @param subgroups all the subgroups identified.
+     * @param batchSize the maximum number of DNs to resolve with a single search
+     * @return whether the identifier is actually a group.
      */
-    public Map<String, String> getGroupMembers(String groupDN, XWikiContext context) throws XWikiException
+    private boolean getGroupMembersBreadthFirst(String groupDN, Map<String, String> memberMap, List<String> subgroups,
+        int batchSize)
     {
-        Map<String, String> groupMembers = null;
+        BreadthFirstResolution resolution = new BreadthFirstResolution();
 
-        Cache<Map<String, String>> cache;
-        try {
-            cache = getCaches().getGroupCache(this);
+        // The root can be a DN, a filter or an id
+        boolean isGroup = resolveUserOrGroup(groupDN, true, memberMap, subgroups, resolution::defer);
 
-            synchronized (cache) {
-                groupMembers = cache.get(groupDN);
+        resolution.visited.addAll(subgroups);
+        resolution.visited.add(groupDN.toLowerCase());
 
-                if (groupMembers == null) {
-                    Map<String, String> members = new HashMap<>();
+        while (!resolution.next.isEmpty()) {
+            List<String> level = resolution.next;
+            resolution.next = new ArrayList<>();
 
-                    LOGGER.debug("Retrieving Members of the group [{}]", groupDN);
+            LOGGER.debug("Resolving [{}] group members", level.size());
 
-                    boolean isGroup = getGroupMembers(groupDN, members, new ArrayList<String>(), context);
+            List<String> dns = new ArrayList<>(level.size());
+            for (String member : level) {
+                String key = member.toLowerCase();
 
-                    if (isGroup || !members.isEmpty()) {
-                        groupMembers = members;
-                        cache.set(groupDN, groupMembers);
+                // Skip already resolved members
+                if (resolution.visited.add(key) && !memberMap.containsKey(key)) {
+                    if (!isResolveSubgroups()) {
+                        LOGGER.debug("Group members resolve is disabled to add [{}] as group member directly", member);
+
+                        memberMap.put(key, member);
+                    } else if (LDAPDN.isValid(member)) {
+                        dns.add(member);
+                    } else {
+                        // Probably a uid (memberUid)
+                        resolveUserOrGroup(member, false, memberMap, subgroups, resolution::defer);
                     }
-                } else {
-                    LOGGER.debug("Found cache entry for group [{}]", groupDN);
                 }
             }
-        } catch (CacheException e) {
-            // rethrow the exception to stop group synchronization
-            // otherwise users will loose all mapped groups if there is a problem with the cache
-            throw new XWikiException("Unknown error with cache", e);
-        }
 
-        if (groupMembers != null) {
-            LOGGER.debug("Found group [{}] with [{}] members [{}]", groupDN, groupMembers.size(), groupMembers);
-        } else {
-            LOGGER.debug("No group corresponding to [{}] could be found", groupDN);
+            for (int i = 0; i < dns.size(); i += batchSize) {
+                resolveDNs(dns.subList(i, Math.min(i + batchSize, dns.size())), memberMap, subgroups,
+                    resolution::defer);
+            }
         }
 
-        return groupMembers;
+        return isGroup;
+    }
+
+    private boolean isMatchingRuleInChain(String groupDN)
+    {
+        return XWikiLDAPConfig.GROUP_RESOLUTION_MATCHING_RULE_IN_CHAIN
+            .equals(getConfiguration().getGroupResolution()) && LDAPDN.isValid(groupDN);
+    }
+
+    private static String getMatchingRuleInChainFilter(String groupDN)
+    {
+        return "(memberOf:" + MATCHING_RULE_IN_CHAIN_OID + ":=" + XWikiLDAPConnection.escapeLDAPSearchFilter(groupDN)
+            + ')';
     }
 
     /**
-     * Check if provided DN is in provided LDAP group.
+     * Get all members of a given group (including the members of its subgroups) with a single search relying on the
+     * Active Directory LDAP_MATCHING_RULE_IN_CHAIN matching rule.
      * 
-     * @param memberDN the DN to find in the provided group.
-     * @param groupDN the DN of the group where to search.
-     * @param context the XWiki context.
-     * @return true if provided members in the provided group.
-     * @throws XWikiException error when searching for group members.
+     * @param groupDN the DN of the group
+     * @param memberMap the result: maps DN to member id.
+     * @param subgroups all the subgroups identified.
+     * @return true if members were found, null if the members should be resolved another way
      */
-    public boolean isMemberOfGroup(String memberDN, String groupDN, XWikiContext context) throws XWikiException
+    private Boolean getGroupMembersInChain(String groupDN, Map<String, String> memberMap, List<String> subgroups)
     {
-        Map<String, String> groupMembers = getGroupMembers(groupDN, context);
+        Map<String, String> members = new HashMap<>();
+        List<String> groups = new ArrayList<>();
 
-        if (groupMembers != null) {
-            for (String memberDNEntry : groupMembers.keySet()) {
-                if (memberDNEntry.equals(memberDN.toLowerCase())) {
-                    return true;
+        try (PagedLDAPSearchResults result = searchGroupsMembersByFilter(getMatchingRuleInChainFilter(groupDN))) {
+            while (result.hasMore()) {
+                LDAPEntry entry = result.next();
+                if (entry == null) {
+                    break;
                 }
+
+                // Nested groups are returned too but their members are already part of the result
+                getGroupMembers(members, groups, entry, member -> { });
             }
+        } catch (LDAPException e) {
+            LOGGER.debug("Failed to get the members of group [{}] with the in chain matching rule", groupDN, e);
+
+            return null;
         }
 
-        return false;
+        if (members.isEmpty() && groups.isEmpty()) {
+            // Not a group, an organization unit, an empty group, etc.
+            LOGGER.debug("No member found for [{}] with the in chain matching rule", groupDN);
+
+            return null;
+        }
+
+        memberMap.putAll(members);
+        subgroups.add(groupDN.toLowerCase());
+        subgroups.addAll(groups);
+
+        return true;
     }
 
     /**
-     * Check if provided DN is in one of the provided LDAP groups.
+     * Check if the passed entry is a member of the passed group (directly or through subgroups) relying on the Active
+     * Directory LDAP_MATCHING_RULE_IN_CHAIN matching rule.
      * 
-     * @param memberDN the DN to find in the provided groups.
-     * @param groupDNList the list of DN of the groups where to search.
-     * @param context the XWiki context.
-     * @return true if provided members in one of the provided groups.
-     * @throws XWikiException error when searching for group members.
+     * @param memberDN the DN of the member
+     * @param groupDN the DN of the group
+     * @return true if the entry is a member of the group, null if the check failed or the target is not a group (an
+     *         organizational unit for example)
      */
-    public boolean isMemberOfGroups(String memberDN, Collection<String> groupDNList, XWikiContext context)
-        throws XWikiException
+    private Boolean isMemberInChain(String memberDN, String groupDN)
     {
-        for (String groupDN : groupDNList) {
-            if (isMemberOfGroup(memberDN, groupDN, context)) {
+        try (PagedLDAPSearchResults result = getConnection().searchPaginated(memberDN, LDAPConnection.SCOPE_BASE,
+            getMatchingRuleInChainFilter(groupDN), new String[] {LDAP_FIELD_DN}, false)) {
+            if (result.hasMore() && result.next() != null) {
                 return true;
             }
-        }
 
-        return false;
+            return isNotMemberInChain(groupDN) ? Boolean.FALSE : null;
+        } catch (LDAPException e) {
+            LOGGER.debug("Failed to check if [{}] is a member of [{}] with the in chain matching rule", memberDN,
+                groupDN, e);
+
+            return null;
+        }
     }
 
     /**
-     * @return the configuration for the LDAP groups cache.
-     * @since 9.3.7
-     * @deprecated since 9.4
+     * Search for the user with the passed uid among the members of the passed group (directly or through subgroups)
+     * relying on the Active Directory LDAP_MATCHING_RULE_IN_CHAIN matching rule.
+     * 
+     * @param uid the unique identifier of the user
+     * @param groupDN the DN of the group
+     * @return the DN of the user if it's a member of the group, an empty String if it's not, null if the check failed
+     *         or the target is not a group (an organizational unit for example)
      */
-    @Deprecated
-    public CacheConfiguration getGroupCacheConfiguration()
+    private String findUidInChain(String uid, String groupDN)
     {
-        return getCaches().createCacheConfiguration(getConfiguration());
+        String filter = "(&" + getUserSearchFilter(uid) + getMatchingRuleInChainFilter(groupDN) + ')';
+
+        try (PagedLDAPSearchResults result = getConnection().searchPaginated(getBaseDN(), LDAPConnection.SCOPE_SUB,
+            filter, new String[] {LDAP_FIELD_DN}, false)) {
+            LDAPEntry entry = result.hasMore() ? result.next() : null;
+            if (entry != null) {
+                return entry.getDN();
+            }
+
+            return isNotMemberInChain(groupDN) ? "" : null;
+        } catch (LDAPException e) {
+            LOGGER.debug("Failed to check if [{}] is a member of [{}] with the in chain matching rule", uid, groupDN,
+                e);
+
+            return null;
+        }
     }
 
     /**
-     * @param context the XWiki context used to get cache configuration.
-     * @return the configuration for the LDAP groups cache.
-     * @deprecated
+     * The in chain matching rule only knows about groups, while the members of other entries (organizational units,
+     * etc.) are all the entries below them.
+     * 
+     * @param groupDN the DN of the target entry
+     * @return true if an empty in chain search means the entry is not a member
+     * @throws LDAPException when failing to get the target entry
      */
-    @Deprecated
-    public static CacheConfiguration getGroupCacheConfiguration(XWikiContext context)
+    private boolean isNotMemberInChain(String groupDN) throws LDAPException
     {
-        return Utils.getComponent(LDAPGroupsCache.class).createCacheConfiguration(XWikiLDAPConfig.getInstance());
+        if (isGroupEntry(groupDN)) {
+            return true;
+        }
+
+        LOGGER.debug("[{}] is not a group, its members need to be expanded", groupDN);
+
+        return false;
     }
 
-    /**
-     * Locates the user in the Map: either the user is a value or the key starts with the LDAP syntax.
-     * 
-     * @param userName the name of the user.
-     * @param groupMembers the members of LDAP group.
-     * @param context the XWiki context.
-     * @return the full user name.
-     * @deprecated since 8.4, use {@link #findUidInGroup(String, Map)} instead
-     */
-    @Deprecated
-    protected String findInGroup(String userName, Map<String, String> groupMembers, XWikiContext context)
+    private boolean isMembershipCheck(String groupDN)
     {
-        return findUidInGroup(userName, groupMembers);
+        return getConfiguration().isGroupMembershipCheck() && LDAPDN.isValid(groupDN);
     }
 
     /**
-     * Locates the user in the Map: either the user is a value or the key starts with the LDAP syntax.
+     * Ask the LDAP server if the passed entry is a member of the passed group instead of downloading all the members
+     * of the group: the group is first compared with the entry DN (or uid) and the subgroups are then found by walking
+     * up the {@code memberOf} attribute of the entry.
+     * <p>
+     * A negative answer is only given when the target entry is a group (and not, for example, an organizational unit
+     * whose members are all the entries below it) and all the ways to be a member of it were checked.
      * 
-     * @param userName the name of the user.
-     * @param groupMembers the members of LDAP group.
-     * @return the full user name.
+     * @param memberDN the DN of the member
+     * @param uid the unique identifier of the member, null if unknown
+     * @param groupDN the DN of the group
+     * @return true if the entry is a member of the group, null if it cannot be known without expanding the group
      */
-    protected String findUidInGroup(String userName, Map<String, String> groupMembers)
+    private Boolean checkMembership(String memberDN, String uid, String groupDN)
     {
-        Pattern ldapuserPattern = Pattern
-            .compile("^" + Pattern.quote(getUidAttributeName()) + "=" + Pattern.quote(userName.toLowerCase()) + " *,");
+        String normalizedGroupDN = normalizeDN(groupDN);
 
-        for (Map.Entry<String, String> entry : groupMembers.entrySet()) {
-            // implementing it case-insensitive for now
-            if (userName.equalsIgnoreCase(entry.getValue()) || ldapuserPattern.matcher(entry.getKey()).find()) {
-                return entry.getKey();
-            }
+        // The members of an entry which is not a group is the entry itself
+        if (normalizedGroupDN.equals(normalizeDN(memberDN))) {
+            return true;
         }
 
-        return null;
+        try {
+            if (isDirectMember(memberDN, uid, groupDN)) {
+                return true;
+            }
+
+            if (!isGroupEntry(groupDN)) {
+                LOGGER.debug("[{}] is not a group, its members need to be expanded", groupDN);
+
+                return null;
+            }
+
+            // memberUid contains the uid of the member which was not compared yet
+            if (uid == null && getGroupMemberFields().contains(LDAP_FIELD_MEMBERUID.toLowerCase())) {
+                String memberUid = getMemberUid(memberDN);
+                if (memberUid != null && isDirectMember(null, memberUid, groupDN)) {
+                    return true;
+                }
+            }
+
+            return isResolveSubgroups() ? isMemberThroughMemberOf(memberDN, normalizedGroupDN) : Boolean.FALSE;
+        } catch (LDAPException e) {
+            if (e.getResultCode() == LDAPException.NO_SUCH_OBJECT) {
+                LOGGER.debug("The group [{}] does not exist", groupDN);
+
+                return false;
+            }
+
+            LOGGER.debug("Failed to check if [{}] is a member of [{}]", memberDN, groupDN, e);
+
+            return null;
+        }
     }
 
-    /**
-     * Locates the user in the Map: either the user is a value or the key starts with the LDAP syntax.
-     * 
-     * @param userDN the name of the user.
-     * @param groupMembers the members of LDAP group.
-     * @return the full user name.
-     */
-    protected String findDNInGroup(String userDN, Map<String, String> groupMembers)
+    private boolean isGroupEntry(String groupDN) throws LDAPException
     {
-        if (groupMembers.containsKey(userDN.toLowerCase())) {
-            return userDN;
+        List<LDAPEntry> entries = join(getConnection().searchAsync(groupDN, LDAPConnection.SCOPE_BASE, null,
+            new String[] {LDAP_OBJECTCLASS}, 1));
+
+        if (!entries.isEmpty()) {
+            LDAPAttribute objectClass = entries.get(0).getAttribute(LDAP_OBJECTCLASS);
+            if (objectClass != null) {
+                for (String objectName : objectClass.getStringValueArray()) {
+                    if (getGroupClasses().contains(objectName.toLowerCase())) {
+                        return true;
+                    }
+                }
+            }
         }
 
-        return null;
+        return false;
     }
 
-    /**
-     * Check if user is in provided LDAP group and return source DN.
-     * 
-     * @param uid the user name.
-     * @param dn the user dn.
-     * @param groupDN the LDAP group DN.
-     * @param context the XWiki context.
-     * @return LDAP user's DN if the user is in the LDAP group, null otherwise.
-     * @throws XWikiException error when getting the group cache.
-     */
-    public String isInGroup(String uid, String dn, String groupDN, XWikiContext context) throws XWikiException
+    private String getMemberUid(String memberDN) throws LDAPException
     {
-        String userDN = null;
+        List<LDAPEntry> entries = join(getConnection().searchAsync(memberDN, LDAPConnection.SCOPE_BASE, null,
+            new String[] {getUidAttributeName()}, 1));
 
-        if (groupDN.length() > 0) {
-            Map<String, String> groupMembers = null;
+        if (!entries.isEmpty()) {
+            LDAPAttribute attribute = entries.get(0).getAttribute(getUidAttributeName());
+            if (attribute != null) {
+                return attribute.getStringValue();
+            }
+        }
 
-            try {
-                groupMembers = getGroupMembers(groupDN, context);
-            } catch (Exception e) {
-                // Ignore exception to allow negative match for exclusion
-                LOGGER.debug("Unable to retrieve group members of group [{}]", groupDN, e);
+        return null;
+    }
+
+    private boolean isDirectMember(String memberDN, String uid, String groupDN) throws LDAPException
+    {
+        // Send all the comparisons at the same time
+        List<CompletableFuture<Boolean>> comparisons = new ArrayList<>();
+        for (String field : getGroupMemberFields()) {
+            // memberUid contains the uid of the member while the other fields contain its DN
+            String value = field.equalsIgnoreCase(LDAP_FIELD_MEMBERUID) ? uid : memberDN;
+            if (value != null) {
+                comparisons.add(getConnection().compareAsync(groupDN, field, value));
             }
+        }
 
-            // no match when a user does not have access to the group
-            if (groupMembers != null) {
-                // check if user is in the list
-                if (dn == null) {
-                    userDN = findUidInGroup(uid, groupMembers);
-                } else {
-                    userDN = findDNInGroup(dn, groupMembers);
+        boolean member = false;
+        for (CompletableFuture<Boolean> comparison : comparisons) {
+            try {
+                member |= join(comparison);
+            } catch (LDAPException e) {
+                // Not all the member fields are supported by a given group
+                if (e.getResultCode() != LDAPException.NO_SUCH_ATTRIBUTE
+                    && e.getResultCode() != LDAPException.UNDEFINED_ATTRIBUTE_TYPE
+                    && e.getResultCode() != LDAPException.INAPPROPRIATE_MATCHING) {
+                    throw e;
                 }
-
-                LOGGER.debug("Found user dn in user group [{}]", userDN);
             }
         }
 
-        return userDN;
+        return member;
     }
 
-    /**
-     * Check if user is in provided LDAP group and return source DN.
-     * 
-     * @param userName the user name.
-     * @param groupDN the LDAP group DN.
-     * @param context the XWiki context.
-     * @return LDAP user's DN if the user is in the LDAP group, null otherwise.
-     * @throws XWikiException error when getting the group cache.
-     */
-    public String isUidInGroup(String userName, String groupDN, XWikiContext context) throws XWikiException
+    private Boolean isMemberThroughMemberOf(String memberDN, String normalizedGroupDN) throws LDAPException
     {
-        return isInGroup(userName, null, groupDN, context);
+        Set<String> groups = getMemberOfAncestors(memberDN, normalizedGroupDN);
+
+        return groups != null ? groups.contains(normalizedGroupDN) : null;
     }
 
     /**
-     * Check if the DN is in provided LDAP group and return source DN.
+     * Walk up the {@code memberOf} attribute of the passed entry to find all the groups it's a member of, directly or
+     * through subgroups.
      * 
-     * @param dn the user DN.
-     * @param groupDN the LDAP group DN.
-     * @param context the XWiki context.
-     * @return LDAP user's DN if the user is in the LDAP group, null otherwise.
-     * @throws XWikiException error when getting the group cache.
-     * @since 8.4
+     * @param memberDN the DN of the member
+     * @param normalizedGroupDN the normalized DN of the group to stop at, null to find all the groups
+     * @return the normalized DNs of the groups found, null if the entry does not have any {@code memberOf} attribute
+     * @throws LDAPException when failing to read an entry
      */
-    public String isDNInGroup(String dn, String groupDN, XWikiContext context) throws XWikiException
+    private Set<String> getMemberOfAncestors(String memberDN, String normalizedGroupDN) throws LDAPException
     {
-        return isInGroup(null, dn, groupDN, context);
+        String[] attrs = new String[] {LDAP_FIELD_MEMBEROF};
+
+        List<LDAPEntry> entries =
+            join(getConnection().searchAsync(memberDN, LDAPConnection.SCOPE_BASE, null, attrs, 1));
+        if (entries.isEmpty() || entries.get(0).getAttribute(LDAP_FIELD_MEMBEROF) == null) {
+            // Either the server does not support memberOf or the entry is not a member of any group
+            LOGGER.debug("No memberOf attribute found for [{}]", memberDN);
+
+            return null;
+        }
+
+        // Walk up the groups one level at a time
+        Set<String> visited = new HashSet<>();
+        while (!entries.isEmpty()) {
+            List<CompletableFuture<List<LDAPEntry>>> parents = new ArrayList<>();
+            for (LDAPEntry entry : entries) {
+                LDAPAttribute memberOf = entry.getAttribute(LDAP_FIELD_MEMBEROF);
+                if (memberOf != null) {
+                    for (String parentDN : memberOf.getStringValueArray()) {
+                        String normalizedParentDN = normalizeDN(parentDN);
+                        if (normalizedParentDN.equals(normalizedGroupDN)) {
+                            visited.add(normalizedParentDN);
+
+                            return visited;
+                        }
+                        if (visited.add(normalizedParentDN)) {
+                            parents.add(
+                                getConnection().searchAsync(parentDN, LDAPConnection.SCOPE_BASE, null, attrs, 1));
+                        }
+                    }
+                }
+            }
+
+            entries = new ArrayList<>();
+            for (CompletableFuture<List<LDAPEntry>> parent : parents) {
+                try {
+                    entries.addAll(join(parent));
+                } catch (LDAPException e) {
+                    // Groups outside of the visible tree
+                    if (e.getResultCode() != LDAPException.NO_SUCH_OBJECT) {
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        return visited;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws LDAPException
+    {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof LDAPException) {
+                throw (LDAPException) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * A list with a constant time {@link #contains(Object)}, to check the already resolved subgroups of a big group
+     * hierarchy.
+     */
+    private static final class IndexedList extends AbstractList<String>
+    {
+        private final List<String> list = new ArrayList<>();
+
+        private final Set<String> index = new HashSet<>();
+
+        @Override
+        public String get(int i)
+        {
+            return this.list.get(i);
+        }
+
+        @Override
+        public int size()
+        {
+            return this.list.size();
+        }
+
+        @Override
+        public void add(int i, String element)
+        {
+            this.list.add(i, element);
+            this.index.add(element);
+        }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            return this.index.contains(o);
+        }
+    }
+
+    /**
+     * The state of the resolution of the members of a group level by level.
+     */
+    private static final class BreadthFirstResolution
+    {
+        /**
+         * The members found at the current level, to be resolved with the next level.
+         */
+        private List<String> next = new ArrayList<>();
+
+        /**
+         * The members already resolved or being resolved, to avoid resolving twice the same member and loops.
+         */
+        private final Set<String> visited = new HashSet<>();
+
+        private void defer(String member)
+        {
+            this.next.add(member);
+        }
+    }
+
+    /**
+     * The state shared by the tasks resolving the members of a group in parallel.
+     */
+    private static final class ParallelResolution
+    {
+        private final Map<String, String> memberMap = new ConcurrentHashMap<>();
+
+        private final Set<String> subgroups = ConcurrentHashMap.newKeySet();
+
+        /**
+         * The members already resolved or being resolved, to avoid resolving twice the same member and loops.
+         */
+        private final Set<String> visited = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Resolve a member of a group and fork the resolution of its own members if it's a group.
+     */
+    private final class GroupMemberTask extends RecursiveTask<Boolean>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String member;
+
+        private final boolean root;
+
+        private final transient ParallelResolution resolution;
+
+        GroupMemberTask(String member, boolean root, ParallelResolution resolution)
+        {
+            this.member = member;
+            this.root = root;
+            this.resolution = resolution;
+        }
+
+        @Override
+        protected Boolean compute()
+        {
+            List<GroupMemberTask> subtasks = new ArrayList<>();
+
+            Consumer<String> memberResolver = member -> {
+                if (this.resolution.visited.add(member.toLowerCase())) {
+                    subtasks.add(new GroupMemberTask(member, false, this.resolution));
+                }
+            };
+
+            boolean isGroup = resolveUserOrGroup(this.member, this.root, this.resolution.memberMap,
+                this.resolution.subgroups, memberResolver);
+
+            invokeAll(subtasks);
+
+            return isGroup;
+        }
+    }
+
+    /**
+     * Resolve a user or a group without resolving its members: they are passed to the provided resolver instead.
+     * 
+     * @param userOrGroup the DN, filter or id of the user or group
+     * @param root true if it's the group for which the members are requested
+     * @param memberMap the result: maps DN to member id.
+     * @param subgroups all the subgroups identified.
+     * @param memberResolver called for each member found
+     * @return whether the identifier is actually a group.
+     */
+    private boolean resolveUserOrGroup(String userOrGroup, boolean root, Map<String, String> memberMap,
+        Collection<String> subgroups, Consumer<String> memberResolver)
+    {
+        if (LDAPDN.isValid(userOrGroup)) {
+            String key = userOrGroup.toLowerCase();
+
+            // Stop there if passed used is already a resolved member
+            if (memberMap.containsKey(key) || (!root && subgroups.contains(key))) {
+                return false;
+            }
+
+            // Stop there if subgroup resolution is disabled
+            if (!root && !isResolveSubgroups()) {
+                memberMap.put(key, userOrGroup);
+
+                return false;
+            }
+
+            try (PagedLDAPSearchResults result = searchGroupsMembersByDN(userOrGroup)) {
+                boolean found = false;
+                boolean isGroup = false;
+                while (result.hasMore()) {
+                    LDAPEntry entry = result.next();
+                    if (entry == null) {
+                        break;
+                    }
+
+                    found = true;
+                    isGroup |= getGroupMembers(memberMap, subgroups, entry, memberResolver);
+                }
+
+                if (found) {
+                    return isGroup;
+                }
+            } catch (LDAPException e) {
+                LOGGER.debug("Failed to search for [{}]", userOrGroup, e);
+
+                return false;
+            }
+        }
+
+        // Probably not a DN, lets try as filter or id
+        try {
+            // Test if it's valid LDAP filter syntax
+            new RfcFilter(userOrGroup);
+        } catch (LDAPException e) {
+            // Not a valid filter, try as uid
+            List<XWikiLDAPSearchAttribute> searchAttributeList =
+                searchUserAttributesByUid(userOrGroup, new String[] {LDAP_FIELD_DN});
+
+            if (searchAttributeList != null && !searchAttributeList.isEmpty()) {
+                String dn = searchAttributeList.get(0).value;
+
+                if (LDAPDN.isValid(dn)) {
+                    return resolveUserOrGroup(dn, root, memberMap, subgroups, memberResolver);
+                }
+            }
+
+            return false;
+        }
+
+        boolean isGroup = false;
+        try (PagedLDAPSearchResults result = searchGroupsMembersByFilter(userOrGroup)) {
+            while (result.hasMore()) {
+                LDAPEntry entry = result.next();
+                if (entry == null) {
+                    break;
+                }
+
+                isGroup |= getGroupMembers(memberMap, subgroups, entry, memberResolver);
+            }
+        } catch (LDAPException e) {
+            LOGGER.debug("Failed to search for [{}]", userOrGroup, e);
+        }
+
+        return isGroup;
+    }
+
+    /**
+     * Get all members of a given group, resolving the subgroups concurrently. The requests are multiplexed on the
+     * current connection.
+     * 
+     * @param groupDN the group to retrieve the members of and scan for subgroups.
+     * @param memberMap the result: maps DN to member id.
+     * @param subgroups all the subgroups identified.
+     * @param parallelism the maximum number of members to resolve at the same time
+     * @return whether the identifier is actually a group.
+     */
+    private boolean getGroupMembersInParallel(String groupDN, Map<String, String> memberMap, List<String> subgroups,
+        int parallelism)
+    {
+        ParallelResolution resolution = new ParallelResolution();
+        resolution.visited.add(groupDN.toLowerCase());
+
+        boolean isGroup = getConnection().getExecutors().getForkJoinPool(parallelism)
+            .invoke(new GroupMemberTask(groupDN, true, resolution));
+
+        memberMap.putAll(resolution.memberMap);
+        subgroups.addAll(resolution.subgroups);
+
+        return isGroup;
+    }
+
+    private void resolveDNs(List<String> dns, Map<String, String> memberMap, List<String> subgroups,
+        Consumer<String> memberResolver)
+    {
+        Map<String, String> unresolved = new HashMap<>(dns.size());
+        for (String dn : dns) {
+            unresolved.put(normalizeDN(dn), dn);
+        }
+
+        String dnAttribute = getConfiguration().getGroupExpansionDNAttribute();
+
+        StringBuilder filter = new StringBuilder("(|");
+        for (String dn : dns) {
+            filter.append('(');
+            filter.append(dnAttribute);
+            filter.append('=');
+            filter.append(XWikiLDAPConnection.escapeLDAPSearchFilter(dn));
+            filter.append(')');
+        }
+        filter.append(')');
+
+        try (PagedLDAPSearchResults result = searchGroupsMembersByFilter(filter.toString())) {
+            while (result.hasMore()) {
+                LDAPEntry entry = result.next();
+                if (entry == null) {
+                    break;
+                }
+
+                boolean isGroup = getGroupMembers(memberMap, subgroups, entry, memberResolver);
+
+                // Organization units and searches are resolved by a scope search
+                if (isGroup || entry.getAttribute(getUidAttributeName()) != null) {
+                    unresolved.remove(normalizeDN(entry.getDN()));
+                }
+            }
+        } catch (LDAPException e) {
+            LOGGER.debug("Failed to resolve [{}] DNs at once", dns.size(), e);
+        }
+
+        // Entries outside of the base DN, organization units, servers not supporting the DN attribute, etc.
+        for (String dn : unresolved.values()) {
+            LOGGER.debug("[{}] could not be resolved with the other members, resolving it alone", dn);
+
+            resolveUserOrGroup(dn, false, memberMap, subgroups, memberResolver);
+        }
+    }
+
+    private static String normalizeDN(String dn)
+    {
+        return LDAPGroupMembers.normalizeDN(dn);
+    }
+
+    private Map<String, String> loadGroupMembers(String groupDN, XWikiContext context)
+    {
+        Map<String, String> members = new HashMap<>();
+
+        LOGGER.debug("Retrieving Members of the group [{}]", groupDN);
+
+        List<String> subgroups = new IndexedList();
+        boolean isGroup = resolveGroupMembers(groupDN, members, subgroups, context);
+
+        return isGroup || !members.isEmpty() ? getCaches().createGroupMembers(this, members, subgroups) : null;
+    }
+
+    /**
+     * @return the task reloading the members of the group in a background thread, null if not supported
+     */
+    private Supplier<Map<String, String>> getGroupMembersRefresher(String groupDN, XWikiContext context)
+    {
+        // The background thread needs its own connection, bound with the configured bind DN
+        if (context == null || getConfiguration().getCacheRefresh() <= 0 || !getConfiguration().isStaticBind()) {
+            return null;
+        }
+
+        return getConnection().getExecutors().withContext(context,
+            backgroundContext -> refreshGroupMembers(groupDN, backgroundContext));
+    }
+
+    /**
+     * @return a copy of this tool using its own connection, bound with the configured bind DN
+     */
+    private XWikiLDAPUtils openBackgroundUtils(XWikiContext context) throws XWikiLDAPException
+    {
+        return openBackgroundUtils(context, true);
+    }
+
+    /**
+     * @param pooled false to not take the connection from the pool, for connections kept for a long time
+     * @return a copy of this tool using its own connection, bound with the configured bind DN
+     */
+    private XWikiLDAPUtils openBackgroundUtils(XWikiContext context, boolean pooled) throws XWikiLDAPException
+    {
+        XWikiLDAPConnection backgroundConnection = new XWikiLDAPConnection(getConfiguration());
+        if (pooled) {
+            backgroundConnection.open("", "", context);
+        } else {
+            backgroundConnection.openDedicated("", "", context);
+        }
+
+        XWikiLDAPUtils backgroundUtils = new XWikiLDAPUtils(backgroundConnection, getConfiguration());
+        backgroundUtils.setUidAttributeName(getUidAttributeName());
+        backgroundUtils.setBaseDN(getBaseDN());
+        backgroundUtils.setUserSearchFormatString(getUserSearchFormatString());
+        backgroundUtils.setGroupClasses(getGroupClasses());
+        backgroundUtils.setGroupMemberFields(getGroupMemberFields());
+        backgroundUtils.setResolveSubgroups(isResolveSubgroups());
+
+        return backgroundUtils;
+    }
+
+    private Map<String, String> refreshGroupMembers(String groupDN, XWikiContext context)
+    {
+        XWikiLDAPUtils refreshUtils;
+        try {
+            refreshUtils = openBackgroundUtils(context);
+        } catch (XWikiLDAPException e) {
+            // Keep using the cached members until they expire
+            LOGGER.warn("Failed to open a connection to refresh LDAP group [{}]: {}", groupDN,
+                ExceptionUtils.getRootCauseMessage(e));
+
+            return null;
+        }
+
+        try {
+            return refreshUtils.loadGroupMembers(groupDN, context);
+        } finally {
+            refreshUtils.getConnection().close();
+        }
+    }
+
+    private void trackGroupsChanges(XWikiContext context)
+    {
+        int interval = getConfiguration().getCacheIncrementalRefresh();
+
+        // The background thread needs its own connection, bound with the configured bind DN
+        if (context == null || !getConfiguration().isStaticBind()) {
+            return;
+        }
+
+        if (getConfiguration().isCachePersistentSearch()) {
+            getCaches().listenChanges(this, () -> new ChangesListener(context));
+        } else if (interval > 0) {
+            getCaches().trackChanges(this, interval, () -> {
+                Supplier<Void> task = getConnection().getExecutors().withContext(context, backgroundContext -> {
+                    refreshChangedGroups(backgroundContext);
+
+                    return null;
+                });
+
+                return task::get;
+            });
+        }
+    }
+
+    private void refreshChangedGroups(XWikiContext context)
+    {
+        XWikiLDAPUtils refreshUtils;
+        try {
+            refreshUtils = openBackgroundUtils(context);
+        } catch (XWikiLDAPException e) {
+            LOGGER.warn("Failed to open a connection to search for modified LDAP groups: {}",
+                ExceptionUtils.getRootCauseMessage(e));
+
+            return;
+        }
+
+        try {
+            refreshUtils.refreshChangedGroupsFromLDAP(context);
+        } catch (LDAPException e) {
+            LOGGER.warn("Failed to search for modified LDAP groups: {}", ExceptionUtils.getRootCauseMessage(e));
+        } finally {
+            refreshUtils.getConnection().close();
+        }
+    }
+
+    /**
+     * Search for the groups modified since the last watermark and reload the cached groups containing them.
+     */
+    void refreshChangedGroupsFromLDAP(XWikiContext context) throws LDAPException
+    {
+        String attribute = getConfiguration().getCacheWatermarkAttribute();
+        LDAPGroupsWatermark watermark = getCaches().getWatermark(this);
+
+        if (watermark == null) {
+            // First execution: start from now
+            getCaches().setWatermark(this, new LDAPGroupsWatermark(getCurrentWatermark(attribute), new HashSet<>()));
+
+            return;
+        }
+
+        StringBuilder filter = new StringBuilder("(&(|");
+        for (String groupClass : getGroupClasses()) {
+            filter.append("(objectClass=").append(XWikiLDAPConnection.escapeLDAPSearchFilter(groupClass)).append(')');
+        }
+        filter.append(")(").append(attribute).append(">=")
+            .append(XWikiLDAPConnection.escapeLDAPSearchFilter(watermark.getValue())).append("))");
+
+        String value = watermark.getValue();
+        Set<String> valueGroups = new HashSet<>();
+        Set<String> changedGroups = new HashSet<>();
+        try (PagedLDAPSearchResults result = getConnection().searchPaginated(getBaseDN(), LDAPConnection.SCOPE_SUB,
+            filter.toString(), new String[] {attribute}, false)) {
+            while (result.hasMore()) {
+                LDAPEntry entry = result.next();
+                if (entry == null) {
+                    break;
+                }
+
+                LDAPAttribute groupAttribute = entry.getAttribute(attribute);
+                if (groupAttribute != null) {
+                    String groupDN = normalizeDN(entry.getDN());
+                    String groupValue = groupAttribute.getStringValue();
+
+                    // The search is inclusive so the last groups are found again
+                    if (!watermark.isKnown(groupDN, groupValue)) {
+                        changedGroups.add(groupDN);
+                    }
+
+                    int comparison = LDAPGroupsWatermark.compare(groupValue, value);
+                    if (comparison > 0) {
+                        value = groupValue;
+                        valueGroups.clear();
+                    }
+                    if (comparison >= 0) {
+                        valueGroups.add(groupDN);
+                    }
+                }
+            }
+        }
+
+        if (!changedGroups.isEmpty()) {
+            reloadGroups(changedGroups, context);
+        }
+
+        if (value.equals(watermark.getValue())) {
+            valueGroups.addAll(watermark.getGroups());
+        }
+        getCaches().setWatermark(this, new LDAPGroupsWatermark(value, valueGroups));
+    }
+
+    /**
+     * Reload the cached groups which are or contain the passed groups and forget the cached groups of the members
+     * which were added or removed.
+     * 
+     * @param changedGroups the normalized DNs of the modified groups
+     */
+    private void reloadGroups(Set<String> changedGroups, XWikiContext context)
+    {
+        Set<String> keys = getCaches().getGroupKeys(this, changedGroups);
+
+        LOGGER.debug("LDAP groups {} were modified, refreshing cached groups {}", changedGroups, keys);
+
+        for (String key : keys) {
+            Map<String, String> members = loadGroupMembers(key, context);
+
+            if (members != null) {
+                try {
+                    Map<String, String> previousMembers = getCaches().setGroupMembers(this, key, members);
+
+                    if (previousMembers != null) {
+                        Set<String> changedMembers = new HashSet<>();
+                        for (String memberDN : members.keySet()) {
+                            if (!previousMembers.containsKey(memberDN)) {
+                                changedMembers.add(normalizeDN(memberDN));
+                            }
+                        }
+                        for (String memberDN : previousMembers.keySet()) {
+                            if (!members.containsKey(memberDN)) {
+                                changedMembers.add(normalizeDN(memberDN));
+                            }
+                        }
+
+                        getCaches().removeMemberships(this, changedMembers);
+                    }
+                } catch (CacheException e) {
+                    LOGGER.warn("Failed to update the cached LDAP group [{}]: {}", key,
+                        ExceptionUtils.getRootCauseMessage(e));
+                }
+            }
+        }
+    }
+
+    /**
+     * The long running task listening to the changes of the LDAP server, with its own connection which is not taken
+     * from the pool since it's never given back.
+     */
+    private final class ChangesListener implements Runnable, Closeable
+    {
+        private final Supplier<Void> task;
+
+        private volatile XWikiLDAPConnection listenConnection;
+
+        private volatile boolean closed;
+
+        ChangesListener(XWikiContext context)
+        {
+            this.task = getConnection().getExecutors().withContext(context, backgroundContext -> {
+                listenChanges(backgroundContext);
+
+                return null;
+            });
+        }
+
+        @Override
+        public void run()
+        {
+            this.task.get();
+        }
+
+        /**
+         * Listen to the changes of the LDAP server until the listener is closed, with a persistent search when
+         * supported or by regularly searching for modified groups otherwise.
+         */
+        private void listenChanges(XWikiContext context)
+        {
+            boolean persistentSearch = true;
+
+            while (!isStopped()) {
+                int delay;
+
+                if (persistentSearch) {
+                    persistentSearch = listenChangesWithPersistentSearch(context);
+                    delay = PERSISTENT_SEARCH_RETRY_DELAY;
+                } else {
+                    refreshChangedGroups(context);
+                    delay = getConfiguration().getCacheIncrementalRefresh();
+                    if (delay <= 0) {
+                        delay = DEFAULT_CHANGES_POLLING_INTERVAL;
+                    }
+                }
+
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(delay));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * @return false if the LDAP server does not support persistent search
+         */
+        private boolean listenChangesWithPersistentSearch(XWikiContext context)
+        {
+            XWikiLDAPUtils listenUtils;
+            try {
+                listenUtils = openBackgroundUtils(context, false);
+            } catch (XWikiLDAPException e) {
+                LOGGER.warn("Failed to open a connection to listen to LDAP changes: {}",
+                    ExceptionUtils.getRootCauseMessage(e));
+
+                return true;
+            }
+
+            this.listenConnection = listenUtils.getConnection();
+            try {
+                // The listener might have been closed while the connection was opened
+                if (!isStopped()) {
+                    listenUtils.listenChangesFromLDAP(context);
+                }
+            } catch (LDAPException e) {
+                if (e.getResultCode() == LDAPException.UNAVAILABLE_CRITICAL_EXTENSION) {
+                    LOGGER.info("The LDAP server does not support persistent search, falling back on searching for"
+                        + " modified groups");
+
+                    return false;
+                }
+
+                if (!isStopped()) {
+                    LOGGER.warn("Persistent search on LDAP server failed: {}", ExceptionUtils.getRootCauseMessage(e));
+                }
+            } finally {
+                this.listenConnection = null;
+                listenUtils.getConnection().close();
+            }
+
+            return true;
+        }
+
+        private boolean isStopped()
+        {
+            return this.closed || Thread.currentThread().isInterrupted();
+        }
+
+        @Override
+        public void close()
+        {
+            this.closed = true;
+
+            // Unblock the thread waiting for the next change
+            XWikiLDAPConnection currentConnection = this.listenConnection;
+            if (currentConnection != null) {
+                currentConnection.close();
+            }
+        }
+    }
+
+    private void listenChangesFromLDAP(XWikiContext context) throws LDAPException
+    {
+        LDAPConnection ldapConnection = getConnection().getConnection();
+
+        LDAPSearchConstraints constraints = new LDAPSearchConstraints(ldapConnection.getSearchConstraints());
+        constraints.setControls(new LDAPPersistSearchControl(LDAPPersistSearchControl.ANY, true, true, true));
+        constraints.setTimeLimit(0);
+        constraints.setMaxResults(0);
+
+        // The uid is needed to forget that a newly created user could not be found
+        LDAPSearchQueue queue = ldapConnection.search(getBaseDN(), LDAPConnection.SCOPE_SUB, null,
+            new String[] {getUidAttributeName()}, false, (LDAPSearchQueue) null, constraints);
+
+        LOGGER.debug("Listening to the changes of LDAP server [{}]", ldapConnection.getHost());
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                // Wait for the next change
+                LDAPMessage message = queue.getResponse();
+
+                // Handle all the changes received at once
+                Set<String> changedEntries = new HashSet<>();
+                Set<String> notFoundKeys = new HashSet<>();
+                for (; message != null; message = queue.isResponseReceived() ? queue.getResponse() : null) {
+                    if (message instanceof LDAPSearchResult) {
+                        LDAPEntry entry = ((LDAPSearchResult) message).getEntry();
+                        addChangedEntry(entry.getDN(), changedEntries, notFoundKeys);
+
+                        LDAPAttribute uidAttribute = entry.getAttribute(getUidAttributeName());
+                        if (uidAttribute != null) {
+                            notFoundKeys.add(NOT_FOUND_UID + uidAttribute.getStringValue().toLowerCase());
+                        }
+
+                        // Also take into account the previous DN of a moved entry
+                        LDAPControl[] controls = message.getControls();
+                        if (controls != null) {
+                            for (LDAPControl control : controls) {
+                                if (control instanceof LDAPEntryChangeControl
+                                    && ((LDAPEntryChangeControl) control).getPreviousDN() != null) {
+                                    addChangedEntry(((LDAPEntryChangeControl) control).getPreviousDN(),
+                                        changedEntries, notFoundKeys);
+                                }
+                            }
+                        }
+                    } else if (message instanceof LDAPResponse) {
+                        // The persistent search ended
+                        ((LDAPResponse) message).chkResultCode();
+
+                        return;
+                    }
+                }
+
+                LOGGER.debug("LDAP entries {} were modified", changedEntries);
+
+                // The entry might have been created since it was searched
+                getCaches().removeNotFound(this, notFoundKeys);
+
+                // The entry might be a user whose groups changed
+                getCaches().removeMemberships(this, changedEntries);
+
+                // The entry might be a cached group or subgroup
+                reloadGroups(changedEntries, context);
+            }
+        } finally {
+            try {
+                ldapConnection.abandon(queue);
+            } catch (LDAPException e) {
+                LOGGER.debug("Failed to abandon the persistent search", e);
+            }
+        }
+    }
+
+    private void addChangedEntry(String dn, Set<String> changedEntries, Set<String> notFoundKeys)
+    {
+        String normalizedDN = normalizeDN(dn);
+
+        changedEntries.add(normalizedDN);
+        notFoundKeys.add(NOT_FOUND_GROUP + normalizedDN);
+    }
+
+    /**
+     * @return the current value of the passed ordered attribute
+     */
+    private String getCurrentWatermark(String attribute) throws LDAPException
+    {
+        if ("uSNChanged".equalsIgnoreCase(attribute)) {
+            // Active Directory exposes the last USN in the root DSE
+            LDAPEntry rootDSE = getConnection().getConnection().read("", new String[] {"highestCommittedUSN"});
+            LDAPAttribute usn = rootDSE.getAttribute("highestCommittedUSN");
+            if (usn != null) {
+                return usn.getStringValue();
+            }
+        }
+
+        // Generalized time, with a margin to not miss changes because of clocks differences
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        return format.format(new Date(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(5)));
+    }
+
+    /**
+     * Get group members from cache or update it from LDAP if it is not already cached.
+     * 
+     * @param groupDN the name of the group.
+     * @param context the XWiki context.
+     * @return the members of the group, or null if the given name is not a group.
+     * @throws XWikiException error when getting the group cache.
+     */
+    public Map<String, String> getGroupMembers(String groupDN, XWikiContext context) throws XWikiException
+    {
+        String notFoundKey = NOT_FOUND_GROUP + normalizeDN(groupDN);
+        if (isNotFound(notFoundKey)) {
+            LOGGER.debug("[{}] was recently found not to be a group", groupDN);
+
+            return null;
+        }
+
+        Map<String, String> groupMembers;
+
+        try {
+            groupMembers = getCaches().getGroupMembers(this, groupDN, () -> loadGroupMembers(groupDN, context),
+                getGroupMembersRefresher(groupDN, context));
+
+            trackGroupsChanges(context);
+        } catch (CacheException e) {
+            // rethrow the exception to stop group synchronization
+            // otherwise users will loose all mapped groups if there is a problem with the cache
+            throw new XWikiException("Unknown error with cache", e);
+        }
+
+        if (groupMembers != null) {
+            LOGGER.debug("Found group [{}] with [{}] members [{}]", groupDN, groupMembers.size(), groupMembers);
+        } else {
+            LOGGER.debug("No group corresponding to [{}] could be found", groupDN);
+
+            setNotFound(notFoundKey);
+        }
+
+        return groupMembers;
+    }
+
+    /**
+     * @param key the identifier of the user or group
+     * @return true if the user or group was recently searched and could not be found
+     */
+    private boolean isNotFound(String key)
+    {
+        if (getConfiguration().getNegativeCacheExpiration() <= 0) {
+            return false;
+        }
+
+        try {
+            return getCaches().isNotFound(this, key);
+        } catch (CacheException e) {
+            LOGGER.warn("Failed to access the cache of LDAP entries not found: {}",
+                ExceptionUtils.getRootCauseMessage(e));
+
+            return false;
+        }
+    }
+
+    /**
+     * @param key the identifier of the user or group which could not be found
+     */
+    private void setNotFound(String key)
+    {
+        if (getConfiguration().getNegativeCacheExpiration() <= 0) {
+            return;
+        }
+
+        try {
+            getCaches().setNotFound(this, key);
+        } catch (CacheException e) {
+            LOGGER.warn("Failed to access the cache of LDAP entries not found: {}",
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    /**
+     * Check if provided DN is in provided LDAP group.
+     * 
+     * @param memberDN the DN to find in the provided group.
+     * @param groupDN the DN of the group where to search.
+     * @param context the XWiki context.
+     * @return true if provided members in the provided group.
+     * @throws XWikiException error when searching for group members.
+     */
+    public boolean isMemberOfGroup(String memberDN, String groupDN, XWikiContext context) throws XWikiException
+    {
+        Cache<LDAPMembership> cache = getMembershipCache();
+        if (cache == null) {
+            return resolveMembership(memberDN, groupDN, context);
+        }
+
+        String key = normalizeDN(memberDN);
+        LDAPMembership membership = cache.get(key);
+        if (membership == null) {
+            membership = createMembership(memberDN);
+            cache.set(key, membership);
+        } else {
+            LOGGER.debug("Found cache entry for member [{}]", memberDN);
+        }
+
+        String normalizedGroupDN = normalizeDN(groupDN);
+        Boolean member = membership.isMember(normalizedGroupDN);
+        if (member == null) {
+            member = resolveMembership(memberDN, groupDN, context);
+            // Cached memberships are immutable (the cache might be replicated)
+            cache.set(key, membership.withMember(normalizedGroupDN, member));
+        }
+
+        return member;
+    }
+
+    private Cache<LDAPMembership> getMembershipCache() throws XWikiException
+    {
+        if (getConfiguration().getMembershipCacheExpiration() <= 0) {
+            return null;
+        }
+
+        try {
+            return getCaches().getMembershipCache(this);
+        } catch (CacheException e) {
+            throw new XWikiException("Unknown error with cache", e);
+        }
+    }
+
+    /**
+     * @param memberDN the DN of the member
+     * @return the groups the member is known to be part of
+     */
+    private LDAPMembership createMembership(String memberDN)
+    {
+        // Resolve all the groups at once when the server can tell
+        if (getConfiguration().isGroupMembershipCheck() && isResolveSubgroups()) {
+            try {
+                Set<String> groups = getMemberOfAncestors(memberDN, null);
+                if (groups != null) {
+                    LOGGER.debug("Member [{}] is part of groups {}", memberDN, groups);
+
+                    // The members of an entry which is not a group is the entry itself
+                    groups.add(normalizeDN(memberDN));
+
+                    // Only the groups found through memberOf are known, the other ones still need to be resolved
+
+                    return new LDAPMembership(groups);
+                }
+            } catch (LDAPException e) {
+                LOGGER.debug("Failed to get the groups of [{}]", memberDN, e);
+            }
+        }
+
+        // Fill the membership one group at a time
+        return new LDAPMembership();
+    }
+
+    private boolean resolveMembership(String memberDN, String groupDN, XWikiContext context) throws XWikiException
+    {
+        if (isMatchingRuleInChain(groupDN)) {
+            Boolean member = isMemberInChain(memberDN, groupDN);
+            if (member != null) {
+                return member;
+            }
+        }
+
+        if (isMembershipCheck(groupDN)) {
+            Boolean member = checkMembership(memberDN, null, groupDN);
+            if (member != null) {
+                return member;
+            }
+        }
+
+        Map<String, String> groupMembers = getGroupMembers(groupDN, context);
+
+        return groupMembers != null && findDNInGroup(memberDN, groupMembers) != null;
+    }
+
+    /**
+     * Check if provided DN is in one of the provided LDAP groups.
+     * 
+     * @param memberDN the DN to find in the provided groups.
+     * @param groupDNList the list of DN of the groups where to search.
+     * @param context the XWiki context.
+     * @return true if provided members in one of the provided groups.
+     * @throws XWikiException error when searching for group members.
+     */
+    public boolean isMemberOfGroups(String memberDN, Collection<String> groupDNList, XWikiContext context)
+        throws XWikiException
+    {
+        for (String groupDN : groupDNList) {
+            if (isMemberOfGroup(memberDN, groupDN, context)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the configuration for the LDAP groups cache.
+     * @since 9.3.7
+     * @deprecated since 9.4
+     */
+    @Deprecated
+    public CacheConfiguration getGroupCacheConfiguration()
+    {
+        return getCaches().createCacheConfiguration(getConfiguration());
+    }
+
+    /**
+     * @param context the XWiki context used to get cache configuration.
+     * @return the configuration for the LDAP groups cache.
+     * @deprecated
+     */
+    @Deprecated
+    public static CacheConfiguration getGroupCacheConfiguration(XWikiContext context)
+    {
+        return Utils.getComponent(LDAPGroupsCache.class).createCacheConfiguration(XWikiLDAPConfig.getInstance());
+    }
+
+    /**
+     * Locates the user in the Map: either the user is a value or the key starts with the LDAP syntax.
+     * 
+     * @param userName the name of the user.
+     * @param groupMembers the members of LDAP group.
+     * @param context the XWiki context.
+     * @return the full user name.
+     * @deprecated since 8.4, use {@link #findUidInGroup(String, Map)} instead
+     */
+    @Deprecated
+    protected String findInGroup(String userName, Map<String, String> groupMembers, XWikiContext context)
+    {
+        return findUidInGroup(userName, groupMembers);
+    }
+
+    /**
+     * Locates the user in the Map: either the user is a value or the key starts with the LDAP syntax.
+     * 
+     * @param userName the name of the user.
+     * @param groupMembers the members of LDAP group.
+     * @return the full user name.
+     */
+    protected String findUidInGroup(String userName, Map<String, String> groupMembers)
+    {
+        if (groupMembers instanceof LDAPGroupMembers) {
+            return ((LDAPGroupMembers) groupMembers).findUid(getUidAttributeName(), userName);
+        }
+
+        Pattern ldapuserPattern = Pattern
+            .compile("^" + Pattern.quote(getUidAttributeName()) + "=" + Pattern.quote(userName.toLowerCase()) + " *,");
+
+        for (Map.Entry<String, String> entry : groupMembers.entrySet()) {
+            // implementing it case-insensitive for now
+            if (userName.equalsIgnoreCase(entry.getValue()) || ldapuserPattern.matcher(entry.getKey()).find()) {
+                return entry.getKey();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Locates the user in the Map: either the user is a value or the key starts with the LDAP syntax.
+     * 
+     * @param userDN the name of the user.
+     * @param groupMembers the members of LDAP group.
+     * @return the full user name.
+     */
+    protected String findDNInGroup(String userDN, Map<String, String> groupMembers)
+    {
+        if (groupMembers instanceof LDAPGroupMembers) {
+            return ((LDAPGroupMembers) groupMembers).findDN(userDN) != null ? userDN : null;
+        }
+
+        if (groupMembers.containsKey(userDN.toLowerCase())) {
+            return userDN;
+        }
+
+        return null;
+    }
+
+    /**
+     * Check if user is in provided LDAP group and return source DN.
+     * 
+     * @param uid the user name.
+     * @param dn the user dn.
+     * @param groupDN the LDAP group DN.
+     * @param context the XWiki context.
+     * @return LDAP user's DN if the user is in the LDAP group, null otherwise.
+     * @throws XWikiException error when getting the group cache.
+     */
+    public String isInGroup(String uid, String dn, String groupDN, XWikiContext context) throws XWikiException
+    {
+        String userDN = null;
+
+        if (isMatchingRuleInChain(groupDN)) {
+            if (dn == null) {
+                userDN = findUidInChain(uid, groupDN);
+            } else {
+                Boolean member = isMemberInChain(dn, groupDN);
+                if (member != null) {
+                    userDN = member ? dn : "";
+                }
+            }
+
+            if (userDN != null) {
+                LOGGER.debug("Found user dn in user group [{}]", userDN);
+
+                return userDN.isEmpty() ? null : userDN;
+            }
+        }
+
+        if (isMembershipCheck(groupDN)) {
+            String memberDN = dn != null ? dn : searchUserDNByUid(uid);
+            if (memberDN != null) {
+                Boolean member = checkMembership(memberDN, uid, groupDN);
+                if (member != null) {
+                    LOGGER.debug("User [{}] is member of group [{}]: {}", memberDN, groupDN, member);
+
+                    return member ? memberDN : null;
+                }
+            }
+        }
+
+        if (groupDN.length() > 0) {
+            Map<String, String> groupMembers = null;
+
+            try {
+                groupMembers = getGroupMembers(groupDN, context);
+            } catch (Exception e) {
+                // Ignore exception to allow negative match for exclusion
+                LOGGER.debug("Unable to retrieve group members of group [{}]", groupDN, e);
+            }
+
+            // no match when a user does not have access to the group
+            if (groupMembers != null) {
+                // check if user is in the list
+                if (dn == null) {
+                    userDN = findUidInGroup(uid, groupMembers);
+                } else {
+                    userDN = findDNInGroup(dn, groupMembers);
+                }
+
+                LOGGER.debug("Found user dn in user group [{}]", userDN);
+            }
+        }
+
+        return userDN;
+    }
+
+    /**
+     * Check if user is in provided LDAP group and return source DN.
+     * 
+     * @param userName the user name.
+     * @param groupDN the LDAP group DN.
+     * @param context the XWiki context.
+     * @return LDAP user's DN if the user is in the LDAP group, null otherwise.
+     * @throws XWikiException error when getting the group cache.
+     */
+    public String isUidInGroup(String userName, String groupDN, XWikiContext context) throws XWikiException
+    {
+        return isInGroup(userName, null, groupDN, context);
+    }
+
+    /**
+     * Check if the DN is in provided LDAP group and return source DN.
+     * 
+     * @param dn the user DN.
+     * @param groupDN the LDAP group DN.
+     * @param context the XWiki context.
+     * @return LDAP user's DN if the user is in the LDAP group, null otherwise.
+     * @throws XWikiException error when getting the group cache.
+     * @since 8.4
+     */
+    public String isDNInGroup(String dn, String groupDN, XWikiContext context) throws XWikiException
+    {
+        return isInGroup(null, dn, groupDN, context);
     }
 
     /**
@@ -1209,7 +2553,29 @@ public class XWikiLDAPUtils
      */
     public List<XWikiLDAPSearchAttribute> searchUserAttributesByUid(String uid, String[] attributeNameTable)
     {
+        String notFoundKey = NOT_FOUND_UID + uid.toLowerCase();
+        if (isNotFound(notFoundKey)) {
+            LOGGER.debug("The user [{}] was recently not found", uid);
+
+            return Collections.emptyList();
+        }
+
         // search for the user in LDAP
+        String filter = getUserSearchFilter(uid);
+
+        List<XWikiLDAPSearchAttribute> searchAttributes =
+            getConnection().searchLDAP(this.baseDN, filter, attributeNameTable, LDAPConnection.SCOPE_SUB);
+
+        // null means that the search failed
+        if (searchAttributes != null && searchAttributes.isEmpty()) {
+            setNotFound(notFoundKey);
+        }
+
+        return searchAttributes;
+    }
+
+    private String getUserSearchFilter(String uid)
+    {
         String filter = MessageFormat.format(this.userSearchFormatString,
             XWikiLDAPConnection.escapeLDAPSearchFilter(getUidAttributeName()),
             XWikiLDAPConnection.escapeLDAPSearchFilter(uid));
@@ -1219,7 +2585,63 @@ public class XWikiLDAPUtils
                 filter, getUidAttributeName());
         }
 
-        return getConnection().searchLDAP(this.baseDN, filter, attributeNameTable, LDAPConnection.SCOPE_SUB);
+        return filter;
+    }
+
+    /**
+     * Start searching for the user without waiting for the result.
+     * 
+     * @param uid the unique identifier of the user in the LDAP server.
+     * @param attributeNameTable the names of the LDAP user attributes to return.
+     * @return the found LDAP attributes, null if the search failed or an empty list if no user was found
+     * @since 9.16.3
+     */
+    public CompletableFuture<List<XWikiLDAPSearchAttribute>> searchUserAttributesByUidAsync(String uid,
+        String[] attributeNameTable)
+    {
+        String notFoundKey = NOT_FOUND_UID + uid.toLowerCase();
+        if (isNotFound(notFoundKey)) {
+            LOGGER.debug("The user [{}] was recently not found", uid);
+
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        // search for the user in LDAP
+        String filter = getUserSearchFilter(uid);
+
+        CompletableFuture<List<LDAPEntry>> future;
+        try {
+            future =
+                getConnection().searchAsync(this.baseDN, LDAPConnection.SCOPE_SUB, filter, attributeNameTable, 1);
+        } catch (LDAPException e) {
+            LOGGER.debug("LDAP Search failed", e);
+
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return future.handle((entries, e) -> {
+            if (e != null) {
+                LOGGER.debug("LDAP Search failed", e);
+
+                return null;
+            }
+
+            if (entries.isEmpty()) {
+                setNotFound(notFoundKey);
+
+                return Collections.<XWikiLDAPSearchAttribute>emptyList();
+            }
+
+            LDAPEntry entry = entries.get(0);
+
+            List<XWikiLDAPSearchAttribute> searchAttributeList = new ArrayList<>();
+            searchAttributeList.add(new XWikiLDAPSearchAttribute(LDAP_FIELD_DN, entry.getDN()));
+            getConnection().ldapToXWikiAttribute(searchAttributeList, entry.getAttributeSet());
+
+            LOGGER.debug("LDAP search found attributes [{}]", searchAttributeList);
+
+            return searchAttributeList;
+        });
     }
 
     /**
@@ -1283,6 +2705,8 @@ public class XWikiLDAPUtils
                 createUserFromLDAP(userProfile, attributes, ldapDn, authInput, context);
 
                 LOGGER.debug("New XWiki user created: [{}]", userProfile.getDocumentReference());
+            } else if (isUserUnchanged(userProfile, attributes, ldapDn)) {
+                LOGGER.debug("LDAP user located at [{}] did not change since the last synchronization", ldapDn);
             } else {
                 LOGGER.debug("Updating existing user with LDAP attributes located at [{}]", ldapDn);
 
@@ -1297,6 +2721,100 @@ public class XWikiLDAPUtils
         return userProfile;
     }
 
+    private boolean isUserUnchanged(XWikiDocument userProfile, List<XWikiLDAPSearchAttribute> attributes,
+        String ldapDN)
+    {
+        String fingerprint = getUserFingerprint(attributes, ldapDN);
+
+        return fingerprint != null && fingerprint.equals(LDAPProfileXClass.getFingerprint(userProfile));
+    }
+
+    /**
+     * @param attributes the attributes of the LDAP user
+     * @param ldapDN the LDAP user DN
+     * @return a value which changes when the synchronized attributes of the LDAP user change, null if it can't be
+     *         computed or if it's disabled
+     */
+    String getUserFingerprint(List<XWikiLDAPSearchAttribute> attributes, String ldapDN)
+    {
+        String fingerprintAttribute = this.configuration.getUserFingerprint();
+        if (StringUtils.isEmpty(fingerprintAttribute) || attributes == null || attributes.isEmpty()) {
+            return null;
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Should never happen, SHA-256 is mandatory in all Java implementations
+            throw new IllegalStateException("Failed to get SHA-256 message digest", e);
+        }
+
+        update(digest, ldapDN);
+
+        // Maps the lower case LDAP attributes to the XWiki fields
+        Map<String, String> userMappings = new TreeMap<>(this.configuration.getUserMappings(null));
+        String photoAttribute = null;
+        if (this.configuration.getLDAPParam(XWikiLDAPConfig.PREF_LDAP_UPDATE_PHOTO, "0").equals("1")) {
+            photoAttribute = this.configuration.getLDAPParam(XWikiLDAPConfig.PREF_LDAP_PHOTO_ATTRIBUTE,
+                XWikiLDAPConfig.DEFAULT_PHOTO_ATTRIBUTE);
+        }
+
+        if (XWikiLDAPConfig.USER_FINGERPRINT_DIGEST.equals(fingerprintAttribute)) {
+            // Only the synchronized attributes matter
+            List<XWikiLDAPSearchAttribute> sortedAttributes = new ArrayList<>(attributes.size());
+            for (XWikiLDAPSearchAttribute attribute : attributes) {
+                if (userMappings.containsKey(attribute.name.toLowerCase())
+                    || attribute.name.equalsIgnoreCase(photoAttribute)) {
+                    sortedAttributes.add(attribute);
+                }
+            }
+
+            // The LDAP server does not guarantee the order of the attributes and values
+            sortedAttributes.sort(Comparator.comparing((XWikiLDAPSearchAttribute attribute) -> attribute.name)
+                .thenComparing(attribute -> attribute.value, Comparator.nullsFirst(Comparator.naturalOrder())));
+
+            for (XWikiLDAPSearchAttribute attribute : sortedAttributes) {
+                // Include the XWiki field to notice when the attribute is mapped differently
+                update(digest, attribute.name);
+                update(digest, userMappings.get(attribute.name.toLowerCase()));
+                if (attribute.byteValue != null) {
+                    digest.update(attribute.byteValue);
+                    digest.update((byte) 0);
+                } else {
+                    update(digest, attribute.value);
+                }
+            }
+        } else {
+            String value = null;
+            for (XWikiLDAPSearchAttribute attribute : attributes) {
+                if (fingerprintAttribute.equalsIgnoreCase(attribute.name)) {
+                    value = attribute.value;
+                }
+            }
+
+            if (value == null) {
+                LOGGER.debug("No attribute [{}] could be found for LDAP user [{}]", fingerprintAttribute, ldapDN);
+
+                return null;
+            }
+
+            // The attribute changes with the user but not with the way it's synchronized
+            update(digest, userMappings.toString());
+            update(digest, photoAttribute);
+            update(digest, value);
+        }
+
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, String value)
+    {
+        digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        // Separate the values
+        digest.update((byte) 0);
+    }
+
     /**
      * Not everything is supported in XWiki user page name so clean clean it a bit.
      * 
@@ -1385,6 +2903,14 @@ public class XWikiLDAPUtils
         // Add the uid field
         attributeNameList.add(getUidAttributeName());
 
+        // Add the attribute indicating if the user changed (generally an operational attribute, only returned when
+        // explicitly asked)
+        String fingerprintAttribute = this.configuration.getUserFingerprint();
+        if (StringUtils.isNotEmpty(fingerprintAttribute)
+            && !XWikiLDAPConfig.USER_FINGERPRINT_DIGEST.equals(fingerprintAttribute)) {
+            attributeNameList.add(fingerprintAttribute);
+        }
+
         int lsize = attributeNameList.size();
         if (lsize > 0) {
             attributeNameTable = attributeNameList.toArray(new String[lsize]);
@@ -1504,7 +3030,8 @@ public class XWikiLDAPUtils
         // Add user photo from LDAP
         updateAvatarFromLdap(attributes, createdUserProfile, context);
 
-        if (ldapXClass.updateLDAPObject(createdUserProfile, ldapDN, ldapUid)) {
+        if (ldapXClass.updateLDAPObject(createdUserProfile, ldapDN, ldapUid,
+            getUserFingerprint(attributes, ldapDN))) {
             context.getWiki().saveDocument(createdUserProfile, "Created user profile from LDAP server", context);
         }
     }
@@ -1545,7 +3072,8 @@ public class XWikiLDAPUtils
 
         // Update ldap profile object
         LDAPProfileXClass ldaXClass = new LDAPProfileXClass(context);
-        needsUpdate |= ldaXClass.updateLDAPObject(userProfile, ldapDN, ldapUid);
+        needsUpdate |=
+            ldaXClass.updateLDAPObject(userProfile, ldapDN, ldapUid, getUserFingerprint(attributes, ldapDN));
 
         if (needsUpdate) {
             context.getWiki().saveDocument(userProfile, "Synchronized user profile with LDAP server", true, context);
@@ -0,0 +1,558 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPException;
+
+/**
+ * Keep bound LDAP connections open to reuse them between authentications.
+ * <p>
+ * Connections are grouped by pool key (server, port, SSL and bind credentials) so that a connection is never reused
+ * with other credentials than the ones it was bound with.
+ *
+ * @version $Id$
+ * @since 9.16.3
+ */
+@Component(roles = LDAPConnectionPool.class)
+@Singleton
+public class LDAPConnectionPool implements Disposable
+{
+    /**
+     * Interval in seconds between two checks of the idle connections.
+     */
+    private static final long EVICTION_INTERVAL = 30;
+
+    private static final String ROOT_DSE = "";
+
+    /**
+     * Used to ask the server to not return any attribute.
+     */
+    private static final String[] NO_ATTRIBUTES = new String[] {"1.1"};
+
+    private static final String KEY_ALGORITHM = "HmacSHA256";
+
+    private static final int KEY_SECRET_LENGTH = 32;
+
+    /**
+     * The secret used to derive the part of the pool keys depending on the password, generated for each process so that
+     * the keys (which can end up in logs and statistics) cannot be used to guess the password.
+     */
+    private static final SecretKeySpec KEY_SECRET = createKeySecret();
+
+    /**
+     * Create new bound LDAP connections for a pool.
+     *
+     * @version $Id$
+     */
+    @FunctionalInterface
+    public interface LDAPConnectionFactory
+    {
+        /**
+         * @return a new connected and bound LDAP connection
+         * @throws LDAPException when failing to connect or bind
+         */
+        LDAPConnection create() throws LDAPException;
+    }
+
+    /**
+     * The limits of a pool.
+     *
+     * @version $Id$
+     */
+    public static class Settings
+    {
+        private final int minSize;
+
+        private final int maxSize;
+
+        private final long maxWait;
+
+        private final long idleTimeout;
+
+        private final long maxLifetime;
+
+        private final boolean validate;
+
+        /**
+         * @param configuration the LDAP configuration
+         */
+        public Settings(XWikiLDAPConfig configuration)
+        {
+            this(configuration, configuration.getConnectionPoolMinSize(), configuration.getConnectionPoolMaxSize());
+        }
+
+        /**
+         * @param configuration the LDAP configuration
+         * @param minSize the number of connections to keep open in the pool even when they are idle
+         * @param maxSize the maximum number of connections
+         */
+        public Settings(XWikiLDAPConfig configuration, int minSize, int maxSize)
+        {
+            this.maxSize = Math.max(1, maxSize);
+            this.minSize = Math.min(Math.max(0, minSize), this.maxSize);
+            this.maxWait = configuration.getConnectionPoolMaxWait();
+            this.idleTimeout = TimeUnit.SECONDS.toMillis(configuration.getConnectionPoolIdleTimeout());
+            this.maxLifetime = TimeUnit.SECONDS.toMillis(configuration.getConnectionPoolMaxLifetime());
+            this.validate = configuration.isConnectionPoolValidateOnBorrow();
+        }
+    }
+
+    /**
+     * A connection associated with the pool it comes from.
+     *
+     * @version $Id$
+     */
+    public static class PooledConnection
+    {
+        private final Pool pool;
+
+        private final LDAPConnection connection;
+
+        private final long creationDate;
+
+        private long releaseDate;
+
+        PooledConnection(Pool pool, LDAPConnection connection)
+        {
+            this.pool = pool;
+            this.connection = connection;
+            this.creationDate = System.currentTimeMillis();
+            this.releaseDate = this.creationDate;
+        }
+
+        /**
+         * @return the LDAP connection
+         */
+        public LDAPConnection getConnection()
+        {
+            return this.connection;
+        }
+
+        /**
+         * @return the DN the connection was bound with when created, null for connections dedicated to the validation
+         *         of user credentials
+         */
+        public String getBindDN()
+        {
+            return this.pool.bindDN;
+        }
+
+        boolean isExpired(Settings settings, long now)
+        {
+            return settings.maxLifetime > 0 && now - this.creationDate > settings.maxLifetime;
+        }
+
+        boolean isIdleTooLong(Settings settings, long now)
+        {
+            return settings.idleTimeout > 0 && now - this.releaseDate > settings.idleTimeout;
+        }
+    }
+
+    private static final class Pool
+    {
+        private final String key;
+
+        private final String bindDN;
+
+        private final Deque<PooledConnection> idle = new ArrayDeque<>();
+
+        /**
+         * The number of connections created by this pool and not yet destroyed (idle or borrowed).
+         */
+        private int size;
+
+        private volatile Settings settings;
+
+        private volatile LDAPConnectionFactory factory;
+
+        Pool(String key, String bindDN)
+        {
+            this.key = key;
+            this.bindDN = bindDN;
+        }
+    }
+
+    @Inject
+    private LDAPExecutors executors;
+
+    @Inject
+    private Logger logger;
+
+    private final ConcurrentMap<String, Pool> pools = new ConcurrentHashMap<>();
+
+    private ScheduledFuture<?> evictionTask;
+
+    /**
+     * @param host the host(s) of the server
+     * @param port the port of the server
+     * @param ssl true if the connection is secure
+     * @param pathToKeys the SSL keystore
+     * @param serviceDiscovery true if the hosts are resolved through DNS SRV records
+     * @param bindDN the DN used to bind the connection
+     * @param bindPassword the password used to bind the connection
+     * @return the key of the pool
+     */
+    public static String createKey(String host, int port, boolean ssl, String pathToKeys, boolean serviceDiscovery,
+        String bindDN, String bindPassword)
+    {
+        StringBuilder builder = new StringBuilder();
+
+        builder.append(host);
+        builder.append(':');
+        builder.append(port);
+        builder.append(ssl ? "/ssl/" : "/plain/");
+        builder.append(pathToKeys != null ? pathToKeys : "");
+        builder.append(serviceDiscovery ? "/srv/" : "/direct/");
+        builder.append(bindDN);
+        builder.append('/');
+        // Never keep the password in memory in clear text (nor a plain hash of it), but make sure a password change
+        // produces a different pool
+        builder.append(digest(bindPassword));
+
+        return builder.toString();
+    }
+
+    private static SecretKeySpec createKeySecret()
+    {
+        byte[] secret = new byte[KEY_SECRET_LENGTH];
+        new SecureRandom().nextBytes(secret);
+
+        return new SecretKeySpec(secret, KEY_ALGORITHM);
+    }
+
+    private static String digest(String value)
+    {
+        try {
+            Mac mac = Mac.getInstance(KEY_ALGORITHM);
+            mac.init(KEY_SECRET);
+
+            return Hex.encodeHexString(mac.doFinal(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            // Should never happen, HmacSHA256 is mandatory in all Java implementations
+            throw new IllegalStateException("Failed to compute the HMAC of the password", e);
+        }
+    }
+
+    /**
+     * Get an idle connection from the pool or create a new one if there is none.
+     *
+     * @param key the key of the pool
+     * @param bindDN the DN the connections of this pool are bound with, null if the connections are only used to
+     *            validate credentials (in which case their bound state does not matter)
+     * @param settings the limits of the pool
+     * @param factory used to create a new connection when the pool does not contain any valid idle one
+     * @return a bound connection
+     * @throws LDAPException when failing to create a new connection or if no connection is available after the
+     *             configured waiting time
+     */
+    public PooledConnection borrow(String key, String bindDN, Settings settings, LDAPConnectionFactory factory)
+        throws LDAPException
+    {
+        Pool pool = this.pools.computeIfAbsent(key, k -> new Pool(k, bindDN));
+        pool.settings = settings;
+        pool.factory = factory;
+
+        startEviction();
+
+        long deadline = System.currentTimeMillis() + settings.maxWait;
+
+        while (true) {
+            PooledConnection candidate;
+
+            synchronized (pool) {
+                candidate = pool.idle.pollFirst();
+
+                if (candidate == null) {
+                    if (pool.size < settings.maxSize) {
+                        // Reserve the slot before creating the connection outside of the lock
+                        pool.size++;
+                    } else {
+                        waitForConnection(pool, deadline);
+
+                        continue;
+                    }
+                }
+            }
+
+            if (candidate == null) {
+                return create(pool);
+            }
+
+            if (isValid(candidate, settings)) {
+                this.logger.debug("Reusing pooled LDAP connection for [{}]", bindDN);
+
+                return candidate;
+            }
+
+            destroy(pool, candidate);
+        }
+    }
+
+    private void waitForConnection(Pool pool, long deadline) throws LDAPException
+    {
+        long remaining = deadline - System.currentTimeMillis();
+
+        if (remaining <= 0) {
+            throw new LDAPException("No LDAP connection available in the pool", LDAPException.LDAP_TIMEOUT,
+                "Timeout while waiting for a pooled LDAP connection");
+        }
+
+        try {
+            pool.wait(remaining);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new LDAPException("Interrupted while waiting for a pooled LDAP connection",
+                LDAPException.LDAP_TIMEOUT, null);
+        }
+    }
+
+    private PooledConnection create(Pool pool) throws LDAPException
+    {
+        try {
+            this.logger.debug("Creating a new pooled LDAP connection for [{}]", pool.bindDN);
+
+            return new PooledConnection(pool, pool.factory.create());
+        } catch (LDAPException | RuntimeException e) {
+            synchronized (pool) {
+                pool.size--;
+                pool.notifyAll();
+            }
+
+            throw e;
+        }
+    }
+
+    private boolean isValid(PooledConnection pooledConnection, Settings settings)
+    {
+        long now = System.currentTimeMillis();
+
+        LDAPConnection connection = pooledConnection.getConnection();
+        if (!connection.isConnected() || (pooledConnection.getBindDN() != null && !connection.isBound())
+            || pooledConnection.isExpired(settings, now)
+            || pooledConnection.isIdleTooLong(settings, now)) {
+            return false;
+        }
+
+        if (settings.validate) {
+            try {
+                // Cheap request to make sure the server did not close the connection on its side
+                connection.read(ROOT_DSE, NO_ATTRIBUTES);
+            } catch (LDAPException e) {
+                this.logger.debug("Pooled LDAP connection is not valid anymore", e);
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Give back a connection to its pool.
+     *
+     * @param pooledConnection the connection to give back
+     * @param reusable false if the connection should not be reused (for example because its state changed)
+     */
+    public void release(PooledConnection pooledConnection, boolean reusable)
+    {
+        Pool pool = pooledConnection.pool;
+
+        if (this.pools.get(pool.key) != pool) {
+            // The pool has been cleared in the meantime (a new pool with the same key might exist but it's not the one
+            // which accounted for this connection)
+            disconnect(pooledConnection);
+
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        boolean keep = reusable && pooledConnection.getConnection().isConnected()
+            && !pooledConnection.isExpired(pool.settings, now);
+
+        synchronized (pool) {
+            if (keep) {
+                pooledConnection.releaseDate = now;
+                pool.idle.addFirst(pooledConnection);
+            } else {
+                pool.size--;
+            }
+
+            pool.notifyAll();
+        }
+
+        if (!keep) {
+            disconnect(pooledConnection);
+        }
+    }
+
+    private void destroy(Pool pool, PooledConnection pooledConnection)
+    {
+        synchronized (pool) {
+            pool.size--;
+            pool.notifyAll();
+        }
+
+        disconnect(pooledConnection);
+    }
+
+    private void disconnect(PooledConnection pooledConnection)
+    {
+        try {
+            pooledConnection.getConnection().disconnect();
+        } catch (LDAPException e) {
+            this.logger.debug("Failed to close pooled LDAP connection", e);
+        }
+    }
+
+    private synchronized void startEviction()
+    {
+        if (this.evictionTask == null) {
+            this.evictionTask = this.executors.getScheduler().scheduleWithFixedDelay(this::evict, EVICTION_INTERVAL,
+                EVICTION_INTERVAL, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Close the connections which stayed idle too long and make sure each pool contains its minimum number of
+     * connections.
+     */
+    void evict()
+    {
+        for (Pool pool : this.pools.values()) {
+            try {
+                evict(pool);
+            } catch (Exception e) {
+                this.logger.warn("Failed to maintain LDAP connection pool: {}", e.getMessage());
+                this.logger.debug("Full stack trace:", e);
+            }
+        }
+    }
+
+    private void evict(Pool pool)
+    {
+        Settings settings = pool.settings;
+        if (settings == null) {
+            // Pool still being initialized
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        List<PooledConnection> evicted = new ArrayList<>();
+        int missing;
+
+        synchronized (pool) {
+            // The oldest idle connections are at the end of the queue
+            for (Iterator<PooledConnection> it = pool.idle.descendingIterator(); it.hasNext();) {
+                PooledConnection pooledConnection = it.next();
+
+                if (pooledConnection.isExpired(settings, now)
+                    || (pooledConnection.isIdleTooLong(settings, now) && pool.size > settings.minSize)) {
+                    it.remove();
+                    pool.size--;
+                    evicted.add(pooledConnection);
+                }
+            }
+
+            missing = settings.minSize - pool.size;
+            pool.size += Math.max(0, missing);
+        }
+
+        for (PooledConnection pooledConnection : evicted) {
+            disconnect(pooledConnection);
+        }
+
+        for (int i = 0; i < missing; ++i) {
+            try {
+                release(create(pool), true);
+            } catch (LDAPException e) {
+                this.logger.debug("Failed to fill LDAP connection pool [{}]", pool.bindDN, e);
+
+                // Cancel the remaining reservations
+                synchronized (pool) {
+                    pool.size -= missing - i - 1;
+                }
+
+                break;
+            }
+        }
+    }
+
+    /**
+     * Close all idle connections and forget all pools. Borrowed connections are closed when released.
+     */
+    public void clear()
+    {
+        List<Pool> removed = new ArrayList<>(this.pools.values());
+        this.pools.clear();
+
+        for (Pool pool : removed) {
+            List<PooledConnection> idle;
+            synchronized (pool) {
+                idle = new ArrayList<>(pool.idle);
+                pool.idle.clear();
+            }
+
+            for (PooledConnection pooledConnection : idle) {
+                disconnect(pooledConnection);
+            }
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        synchronized (this) {
+            if (this.evictionTask != null) {
+                this.evictionTask.cancel(false);
+                this.evictionTask = null;
+            }
+        }
+
+        clear();
+    }
+}
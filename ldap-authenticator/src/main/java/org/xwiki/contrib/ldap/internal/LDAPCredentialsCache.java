@@ -0,0 +1,231 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Principal;
+import java.security.SecureRandom;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+
+/**
+ * Remember the recent successful authentications to not go through the LDAP server for each request of clients
+ * sending their credentials every time. Only a salted hash of the password is kept, next to the resulting principal.
+ * 
+ * @version $Id$
+ * @since 9.16.3
+ */
+@Component(roles = LDAPCredentialsCache.class)
+@Singleton
+public class LDAPCredentialsCache implements Disposable
+{
+    /**
+     * The name of the credentials cache.
+     */
+    private static final String CACHE_NAME = "ldap.credentials";
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+
+    private static final int ITERATIONS = 10000;
+
+    private static final int HASH_LENGTH = 256;
+
+    private static final int SALT_LENGTH = 16;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private Logger logger;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private Cache<Credentials> cache;
+
+    private int cacheExpiration;
+
+    private int cacheSize;
+
+    /**
+     * A successful authentication.
+     */
+    private static final class Credentials
+    {
+        private final byte[] salt;
+
+        private final byte[] hash;
+
+        private final Principal principal;
+
+        Credentials(byte[] salt, byte[] hash, Principal principal)
+        {
+            this.salt = salt;
+            this.hash = hash;
+            this.principal = principal;
+        }
+    }
+
+    /**
+     * @param configuration the LDAP configuration
+     * @param key the identifier of the user (including the wiki)
+     * @param password the password provided by the user
+     * @return the principal of the previous successful authentication with the same password, null if none could be
+     *         found
+     */
+    public Principal get(XWikiLDAPConfig configuration, String key, String password)
+    {
+        Cache<Credentials> credentialsCache = getCache(configuration);
+        if (credentialsCache == null) {
+            return null;
+        }
+
+        Credentials credentials = credentialsCache.get(key);
+        if (credentials == null) {
+            return null;
+        }
+
+        byte[] hash = hash(password, credentials.salt);
+        if (hash != null && MessageDigest.isEqual(hash, credentials.hash)) {
+            return credentials.principal;
+        }
+
+        // The password changed (or it's a wrong one), authenticate again
+        credentialsCache.remove(key);
+
+        return null;
+    }
+
+    /**
+     * @param configuration the LDAP configuration
+     * @param key the identifier of the user (including the wiki)
+     * @param password the password provided by the user
+     * @param principal the result of the successful authentication
+     */
+    public void set(XWikiLDAPConfig configuration, String key, String password, Principal principal)
+    {
+        Cache<Credentials> credentialsCache = getCache(configuration);
+        if (credentialsCache == null) {
+            return;
+        }
+
+        byte[] salt = new byte[SALT_LENGTH];
+        this.random.nextBytes(salt);
+
+        byte[] hash = hash(password, salt);
+        if (hash != null) {
+            credentialsCache.set(key, new Credentials(salt, hash, principal));
+        }
+    }
+
+    /**
+     * Forget the previous successful authentication of the user.
+     * 
+     * @param key the identifier of the user (including the wiki)
+     */
+    public void remove(String key)
+    {
+        Cache<Credentials> credentialsCache;
+        synchronized (this) {
+            credentialsCache = this.cache;
+        }
+
+        if (credentialsCache != null) {
+            credentialsCache.remove(key);
+        }
+    }
+
+    private synchronized Cache<Credentials> getCache(XWikiLDAPConfig configuration)
+    {
+        int expiration = configuration.getAuthCacheExpiration();
+        int size = configuration.getAuthCacheSize();
+
+        if (expiration <= 0) {
+            return null;
+        }
+
+        // Recreate the cache when its configuration changed
+        if (this.cache != null && (expiration != this.cacheExpiration || size != this.cacheSize)) {
+            reset();
+        }
+
+        if (this.cache == null) {
+            LRUCacheConfiguration cacheConfiguration = new LRUCacheConfiguration(CACHE_NAME, size);
+            cacheConfiguration.getLRUEvictionConfiguration().setLifespan(expiration);
+
+            try {
+                this.cache = this.cacheManager.createNewLocalCache(cacheConfiguration);
+                this.cacheExpiration = expiration;
+                this.cacheSize = size;
+            } catch (CacheException e) {
+                this.logger.warn("Failed to create the LDAP authentication cache: {}",
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+
+        return this.cache;
+    }
+
+    private byte[] hash(String password, byte[] salt)
+    {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, ITERATIONS, HASH_LENGTH);
+
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            this.logger.warn("Failed to hash the password: {}", ExceptionUtils.getRootCauseMessage(e));
+
+            return null;
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * Forget all the successful authentications.
+     */
+    public synchronized void reset()
+    {
+        if (this.cache != null) {
+            this.cache.dispose();
+            this.cache = null;
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        reset();
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * A dictionary of the DNs (and associated uid) of the LDAP group members shared by all the cached groups of a given
+ * server. Each DN is stored only once, as UTF-8, and is identified by an int so that a group only has to store a
+ * sorted array of ints.
+ * <p>
+ * Identifiers are never reused: when too many entries are not referenced anymore by any group a new dictionary should
+ * be created (see {@link #isObsolete()}) and this one will be garbage collected with the last group using it.
+ * 
+ * @version $Id$
+ * @since 9.16.3
+ */
+public class LDAPDNDictionary
+{
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * The minimum number of entries before considering replacing the dictionary.
+     */
+    private static final int MIN_OBSOLETE_SIZE = 4096;
+
+    /**
+     * Approximate size of the header of an array.
+     */
+    private static final int ARRAY_OVERHEAD = 16;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private byte[][] dns = new byte[MIN_CAPACITY][];
+
+    private byte[][] uids = new byte[MIN_CAPACITY][];
+
+    /**
+     * The number of groups referencing each entry.
+     */
+    private int[] references = new int[MIN_CAPACITY];
+
+    private int size;
+
+    private int unused;
+
+    private long textSize;
+
+    private final Index dnIndex = new Index()
+    {
+        @Override
+        protected int hash(int id)
+        {
+            return LDAPDNDictionary.hash(dns[id], dns[id].length);
+        }
+    };
+
+    private final Index uidIndex = new Index()
+    {
+        @Override
+        protected int hash(int id)
+        {
+            return uids[id] != null ? LDAPDNDictionary.hash(uids[id], uids[id].length) : -1;
+        }
+    };
+
+    private final Index rdnIndex = new Index()
+    {
+        @Override
+        protected int hash(int id)
+        {
+            int length = getRDNLength(dns[id]);
+
+            return length > 0 ? LDAPDNDictionary.hash(dns[id], length) : -1;
+        }
+    };
+
+    /**
+     * Open addressing hash table of entry identifiers.
+     */
+    private abstract static class Index
+    {
+        private int[] slots = new int[MIN_CAPACITY * 2];
+
+        private int count;
+
+        /**
+         * @return the positive hash of the key of the entry, -1 if the entry should not be indexed
+         */
+        protected abstract int hash(int id);
+
+        void add(int id)
+        {
+            int hash = hash(id);
+            if (hash >= 0) {
+                if ((this.count + 1) * 2 > this.slots.length) {
+                    int[] table = new int[this.slots.length * 2];
+                    for (int slot : this.slots) {
+                        if (slot != 0) {
+                            insert(table, slot - 1, hash(slot - 1));
+                        }
+                    }
+                    this.slots = table;
+                }
+
+                insert(this.slots, id, hash);
+                this.count++;
+            }
+        }
+
+        private void insert(int[] table, int id, int hash)
+        {
+            int mask = table.length - 1;
+            int i = hash & mask;
+            while (table[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            table[i] = id + 1;
+        }
+
+        int find(int hash, IntPredicate matcher)
+        {
+            int mask = this.slots.length - 1;
+            for (int i = hash & mask; this.slots[i] != 0; i = (i + 1) & mask) {
+                int id = this.slots[i] - 1;
+                if (matcher.test(id)) {
+                    return id;
+                }
+            }
+
+            return -1;
+        }
+
+        long getMemorySize()
+        {
+            return ARRAY_OVERHEAD + 4L * this.slots.length;
+        }
+    }
+
+    private static int hash(byte[] bytes, int length)
+    {
+        int hash = 1;
+        for (int i = 0; i < length; ++i) {
+            hash = 31 * hash + bytes[i];
+        }
+        hash *= 0x9E3779B9;
+
+        return (hash ^ (hash >>> 16)) & Integer.MAX_VALUE;
+    }
+
+    private static boolean equals(byte[] bytes, int length, byte[] key)
+    {
+        if (length != key.length) {
+            return false;
+        }
+
+        for (int i = 0; i < length; ++i) {
+            if (bytes[i] != key[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the length of the first RDN of the DN (without trailing white spaces), -1 if the DN has a single RDN
+     */
+    private static int getRDNLength(byte[] dn)
+    {
+        for (int i = 0; i < dn.length; ++i) {
+            if (dn[i] == ',') {
+                int length = i;
+                while (length > 0 && dn[length - 1] == ' ') {
+                    --length;
+                }
+
+                return length > 0 ? length : -1;
+            }
+        }
+
+        return -1;
+    }
+
+    private static byte[] toBytes(String value)
+    {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static String toString(byte[] value)
+    {
+        return value != null ? new String(value, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Add the passed members to the dictionary.
+     * 
+     * @param members maps the lower case DN of each member to its lower case uid
+     * @return the sorted identifiers of the members
+     */
+    public int[] add(Map<String, String> members)
+    {
+        int[] ids = new int[members.size()];
+        int index = 0;
+
+        this.lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, String> member : members.entrySet()) {
+                ids[index++] = add(member.getKey(), member.getValue());
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        Arrays.sort(ids);
+
+        return ids;
+    }
+
+    private int add(String dn, String uid)
+    {
+        byte[] dnBytes = toBytes(dn);
+        int hash = hash(dnBytes, dnBytes.length);
+
+        int id = this.dnIndex.find(hash, i -> equals(this.dns[i], this.dns[i].length, dnBytes));
+
+        if (id == -1) {
+            if (this.size == this.dns.length) {
+                int capacity = this.size * 2;
+                this.dns = Arrays.copyOf(this.dns, capacity);
+                this.uids = Arrays.copyOf(this.uids, capacity);
+                this.references = Arrays.copyOf(this.references, capacity);
+            }
+
+            id = this.size++;
+            this.dns[id] = dnBytes;
+            this.uids[id] = toBytes(uid);
+            this.textSize += dnBytes.length + (this.uids[id] != null ? this.uids[id].length + ARRAY_OVERHEAD : 0);
+
+            this.dnIndex.add(id);
+            this.uidIndex.add(id);
+            this.rdnIndex.add(id);
+        } else if (this.references[id] == 0) {
+            this.unused--;
+        }
+
+        this.references[id]++;
+
+        return id;
+    }
+
+    /**
+     * Indicate that the passed entries are not referenced anymore by a group.
+     * 
+     * @param ids the identifiers of the entries
+     */
+    public void release(int[] ids)
+    {
+        this.lock.writeLock().lock();
+        try {
+            for (int id : ids) {
+                if (--this.references[id] == 0) {
+                    this.unused++;
+                }
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param dn the lower case DN
+     * @return the identifier of the entry, -1 if none could be found
+     */
+    public int getId(String dn)
+    {
+        byte[] key = toBytes(dn);
+
+        this.lock.readLock().lock();
+        try {
+            return this.dnIndex.find(hash(key, key.length), i -> equals(this.dns[i], this.dns[i].length, key));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param uid the lower case uid
+     * @param ids the sorted identifiers among which to search
+     * @return the identifier of the entry with the passed uid, -1 if none could be found
+     */
+    public int findUid(String uid, int[] ids)
+    {
+        byte[] key = toBytes(uid);
+
+        this.lock.readLock().lock();
+        try {
+            return this.uidIndex.find(hash(key, key.length), i -> this.uids[i] != null
+                && equals(this.uids[i], this.uids[i].length, key) && Arrays.binarySearch(ids, i) >= 0);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param rdn the lower case first RDN of the DN (as in {@code cn=john})
+     * @param ids the sorted identifiers among which to search
+     * @return the identifier of the entry with the passed first RDN, -1 if none could be found
+     */
+    public int findRDN(String rdn, int[] ids)
+    {
+        byte[] key = toBytes(rdn);
+
+        this.lock.readLock().lock();
+        try {
+            return this.rdnIndex.find(hash(key, key.length), i -> equals(this.dns[i], getRDNLength(this.dns[i]), key)
+                && Arrays.binarySearch(ids, i) >= 0);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param id the identifier of the entry
+     * @return the lower case DN of the entry
+     */
+    public String getDN(int id)
+    {
+        this.lock.readLock().lock();
+        try {
+            return toString(this.dns[id]);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param id the identifier of the entry
+     * @return the lower case uid of the entry
+     */
+    public String getUid(int id)
+    {
+        this.lock.readLock().lock();
+        try {
+            return toString(this.uids[id]);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if enough entries are not used anymore to justify creating a new dictionary
+     */
+    public boolean isObsolete()
+    {
+        this.lock.readLock().lock();
+        try {
+            return this.size >= MIN_OBSOLETE_SIZE && this.unused * 2 > this.size;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of entries in the dictionary
+     */
+    public int getSize()
+    {
+        this.lock.readLock().lock();
+        try {
+            return this.size;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of entries which are not referenced by any group anymore
+     */
+    public int getUnused()
+    {
+        this.lock.readLock().lock();
+        try {
+            return this.unused;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the approximate number of bytes used by the dictionary
+     */
+    public long getMemorySize()
+    {
+        this.lock.readLock().lock();
+        try {
+            return this.textSize + (long) this.size * ARRAY_OVERHEAD + 3L * ARRAY_OVERHEAD
+                + (8L + 8L + 4L) * this.dns.length + this.dnIndex.getMemorySize() + this.uidIndex.getMemorySize()
+                + this.rdnIndex.getMemorySize();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+}
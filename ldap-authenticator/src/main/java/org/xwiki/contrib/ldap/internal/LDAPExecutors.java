@@ -0,0 +1,174 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * The threads used by the LDAP authenticator for its background tasks.
+ *
+ * @version $Id$
+ * @since 9.16.3
+ */
+@Component(roles = LDAPExecutors.class)
+@Singleton
+public class LDAPExecutors implements Disposable
+{
+    @Inject
+    private Execution execution;
+
+    private ScheduledExecutorService scheduler;
+
+    private ExecutorService executor;
+
+    private ThreadPoolExecutor connectExecutor;
+
+    private final Map<Integer, ForkJoinPool> forkJoinPools = new HashMap<>();
+
+    /**
+     * @return the executor in charge of the periodic maintenance tasks (should only be used for short tasks)
+     */
+    public synchronized ScheduledExecutorService getScheduler()
+    {
+        if (this.scheduler == null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new BasicThreadFactory.Builder().namingPattern("LDAP maintenance").daemon(true).build());
+        }
+
+        return this.scheduler;
+    }
+
+    /**
+     * @return the executor in charge of the background tasks which might wait for an LDAP or DNS server
+     */
+    public synchronized ExecutorService getExecutor()
+    {
+        if (this.executor == null) {
+            this.executor = Executors.newCachedThreadPool(
+                new BasicThreadFactory.Builder().namingPattern("LDAP background %d").daemon(true).build());
+        }
+
+        return this.executor;
+    }
+
+    /**
+     * The number of threads is bounded so that an unreachable server cannot accumulate blocked threads: the tasks
+     * submitted when all the threads are busy are rejected with a
+     * {@link java.util.concurrent.RejectedExecutionException}.
+     * 
+     * @param maxThreads the maximum number of connections attempts to run at the same time (at least 1)
+     * @return the executor in charge of connecting to the LDAP servers
+     */
+    public synchronized ExecutorService getConnectExecutor(int maxThreads)
+    {
+        int max = Math.max(1, maxThreads);
+
+        if (this.connectExecutor == null) {
+            this.connectExecutor = new ThreadPoolExecutor(0, max, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                new BasicThreadFactory.Builder().namingPattern("LDAP connect %d").daemon(true).build());
+        } else if (this.connectExecutor.getMaximumPoolSize() != max) {
+            this.connectExecutor.setMaximumPoolSize(max);
+        }
+
+        return this.connectExecutor;
+    }
+
+    /**
+     * One pool is kept for each requested parallelism so that a configuration change does not shut down a pool which
+     * might still be used by another caller (the threads of a pool which is not used anymore are stopped after a while
+     * anyway).
+     * 
+     * @param parallelism the maximum number of tasks to run at the same time
+     * @return the pool in charge of the divide and conquer tasks (like resolving the subgroups of a group)
+     */
+    public synchronized ForkJoinPool getForkJoinPool(int parallelism)
+    {
+        return this.forkJoinPools.computeIfAbsent(parallelism, ForkJoinPool::new);
+    }
+
+    /**
+     * Wrap a task so that it can be executed in a background thread with a copy of the current XWiki context.
+     * 
+     * @param <T> the type of the result of the task
+     * @param xcontext the XWiki context to copy
+     * @param task the task to execute
+     * @return the task to execute in a background thread
+     */
+    public <T> Supplier<T> withContext(XWikiContext xcontext, Function<XWikiContext, T> task)
+    {
+        XWikiContext backgroundContext = xcontext.clone();
+
+        return () -> {
+            ExecutionContext econtext = new ExecutionContext();
+            backgroundContext.declareInExecutionContext(econtext);
+
+            this.execution.setContext(econtext);
+            try {
+                return task.apply(backgroundContext);
+            } finally {
+                this.execution.removeContext();
+            }
+        };
+    }
+
+    @Override
+    public synchronized void dispose() throws ComponentLifecycleException
+    {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+            this.executor = null;
+        }
+
+        if (this.connectExecutor != null) {
+            this.connectExecutor.shutdownNow();
+            this.connectExecutor = null;
+        }
+
+        this.forkJoinPools.values().forEach(ForkJoinPool::shutdownNow);
+        this.forkJoinPools.clear();
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.novell.ldap.LDAPDN;
+
+/**
+ * The immutable members of an LDAP group (maps the lower case DN of each member to its lower case uid) indexed to
+ * quickly find a member from its DN or its uid.
+ * <p>
+ * The DNs and uids are stored in a {@link LDAPDNDictionary} shared with the other groups so that the group itself
+ * only contains a sorted array of identifiers. When serialized (for example by a replicated cache) the group is
+ * sent as plain DNs and uids and stored in its own dictionary on the other side.
+ * 
+ * @version $Id$
+ * @since 9.16.3
+ */
+public class LDAPGroupMembers extends AbstractMap<String, String> implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final LDAPDNDictionary dictionary;
+
+    private final int[] ids;
+
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private final Set<String> groups;
+
+    private final long refreshDate;
+
+    private final long expirationDate;
+
+    /**
+     * The serialized form of {@link LDAPGroupMembers}, independent from the dictionary.
+     */
+    private static final class SerializedGroupMembers implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final HashMap<String, String> members;
+
+        private final HashSet<String> groups;
+
+        private final long refreshDate;
+
+        private final long expirationDate;
+
+        SerializedGroupMembers(LDAPGroupMembers groupMembers)
+        {
+            this.members = new HashMap<>(groupMembers);
+            this.groups = new HashSet<>(groupMembers.groups);
+            this.refreshDate = groupMembers.refreshDate;
+            this.expirationDate = groupMembers.expirationDate;
+        }
+
+        private Object readResolve()
+        {
+            return new LDAPGroupMembers(new LDAPDNDictionary(), this.members, this.groups, this.refreshDate,
+                this.expirationDate);
+        }
+    }
+
+    /**
+     * @param members maps the lower case DN of each member to its lower case uid
+     */
+    public LDAPGroupMembers(Map<String, String> members)
+    {
+        this(new LDAPDNDictionary(), members);
+    }
+
+    /**
+     * @param dictionary the dictionary where to store the DNs and uids
+     * @param members maps the lower case DN of each member to its lower case uid
+     */
+    public LDAPGroupMembers(LDAPDNDictionary dictionary, Map<String, String> members)
+    {
+        this(dictionary, members, Collections.emptySet(), Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param dictionary the dictionary where to store the DNs and uids
+     * @param members maps the lower case DN of each member to its lower case uid
+     * @param groups the normalized DNs of the group and all its subgroups
+     * @param refreshDate the date (in milliseconds) after which the members should be reloaded in the background
+     * @param expirationDate the date (in milliseconds) after which the members should not be used anymore
+     */
+    public LDAPGroupMembers(LDAPDNDictionary dictionary, Map<String, String> members, Set<String> groups,
+        long refreshDate, long expirationDate)
+    {
+        this.dictionary = dictionary;
+        this.ids = dictionary.add(members);
+        this.groups = Collections.unmodifiableSet(groups);
+        this.refreshDate = refreshDate;
+        this.expirationDate = expirationDate;
+    }
+
+    /**
+     * @param dn the DN
+     * @return the normalized lower case version of the DN
+     */
+    public static String normalizeDN(String dn)
+    {
+        try {
+            return LDAPDN.normalize(dn).toLowerCase();
+        } catch (IllegalArgumentException e) {
+            return dn.toLowerCase();
+        }
+    }
+
+    /**
+     * @return the dictionary where the DNs and uids are stored
+     */
+    public LDAPDNDictionary getDictionary()
+    {
+        return this.dictionary;
+    }
+
+    /**
+     * @return the normalized DNs of the group and all its subgroups
+     */
+    public Set<String> getGroups()
+    {
+        return this.groups;
+    }
+
+    /**
+     * @return the date (in milliseconds) after which the members should be reloaded in the background
+     */
+    public long getRefreshDate()
+    {
+        return this.refreshDate;
+    }
+
+    /**
+     * @return the date (in milliseconds) after which the members should not be used anymore
+     */
+    public long getExpirationDate()
+    {
+        return this.expirationDate;
+    }
+
+    /**
+     * @return the approximate number of bytes used by the group, not including the dictionary
+     */
+    public long getMemorySize()
+    {
+        return 16L + 4L * this.ids.length;
+    }
+
+    /**
+     * Indicate that this group is not cached anymore.
+     */
+    public void release()
+    {
+        if (this.released.compareAndSet(false, true)) {
+            this.dictionary.release(this.ids);
+        }
+    }
+
+    private Object writeReplace()
+    {
+        return new SerializedGroupMembers(this);
+    }
+
+    private int getId(Object key)
+    {
+        if (key instanceof String) {
+            int id = this.dictionary.getId((String) key);
+            if (id != -1 && Arrays.binarySearch(this.ids, id) >= 0) {
+                return id;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @param uidAttributeName the name of the LDAP attribute containing the uid of the users
+     * @param uid the uid of the user
+     * @return the DN of the member with the passed uid (either as attribute or as first RDN), null if none could be
+     *         found
+     */
+    public String findUid(String uidAttributeName, String uid)
+    {
+        String lowerUid = uid.toLowerCase();
+
+        int id = this.dictionary.findUid(lowerUid, this.ids);
+        if (id == -1) {
+            id = this.dictionary.findRDN(uidAttributeName.toLowerCase() + '=' + lowerUid, this.ids);
+        }
+
+        return id != -1 ? this.dictionary.getDN(id) : null;
+    }
+
+    /**
+     * @param dn the DN of the member
+     * @return the DN as stored in the group, null if it's not a member of the group
+     */
+    public String findDN(String dn)
+    {
+        String lowerDN = dn.toLowerCase();
+
+        if (getId(lowerDN) != -1) {
+            return lowerDN;
+        }
+
+        String normalizedDN = normalizeDN(dn);
+
+        return getId(normalizedDN) != -1 ? normalizedDN : null;
+    }
+
+    @Override
+    public String get(Object key)
+    {
+        int id = getId(key);
+
+        return id != -1 ? this.dictionary.getUid(id) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return getId(key) != -1;
+    }
+
+    @Override
+    public int size()
+    {
+        return this.ids.length;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet()
+    {
+        return new AbstractSet<Entry<String, String>>()
+        {
+            @Override
+            public Iterator<Entry<String, String>> iterator()
+            {
+                return new Iterator<Entry<String, String>>()
+                {
+                    private int index;
+
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return this.index < ids.length;
+                    }
+
+                    @Override
+                    public Entry<String, String> next()
+                    {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+
+                        int id = ids[this.index++];
+
+                        return new SimpleImmutableEntry<>(dictionary.getDN(id), dictionary.getUid(id));
+                    }
+                };
+            }
+
+            @Override
+            public int size()
+            {
+                return ids.length;
+            }
+        };
+    }
+}
@@ -19,21 +19,48 @@
  */
 package org.xwiki.contrib.ldap.internal;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 import javax.inject.Inject;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheManager;
 import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLifecycleException;
 import org.xwiki.component.phase.Disposable;
 import org.xwiki.contrib.ldap.XWikiLDAPConfig;
 import org.xwiki.contrib.ldap.XWikiLDAPUtils;
+import org.xwiki.environment.Environment;
+import org.xwiki.observation.ObservationManager;
 
 /**
  * The cache of LDAP groups members.
@@ -46,18 +73,174 @@ import org.xwiki.contrib.ldap.XWikiLDAPUtils;
 public class LDAPGroupsCache implements Disposable
 {
     /**
-     * The name of the LDAP groups cache.
+     * The folder (in the permanent directory) containing the snapshots of the groups caches.
      */
-    private static final String CACHE_NAME_GROUPS = "ldap.groups";
+    private static final String SNAPSHOT_FOLDER = "cache/ldap/groups";
+
+    /**
+     * The name of the cache of the users and groups which could not be found.
+     */
+    private static final String CACHE_NAME_NEGATIVE = "ldap.notfound";
 
     @Inject
     private CacheManager cacheManager;
 
+    @Inject
+    private LDAPExecutors executors;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private Provider<ObservationManager> observationManagerProvider;
+
+    @Inject
+    private Logger logger;
+
     /**
      * Contains caches for each LDAP host:port.
      */
     private Map<String, Map<String, Cache<Map<String, String>>>> cachePool = new HashMap<>();
 
+    /**
+     * Contains the users membership caches for each LDAP host:port.
+     */
+    private Map<String, Cache<LDAPMembership>> membershipCaches = new HashMap<>();
+
+    /**
+     * Contains the users and groups which could not be found for each LDAP host:port.
+     */
+    private Map<String, Cache<Boolean>> negativeCaches = new HashMap<>();
+
+    /**
+     * Contains the dictionary of group members DNs for each LDAP host:port.
+     */
+    private Map<String, LDAPDNDictionary> dictionaries = new HashMap<>();
+
+    /**
+     * Contains the statistics of the groups caches for each LDAP host:port.
+     */
+    private Map<String, GroupsStatistics> statistics = new HashMap<>();
+
+    /**
+     * Contains the state of the tracking of the groups changes for each LDAP host:port.
+     */
+    private Map<String, ChangeTracking> changeTrackings = new HashMap<>();
+
+    /**
+     * Contains the snapshot of the groups caches for each LDAP host:port for which it's enabled.
+     */
+    private Map<String, LDAPGroupsSnapshot> snapshots = new HashMap<>();
+
+    /**
+     * Contains the task regularly saving the snapshot of the groups caches for each LDAP host:port.
+     */
+    private Map<String, Future<?>> snapshotTasks = new HashMap<>();
+
+    /**
+     * The groups currently being loaded.
+     */
+    private final Map<String, CompletableFuture<Map<String, String>>> loading = new ConcurrentHashMap<>();
+
+    /**
+     * Incremented each time the caches are cleared, to not put back in the caches groups loaded before.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * The loading of a group started in the background to refresh cached members.
+     */
+    private static final class RefreshFuture extends CompletableFuture<Map<String, String>>
+    {
+    }
+
+    /**
+     * Keep track of the groups stored in the caches of a LDAP host:port.
+     */
+    private static final class GroupsStatistics implements CacheEntryListener<Map<String, String>>
+    {
+        private final AtomicLong groups = new AtomicLong();
+
+        private final AtomicLong members = new AtomicLong();
+
+        private final AtomicLong memorySize = new AtomicLong();
+
+        private final AtomicLong notFound = new AtomicLong();
+
+        private final AtomicLong notFoundHits = new AtomicLong();
+
+        /**
+         * Maps the normalized DN of each group (and subgroup) to the keys of the cached groups containing it.
+         */
+        private final Map<String, Set<String>> keys = new ConcurrentHashMap<>();
+
+        void add(String key, Map<String, String> group)
+        {
+            if (group instanceof LDAPGroupMembers) {
+                this.groups.incrementAndGet();
+                this.members.addAndGet(group.size());
+                this.memorySize.addAndGet(((LDAPGroupMembers) group).getMemorySize());
+
+                for (String groupDN : ((LDAPGroupMembers) group).getGroups()) {
+                    this.keys.computeIfAbsent(groupDN, k -> ConcurrentHashMap.newKeySet()).add(key);
+                }
+            }
+        }
+
+        void remove(String key, Map<String, String> group)
+        {
+            if (group instanceof LDAPGroupMembers) {
+                this.groups.decrementAndGet();
+                this.members.addAndGet(-group.size());
+                this.memorySize.addAndGet(-((LDAPGroupMembers) group).getMemorySize());
+
+                for (String groupDN : ((LDAPGroupMembers) group).getGroups()) {
+                    this.keys.computeIfPresent(groupDN, (k, groupKeys) -> {
+                        groupKeys.remove(key);
+
+                        return groupKeys.isEmpty() ? null : groupKeys;
+                    });
+                }
+
+                // Let the dictionary know which entries are not used anymore
+                ((LDAPGroupMembers) group).release();
+            }
+        }
+
+        @Override
+        public void cacheEntryAdded(CacheEntryEvent<Map<String, String>> event)
+        {
+            add(event.getEntry().getKey(), event.getEntry().getValue());
+        }
+
+        @Override
+        public void cacheEntryRemoved(CacheEntryEvent<Map<String, String>> event)
+        {
+            remove(event.getEntry().getKey(), event.getEntry().getValue());
+        }
+
+        @Override
+        public void cacheEntryModified(CacheEntryEvent<Map<String, String>> event)
+        {
+            // The replaced group is removed by LDAPGroupsCache#set
+            add(event.getEntry().getKey(), event.getEntry().getValue());
+        }
+    }
+
+    /**
+     * The tracking of the groups changes of a LDAP host:port.
+     */
+    private static final class ChangeTracking
+    {
+        private Future<?> future;
+
+        private Runnable task;
+
+        private final AtomicBoolean running = new AtomicBoolean();
+
+        private volatile LDAPGroupsWatermark watermark;
+    }
+
     /**
      * Get the cache with the provided name for a particular LDAP server.
      * 
@@ -69,8 +252,7 @@ public class LDAPGroupsCache implements Disposable
     {
         Cache<Map<String, String>> cache;
 
-        String cacheKey = utils.getUidAttributeName() + "." + utils.getConnection().getConnection().getHost() + ":"
-            + utils.getConnection().getConnection().getPort();
+        String cacheKey = getCacheKey(utils);
 
         synchronized (cachePool) {
             Map<String, Cache<Map<String, String>>> cacheMap;
@@ -88,13 +270,664 @@ public class LDAPGroupsCache implements Disposable
 
             if (cache == null) {
                 cache = this.cacheManager.createNewCache(cacheConfiguration);
+                cache.addCacheEntryListener(this.statistics.computeIfAbsent(cacheKey, k -> new GroupsStatistics()));
                 cacheMap.put(cacheConfiguration.getConfigurationId(), cache);
+
+                if (utils.getConfiguration().isCacheSnapshot()) {
+                    loadSnapshot(cacheKey, cache, utils.getConfiguration());
+                }
             }
         }
 
         return cache;
     }
 
+    private void loadSnapshot(String cacheKey, Cache<Map<String, String>> cache, XWikiLDAPConfig configuration)
+    {
+        LDAPGroupsSnapshot snapshot = new LDAPGroupsSnapshot(new File(this.environment.getPermanentDirectory(),
+            SNAPSHOT_FOLDER + '/' + cacheKey.replaceAll("[^\\w.-]", "_") + ".snapshot"));
+        this.snapshots.put(cacheKey, snapshot);
+
+        try {
+            Map<String, LDAPGroupMembers> groups = snapshot.load(cacheKey, getDictionary(cacheKey));
+
+            for (Map.Entry<String, LDAPGroupMembers> entry : groups.entrySet()) {
+                cache.set(entry.getKey(), entry.getValue());
+            }
+
+            this.logger.debug("Loaded {} LDAP groups from snapshot [{}]", groups.size(), snapshot.getFile());
+        } catch (IOException e) {
+            this.logger.warn("Failed to load the LDAP groups snapshot [{}]: {}", snapshot.getFile(),
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+
+        int interval = configuration.getCacheSnapshotInterval();
+        if (interval > 0) {
+            this.snapshotTasks.put(cacheKey, this.executors.getScheduler()
+                .scheduleWithFixedDelay(() -> saveSnapshot(cacheKey), interval, interval, TimeUnit.SECONDS));
+        }
+    }
+
+    private void saveSnapshot(String cacheKey)
+    {
+        LDAPGroupsSnapshot snapshot;
+        Map<String, LDAPGroupMembers> groups = new LinkedHashMap<>();
+
+        synchronized (this.cachePool) {
+            snapshot = this.snapshots.get(cacheKey);
+            Map<String, Cache<Map<String, String>>> caches = this.cachePool.get(cacheKey);
+            GroupsStatistics groupsStatistics = this.statistics.get(cacheKey);
+
+            if (snapshot == null || caches == null || groupsStatistics == null) {
+                return;
+            }
+
+            Set<String> keys = new HashSet<>();
+            for (Set<String> groupKeys : groupsStatistics.keys.values()) {
+                keys.addAll(groupKeys);
+            }
+
+            long now = System.currentTimeMillis();
+            for (Cache<Map<String, String>> cache : caches.values()) {
+                for (String key : keys) {
+                    Map<String, String> members = cache.get(key);
+
+                    if (members instanceof LDAPGroupMembers
+                        && now < ((LDAPGroupMembers) members).getExpirationDate()) {
+                        groups.put(key, (LDAPGroupMembers) members);
+                    }
+                }
+            }
+        }
+
+        synchronized (snapshot) {
+            try {
+                snapshot.save(cacheKey, groups);
+
+                this.logger.debug("Saved {} LDAP groups in snapshot [{}]", groups.size(), snapshot.getFile());
+            } catch (IOException e) {
+                this.logger.warn("Failed to save the LDAP groups snapshot [{}]: {}", snapshot.getFile(),
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+    }
+
+    /**
+     * Get the members of a group from the cache or load them. Only one thread loads a given group at a time, the
+     * other threads asking for the same group wait for its result while the other groups are not blocked.
+     * 
+     * @param utils the LDAP tools
+     * @param groupDN the group
+     * @param loader called to load the members of the group when they are not cached, can return null
+     * @return the members of the group, null if it's not a group
+     * @throws CacheException error when creating the cache.
+     * @since 9.16.3
+     */
+    public Map<String, String> getGroupMembers(XWikiLDAPUtils utils, String groupDN,
+        Supplier<Map<String, String>> loader) throws CacheException
+    {
+        return getGroupMembers(utils, groupDN, loader, null);
+    }
+
+    /**
+     * Get the members of a group from the cache or load them. Only one thread loads a given group at a time, the
+     * other threads asking for the same group wait for its result while the other groups are not blocked.
+     * <p>
+     * Groups cached for more than {@link XWikiLDAPConfig#getCacheRefresh()} are still returned but reloaded in the
+     * background, until {@link XWikiLDAPConfig#getCacheExpiration()}.
+     * 
+     * @param utils the LDAP tools
+     * @param groupDN the group
+     * @param loader called to load the members of the group when they are not cached, can return null
+     * @param refresher called in a background thread to reload the members of the group, null if not supported
+     * @return the members of the group, null if it's not a group
+     * @throws CacheException error when creating the cache.
+     * @since 9.16.3
+     */
+    public Map<String, String> getGroupMembers(XWikiLDAPUtils utils, String groupDN,
+        Supplier<Map<String, String>> loader, Supplier<Map<String, String>> refresher) throws CacheException
+    {
+        long currentGeneration = this.generation.get();
+        Cache<Map<String, String>> cache = getGroupCache(utils);
+        String cacheKey = getCacheKey(utils);
+
+        Map<String, String> members = cache.get(groupDN);
+        if (members instanceof LDAPGroupMembers) {
+            LDAPGroupMembers groupMembers = (LDAPGroupMembers) members;
+            long now = System.currentTimeMillis();
+
+            if (now >= groupMembers.getExpirationDate()) {
+                // Too old to be used
+                members = null;
+            } else if (refresher != null && now >= groupMembers.getRefreshDate()) {
+                refresh(currentGeneration, cacheKey, cache, groupDN, refresher);
+            }
+        }
+        if (members != null) {
+            return members;
+        }
+
+        String key = cacheKey + '/' + groupDN;
+        CompletableFuture<Map<String, String>> future = new CompletableFuture<>();
+        CompletableFuture<Map<String, String>> currentFuture = this.loading.putIfAbsent(key, future);
+
+        if (currentFuture instanceof RefreshFuture) {
+            // A refresh which failed or found nothing (no connection, etc.) does not mean it's not a group anymore
+            Map<String, String> refreshedMembers = joinRefresh(currentFuture);
+            if (refreshedMembers != null) {
+                return refreshedMembers;
+            }
+
+            members = loader.get();
+            if (members != null) {
+                set(currentGeneration, cacheKey, cache, groupDN, members);
+            }
+
+            return members;
+        } else if (currentFuture != null) {
+            // Another thread is already loading this group
+            try {
+                return currentFuture.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+
+                throw e;
+            }
+        }
+
+        try {
+            // The group might have been loaded since the first check
+            Map<String, String> cachedMembers = cache.get(groupDN);
+            if (cachedMembers != null && (!(cachedMembers instanceof LDAPGroupMembers)
+                || System.currentTimeMillis() < ((LDAPGroupMembers) cachedMembers).getExpirationDate())) {
+                members = cachedMembers;
+            } else {
+                members = loader.get();
+
+                if (members != null) {
+                    set(currentGeneration, cacheKey, cache, groupDN, members);
+                }
+            }
+
+            future.complete(members);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+
+            throw e;
+        } finally {
+            this.loading.remove(key, future);
+        }
+
+        return members;
+    }
+
+    private static Map<String, String> joinRefresh(CompletableFuture<Map<String, String>> future)
+    {
+        try {
+            return future.join();
+        } catch (CompletionException | CancellationException e) {
+            return null;
+        }
+    }
+
+    private void refresh(long currentGeneration, String cacheKey, Cache<Map<String, String>> cache, String groupDN,
+        Supplier<Map<String, String>> refresher)
+    {
+        String key = cacheKey + '/' + groupDN;
+        CompletableFuture<Map<String, String>> future = new RefreshFuture();
+
+        // Skip it if the group is already being loaded
+        if (this.loading.putIfAbsent(key, future) == null) {
+            this.logger.debug("Refreshing LDAP group [{}] in the background", groupDN);
+
+            try {
+                this.executors.getExecutor().execute(() -> {
+                    try {
+                        Map<String, String> members = refresher.get();
+
+                        if (members != null) {
+                            set(currentGeneration, cacheKey, cache, groupDN, members);
+                        }
+
+                        future.complete(members);
+                    } catch (Exception e) {
+                        // Keep using the cached members until they expire
+                        this.logger.warn("Failed to refresh LDAP group [{}]: {}", groupDN,
+                            ExceptionUtils.getRootCauseMessage(e));
+
+                        future.completeExceptionally(e);
+                    } finally {
+                        this.loading.remove(key, future);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Don't let the other threads wait for a refresh which will never happen
+                this.loading.remove(key, future);
+                future.completeExceptionally(e);
+
+                this.logger.warn("Failed to schedule the refresh of LDAP group [{}]: {}", groupDN,
+                    ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+    }
+
+    /**
+     * Cache the members of a group unless the caches were cleared since they started to be loaded.
+     */
+    private void set(long loadGeneration, String cacheKey, Cache<Map<String, String>> cache, String groupDN,
+        Map<String, String> members)
+    {
+        synchronized (this.cachePool) {
+            if (this.generation.get() != loadGeneration) {
+                this.logger.debug("Skipping the LDAP group [{}] loaded before the caches were reset", groupDN);
+
+                return;
+            }
+
+            set(cacheKey, cache, groupDN, members);
+        }
+    }
+
+    private void set(String cacheKey, Cache<Map<String, String>> cache, String groupDN, Map<String, String> members)
+    {
+        Map<String, String> previousMembers = cache.get(groupDN);
+
+        if (previousMembers != null) {
+            GroupsStatistics groupsStatistics;
+            synchronized (this.cachePool) {
+                groupsStatistics = this.statistics.get(cacheKey);
+            }
+            if (groupsStatistics != null) {
+                groupsStatistics.remove(groupDN, previousMembers);
+            }
+        }
+
+        cache.set(groupDN, members);
+    }
+
+    /**
+     * Replace the cached members of a group.
+     * 
+     * @param utils the LDAP tools
+     * @param groupDN the group
+     * @param members the members of the group
+     * @return the previous members of the group, null if none were cached
+     * @throws CacheException error when creating the cache.
+     * @since 9.16.3
+     */
+    public Map<String, String> setGroupMembers(XWikiLDAPUtils utils, String groupDN, Map<String, String> members)
+        throws CacheException
+    {
+        Cache<Map<String, String>> cache = getGroupCache(utils);
+        Map<String, String> previousMembers = cache.get(groupDN);
+
+        set(getCacheKey(utils), cache, groupDN, members);
+
+        return previousMembers;
+    }
+
+    /**
+     * Forget the cached groups of the passed members.
+     * 
+     * @param utils the LDAP tools
+     * @param memberDNs the normalized DNs of the members
+     * @since 9.16.3
+     */
+    public void removeMemberships(XWikiLDAPUtils utils, Collection<String> memberDNs)
+    {
+        Cache<LDAPMembership> cache;
+        synchronized (this.cachePool) {
+            cache = this.membershipCaches.get(getCacheKey(utils));
+        }
+
+        if (cache != null) {
+            for (String memberDN : memberDNs) {
+                cache.remove(memberDN);
+            }
+        }
+    }
+
+    /**
+     * Forget that the passed users or groups could not be found.
+     * 
+     * @param utils the LDAP tools
+     * @param keys the identifiers of the users or groups
+     * @since 9.16.3
+     */
+    public void removeNotFound(XWikiLDAPUtils utils, Collection<String> keys)
+    {
+        Cache<Boolean> cache;
+        synchronized (this.cachePool) {
+            cache = this.negativeCaches.get(getCacheKey(utils));
+        }
+
+        if (cache != null) {
+            for (String key : keys) {
+                cache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * @param utils the LDAP tools
+     * @param groupDNs the normalized DNs of groups
+     * @return the keys of the cached groups which are or contain (as subgroup) one of the passed groups
+     * @since 9.16.3
+     */
+    public Set<String> getGroupKeys(XWikiLDAPUtils utils, Collection<String> groupDNs)
+    {
+        GroupsStatistics groupsStatistics;
+        synchronized (this.cachePool) {
+            groupsStatistics = this.statistics.get(getCacheKey(utils));
+        }
+
+        Set<String> keys = new HashSet<>();
+        if (groupsStatistics != null) {
+            for (String groupDN : groupDNs) {
+                keys.addAll(groupsStatistics.keys.getOrDefault(groupDN, Collections.emptySet()));
+            }
+        }
+
+        return keys;
+    }
+
+    /**
+     * Periodically execute the task in charge of finding the groups which changed in the LDAP server, if not already
+     * done.
+     * 
+     * @param utils the LDAP tools
+     * @param interval the time in seconds between two executions of the task
+     * @param taskFactory called to create the task if not already tracking the changes of this LDAP server
+     * @since 9.16.3
+     */
+    public void trackChanges(XWikiLDAPUtils utils, int interval, Supplier<Runnable> taskFactory)
+    {
+        String cacheKey = getCacheKey(utils);
+
+        synchronized (this.cachePool) {
+            if (!this.changeTrackings.containsKey(cacheKey)) {
+                ChangeTracking tracking = new ChangeTracking();
+                Runnable task = taskFactory.get();
+                ExecutorService executor = this.executors.getExecutor();
+
+                tracking.future = this.executors.getScheduler().scheduleWithFixedDelay(() -> {
+                    // Skip it if the previous execution is not finished yet
+                    if (tracking.running.compareAndSet(false, true)) {
+                        executor.execute(() -> {
+                            try {
+                                task.run();
+                            } catch (Exception e) {
+                                this.logger.warn("Failed to refresh the changed LDAP groups: {}",
+                                    ExceptionUtils.getRootCauseMessage(e));
+                            } finally {
+                                tracking.running.set(false);
+                            }
+                        });
+                    }
+                }, interval, interval, TimeUnit.SECONDS);
+
+                this.changeTrackings.put(cacheKey, tracking);
+            }
+        }
+    }
+
+    /**
+     * Start the long running task in charge of listening to the changes of the LDAP server, if not already done.
+     * 
+     * @param utils the LDAP tools
+     * @param taskFactory called to create the task if not already tracking the changes of this LDAP server, the task
+     *            should stop when interrupted or, if it's {@link Closeable}, closed
+     * @since 9.16.3
+     */
+    public void listenChanges(XWikiLDAPUtils utils, Supplier<Runnable> taskFactory)
+    {
+        String cacheKey = getCacheKey(utils);
+
+        synchronized (this.cachePool) {
+            if (!this.changeTrackings.containsKey(cacheKey)) {
+                ChangeTracking tracking = new ChangeTracking();
+                tracking.task = taskFactory.get();
+                tracking.future = this.executors.getExecutor().submit(tracking.task);
+
+                this.changeTrackings.put(cacheKey, tracking);
+            }
+        }
+    }
+
+    /**
+     * @param utils the LDAP tools
+     * @return the point up to which the changes of the groups have been taken into account, null if unknown
+     * @since 9.16.3
+     */
+    public LDAPGroupsWatermark getWatermark(XWikiLDAPUtils utils)
+    {
+        ChangeTracking tracking;
+        synchronized (this.cachePool) {
+            tracking = this.changeTrackings.get(getCacheKey(utils));
+        }
+
+        return tracking != null ? tracking.watermark : null;
+    }
+
+    /**
+     * @param utils the LDAP tools
+     * @param watermark the point up to which the changes of the groups have been taken into account
+     * @since 9.16.3
+     */
+    public void setWatermark(XWikiLDAPUtils utils, LDAPGroupsWatermark watermark)
+    {
+        synchronized (this.cachePool) {
+            ChangeTracking tracking = this.changeTrackings.get(getCacheKey(utils));
+
+            if (tracking != null) {
+                tracking.watermark = watermark;
+            }
+        }
+    }
+
+    /**
+     * Get the cache of the groups each user is a member of for a particular LDAP server.
+     * 
+     * @param utils the LDAP tools
+     * @return the cache, null if it's disabled
+     * @throws CacheException error when creating the cache.
+     * @since 9.16.3
+     */
+    public Cache<LDAPMembership> getMembershipCache(XWikiLDAPUtils utils) throws CacheException
+    {
+        int expiration = utils.getConfiguration().getMembershipCacheExpiration();
+        if (expiration <= 0) {
+            return null;
+        }
+
+        String cacheKey = getCacheKey(utils);
+
+        synchronized (this.cachePool) {
+            Cache<LDAPMembership> cache = this.membershipCaches.get(cacheKey);
+
+            if (cache == null) {
+                LRUCacheConfiguration cacheConfiguration = new LRUCacheConfiguration(
+                    utils.getConfiguration().getMembershipCacheConfigurationId() + '.' + cacheKey);
+                cacheConfiguration.getLRUEvictionConfiguration().setLifespan(expiration);
+
+                cache = this.cacheManager.createNewCache(cacheConfiguration);
+                this.membershipCaches.put(cacheKey, cache);
+            }
+
+            return cache;
+        }
+    }
+
+    /**
+     * @param utils the LDAP tools
+     * @param key the identifier of the user or group
+     * @return true if the user or group was recently searched and could not be found
+     * @throws CacheException error when creating the cache.
+     * @since 9.16.3
+     */
+    public boolean isNotFound(XWikiLDAPUtils utils, String key) throws CacheException
+    {
+        Cache<Boolean> cache = getNegativeCache(utils);
+
+        if (cache != null && cache.get(key) != null) {
+            getGroupsStatistics(getCacheKey(utils)).notFoundHits.incrementAndGet();
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Remember that a user or group could not be found, to not search it again for
+     * {@link XWikiLDAPConfig#getNegativeCacheExpiration()}.
+     * 
+     * @param utils the LDAP tools
+     * @param key the identifier of the user or group
+     * @throws CacheException error when creating the cache.
+     * @since 9.16.3
+     */
+    public void setNotFound(XWikiLDAPUtils utils, String key) throws CacheException
+    {
+        Cache<Boolean> cache = getNegativeCache(utils);
+
+        if (cache != null) {
+            cache.set(key, Boolean.TRUE);
+
+            getGroupsStatistics(getCacheKey(utils)).notFound.incrementAndGet();
+        }
+    }
+
+    private Cache<Boolean> getNegativeCache(XWikiLDAPUtils utils) throws CacheException
+    {
+        int expiration = utils.getConfiguration().getNegativeCacheExpiration();
+        if (expiration <= 0) {
+            return null;
+        }
+
+        String cacheKey = getCacheKey(utils);
+
+        synchronized (this.cachePool) {
+            Cache<Boolean> cache = this.negativeCaches.get(cacheKey);
+
+            if (cache == null) {
+                LRUCacheConfiguration cacheConfiguration =
+                    new LRUCacheConfiguration(CACHE_NAME_NEGATIVE + '.' + cacheKey,
+                        utils.getConfiguration().getNegativeCacheSize());
+                cacheConfiguration.getLRUEvictionConfiguration().setLifespan(expiration);
+
+                cache = this.cacheManager.createNewCache(cacheConfiguration);
+                this.negativeCaches.put(cacheKey, cache);
+            }
+
+            return cache;
+        }
+    }
+
+    private GroupsStatistics getGroupsStatistics(String cacheKey)
+    {
+        synchronized (this.cachePool) {
+            return this.statistics.computeIfAbsent(cacheKey, k -> new GroupsStatistics());
+        }
+    }
+
+    /**
+     * Create a compact representation of the members of a group, sharing the DNs with the other groups of the same
+     * LDAP server.
+     * 
+     * @param utils the LDAP tools
+     * @param members maps the lower case DN of each member to its lower case uid
+     * @param subgroups the DNs of the group and all its subgroups
+     * @return the group members to put in the cache
+     * @since 9.16.3
+     */
+    public LDAPGroupMembers createGroupMembers(XWikiLDAPUtils utils, Map<String, String> members,
+        Collection<String> subgroups)
+    {
+        LDAPDNDictionary dictionary = getDictionary(getCacheKey(utils));
+
+        XWikiLDAPConfig configuration = utils.getConfiguration();
+        long now = System.currentTimeMillis();
+
+        int refresh = configuration.getCacheRefresh();
+        long refreshDate = refresh > 0 ? now + jitter(refresh, configuration) : Long.MAX_VALUE;
+        int expiration = configuration.getCacheExpiration();
+        long expirationDate = expiration > 0 ? now + jitter(expiration, configuration) : Long.MAX_VALUE;
+
+        Set<String> groups = new HashSet<>(subgroups.size());
+        for (String subgroup : subgroups) {
+            groups.add(LDAPGroupMembers.normalizeDN(subgroup));
+        }
+
+        return new LDAPGroupMembers(dictionary, members, groups, refreshDate, expirationDate);
+    }
+
+    private LDAPDNDictionary getDictionary(String cacheKey)
+    {
+        synchronized (this.cachePool) {
+            LDAPDNDictionary dictionary = this.dictionaries.get(cacheKey);
+
+            // Start a new dictionary when most of the entries are not used anymore (the previous one will be garbage
+            // collected with the last group using it)
+            if (dictionary == null || dictionary.isObsolete()) {
+                dictionary = new LDAPDNDictionary();
+                this.dictionaries.put(cacheKey, dictionary);
+            }
+
+            return dictionary;
+        }
+    }
+
+    /**
+     * @return the passed time (in seconds) randomly reduced by up to the configured jitter, in milliseconds
+     */
+    private long jitter(int seconds, XWikiLDAPConfig configuration)
+    {
+        double jitter = Math.min(Math.max(configuration.getCacheJitter(), 0), 100) / 100D;
+
+        return (long) (seconds * 1000L * (1 - ThreadLocalRandom.current().nextDouble() * jitter));
+    }
+
+    /**
+     * @return the number of groups and members stored in the groups cache and the approximate memory they use (in
+     *         bytes), the number of users and groups remembered as not found and how many searches it avoided, for each
+     *         LDAP server
+     * @since 9.16.3
+     */
+    public Map<String, Map<String, Long>> getStatistics()
+    {
+        Map<String, Map<String, Long>> result = new LinkedHashMap<>();
+
+        synchronized (this.cachePool) {
+            for (Map.Entry<String, GroupsStatistics> entry : this.statistics.entrySet()) {
+                GroupsStatistics groupsStatistics = entry.getValue();
+                LDAPDNDictionary dictionary = this.dictionaries.get(entry.getKey());
+
+                Map<String, Long> cacheStatistics = new LinkedHashMap<>();
+                cacheStatistics.put("groups", groupsStatistics.groups.get());
+                cacheStatistics.put("members", groupsStatistics.members.get());
+                cacheStatistics.put("dns", dictionary != null ? (long) dictionary.getSize() : 0L);
+                cacheStatistics.put("unusedDNs", dictionary != null ? (long) dictionary.getUnused() : 0L);
+                cacheStatistics.put("memorySize",
+                    groupsStatistics.memorySize.get() + (dictionary != null ? dictionary.getMemorySize() : 0L));
+                cacheStatistics.put("notFound", groupsStatistics.notFound.get());
+                cacheStatistics.put("notFoundHits", groupsStatistics.notFoundHits.get());
+
+                result.put(entry.getKey(), cacheStatistics);
+            }
+        }
+
+        return result;
+    }
+
+    private String getCacheKey(XWikiLDAPUtils utils)
+    {
+        return utils.getUidAttributeName() + "." + utils.getConnection().getConnection().getHost() + ":"
+            + utils.getConnection().getConnection().getPort();
+    }
+
     /**
      * Only used by the (also deprecated) {@link XWikiLDAPUtils#getGroupCacheConfiguration}.
      * @param config the current LDAP configuration
@@ -114,32 +947,105 @@ public class LDAPGroupsCache implements Disposable
      */
     private LRUCacheConfiguration createCacheConfiguration(XWikiLDAPConfig config, String cacheKeySuffix)
     {
+        String configurationId = config.getCacheConfigurationId();
         LRUCacheConfiguration cacheConfiguration = new LRUCacheConfiguration(
-            (cacheKeySuffix == null) ? CACHE_NAME_GROUPS : CACHE_NAME_GROUPS + '.' + cacheKeySuffix);
+            (cacheKeySuffix == null) ? configurationId : configurationId + '.' + cacheKeySuffix);
         cacheConfiguration.getLRUEvictionConfiguration().setLifespan(config.getCacheExpiration());
 
         return cacheConfiguration;
     }
 
     /**
-     * Force to empty the group cache.
+     * Force to empty the group cache, on all the members of the cluster.
      */
     public void reset()
+    {
+        resetLocal();
+
+        // Let the other members of the cluster know
+        this.observationManagerProvider.get().notify(new LDAPGroupsCacheResetEvent(), null);
+    }
+
+    /**
+     * Force to empty the group cache of this member of the cluster only.
+     * 
+     * @since 9.16.3
+     */
+    public void resetLocal()
     {
         synchronized (this.cachePool) {
+            // Don't reload the forgotten groups after a restart
+            for (LDAPGroupsSnapshot snapshot : this.snapshots.values()) {
+                try {
+                    snapshot.delete();
+                } catch (IOException e) {
+                    this.logger.warn("Failed to delete the LDAP groups snapshot [{}]: {}", snapshot.getFile(),
+                        ExceptionUtils.getRootCauseMessage(e));
+                }
+            }
+
+            clear();
+        }
+    }
+
+    private void clear()
+    {
+        synchronized (this.cachePool) {
+            this.generation.incrementAndGet();
+
             for (Map<String, Cache<Map<String, String>>> caches : this.cachePool.values()) {
                 for (Cache<Map<String, String>> cache : caches.values()) {
                     cache.dispose();
                 }
             }
-        }
 
-        this.cachePool.clear();
+            for (Cache<LDAPMembership> cache : this.membershipCaches.values()) {
+                cache.dispose();
+            }
+            for (Cache<Boolean> cache : this.negativeCaches.values()) {
+                cache.dispose();
+            }
+
+            this.cachePool.clear();
+            this.membershipCaches.clear();
+            this.negativeCaches.clear();
+            for (ChangeTracking tracking : this.changeTrackings.values()) {
+                tracking.future.cancel(true);
+
+                // A task blocked on the LDAP server does not always react to interruption
+                if (tracking.task instanceof Closeable) {
+                    try {
+                        ((Closeable) tracking.task).close();
+                    } catch (IOException e) {
+                        this.logger.warn("Failed to stop listening to the LDAP changes: {}",
+                            ExceptionUtils.getRootCauseMessage(e));
+                    }
+                }
+            }
+            for (Future<?> snapshotTask : this.snapshotTasks.values()) {
+                snapshotTask.cancel(false);
+            }
+
+            this.dictionaries.clear();
+            this.statistics.clear();
+            this.changeTrackings.clear();
+            this.snapshots.clear();
+            this.snapshotTasks.clear();
+        }
     }
 
     @Override
     public void dispose() throws ComponentLifecycleException
     {
-        reset();
+        // Keep the cached groups for the next start
+        Set<String> cacheKeys;
+        synchronized (this.cachePool) {
+            cacheKeys = new HashSet<>(this.snapshots.keySet());
+        }
+        for (String cacheKey : cacheKeys) {
+            saveSnapshot(cacheKey);
+        }
+
+        clear();
     }
 }
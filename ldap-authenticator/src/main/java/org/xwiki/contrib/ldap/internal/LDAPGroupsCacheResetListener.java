@@ -0,0 +1,71 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.Arrays;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
+
+/**
+ * Reset the LDAP groups caches when they are reset on another member of the cluster.
+ * 
+ * @version $Id$
+ * @since 9.16.3
+ */
+@Component
+@Singleton
+@Named(LDAPGroupsCacheResetListener.NAME)
+public class LDAPGroupsCacheResetListener extends AbstractEventListener
+{
+    /**
+     * The name of the listener.
+     */
+    public static final String NAME = "LDAPGroupsCacheResetListener";
+
+    @Inject
+    private LDAPGroupsCache caches;
+
+    @Inject
+    private RemoteObservationManagerContext remoteContext;
+
+    /**
+     * The default constructor.
+     */
+    public LDAPGroupsCacheResetListener()
+    {
+        super(NAME, Arrays.<Event>asList(new LDAPGroupsCacheResetEvent()));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        // The local resets are already done, and a remote reset should not be sent back to the cluster
+        if (this.remoteContext.isRemoteState()) {
+            this.caches.resetLocal();
+        }
+    }
+}
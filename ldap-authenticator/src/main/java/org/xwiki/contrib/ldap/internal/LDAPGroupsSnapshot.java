@@ -0,0 +1,177 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A file containing the cached groups of a LDAP server, used to not start with an empty cache after a restart.
+ * 
+ * @version $Id$
+ * @since 9.16.3
+ */
+public class LDAPGroupsSnapshot
+{
+    /**
+     * The version of the file format.
+     */
+    private static final int VERSION = 1;
+
+    private final File file;
+
+    /**
+     * @param file the file containing the snapshot
+     */
+    public LDAPGroupsSnapshot(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * @return the file containing the snapshot
+     */
+    public File getFile()
+    {
+        return this.file;
+    }
+
+    /**
+     * Replace the content of the snapshot (the file is only replaced once completely written).
+     * 
+     * @param cacheKey the identifier of the LDAP server
+     * @param groups the cached groups
+     * @throws IOException when failing to write the file
+     */
+    public void save(String cacheKey, Map<String, LDAPGroupMembers> groups) throws IOException
+    {
+        this.file.getParentFile().mkdirs();
+
+        File tmpFile = new File(this.file.getParentFile(), this.file.getName() + ".tmp");
+
+        try (DataOutputStream output = new DataOutputStream(
+            new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmpFile.toPath()))))) {
+            output.writeInt(VERSION);
+            output.writeUTF(cacheKey);
+
+            output.writeInt(groups.size());
+            for (Map.Entry<String, LDAPGroupMembers> entry : groups.entrySet()) {
+                LDAPGroupMembers members = entry.getValue();
+
+                output.writeUTF(entry.getKey());
+                output.writeLong(members.getRefreshDate());
+                output.writeLong(members.getExpirationDate());
+
+                output.writeInt(members.getGroups().size());
+                for (String groupDN : members.getGroups()) {
+                    output.writeUTF(groupDN);
+                }
+
+                output.writeInt(members.size());
+                for (Map.Entry<String, String> member : members.entrySet()) {
+                    output.writeUTF(member.getKey());
+                    output.writeBoolean(member.getValue() != null);
+                    if (member.getValue() != null) {
+                        output.writeUTF(member.getValue());
+                    }
+                }
+            }
+        }
+
+        Files.move(tmpFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read the groups stored in the snapshot, skipping the expired ones.
+     * 
+     * @param cacheKey the identifier of the LDAP server
+     * @param dictionary the dictionary in which to store the members DNs
+     * @return the groups which are not expired yet, empty if the snapshot does not exist or was saved for another LDAP
+     *         server
+     * @throws IOException when failing to read the file
+     */
+    public Map<String, LDAPGroupMembers> load(String cacheKey, LDAPDNDictionary dictionary) throws IOException
+    {
+        Map<String, LDAPGroupMembers> groups = new LinkedHashMap<>();
+
+        if (!this.file.exists()) {
+            return groups;
+        }
+
+        try (DataInputStream input = new DataInputStream(
+            new BufferedInputStream(new GZIPInputStream(Files.newInputStream(this.file.toPath()))))) {
+            if (input.readInt() != VERSION || !cacheKey.equals(input.readUTF())) {
+                return groups;
+            }
+
+            long now = System.currentTimeMillis();
+
+            int size = input.readInt();
+            for (int i = 0; i < size; ++i) {
+                String key = input.readUTF();
+                long refreshDate = input.readLong();
+                long expirationDate = input.readLong();
+
+                int groupsSize = input.readInt();
+                Set<String> subgroups = new HashSet<>(groupsSize);
+                for (int j = 0; j < groupsSize; ++j) {
+                    subgroups.add(input.readUTF());
+                }
+
+                int membersSize = input.readInt();
+                Map<String, String> members = new HashMap<>(membersSize);
+                for (int j = 0; j < membersSize; ++j) {
+                    String dn = input.readUTF();
+                    members.put(dn, input.readBoolean() ? input.readUTF() : null);
+                }
+
+                if (now < expirationDate) {
+                    groups.put(key, new LDAPGroupMembers(dictionary, members, subgroups, refreshDate, expirationDate));
+                }
+            }
+        }
+
+        return groups;
+    }
+
+    /**
+     * Delete the snapshot.
+     * 
+     * @throws IOException when failing to delete the file
+     */
+    public void delete() throws IOException
+    {
+        Files.deleteIfExists(this.file.toPath());
+    }
+}
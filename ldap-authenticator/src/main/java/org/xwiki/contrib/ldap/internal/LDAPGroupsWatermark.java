@@ -0,0 +1,94 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The point up to which the changes of the LDAP groups have been taken into account, based on an ordered attribute
+ * like {@code modifyTimestamp} or {@code uSNChanged}.
+ * 
+ * @version $Id$
+ * @since 9.16.3
+ */
+public class LDAPGroupsWatermark
+{
+    private final String value;
+
+    private final Set<String> groups;
+
+    /**
+     * @param value the greatest value of the attribute already taken into account
+     * @param groups the normalized DNs of the groups already taken into account for that value (the search is
+     *            inclusive)
+     */
+    public LDAPGroupsWatermark(String value, Set<String> groups)
+    {
+        this.value = value;
+        this.groups = Collections.unmodifiableSet(groups);
+    }
+
+    /**
+     * @return the greatest value of the attribute already taken into account
+     */
+    public String getValue()
+    {
+        return this.value;
+    }
+
+    /**
+     * @return the normalized DNs of the groups already taken into account for the current value
+     */
+    public Set<String> getGroups()
+    {
+        return this.groups;
+    }
+
+    /**
+     * @param groupDN the normalized DN of the group
+     * @param groupValue the value of the attribute for this group
+     * @return true if the group change was already taken into account
+     */
+    public boolean isKnown(String groupDN, String groupValue)
+    {
+        return compare(groupValue, this.value) == 0 && this.groups.contains(groupDN);
+    }
+
+    /**
+     * Compare two values of the attribute, as numbers when possible (uSNChanged) and as strings otherwise
+     * (generalized time).
+     * 
+     * @param value1 the first value
+     * @param value2 the second value
+     * @return a negative integer, zero, or a positive integer as the first value is less than, equal to, or greater
+     *         than the second
+     */
+    public static int compare(String value1, String value2)
+    {
+        if (StringUtils.isNumeric(value1) && StringUtils.isNumeric(value2)) {
+            return Long.compare(Long.parseLong(value1), Long.parseLong(value2));
+        }
+
+        return value1.compareTo(value2);
+    }
+}
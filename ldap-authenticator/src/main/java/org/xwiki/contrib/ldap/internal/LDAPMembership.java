@@ -0,0 +1,93 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The LDAP groups a given user is known to be (or not to be) a member of, directly or through subgroups.
+ * <p>
+ * Instances are immutable so that they can safely be shared by (and replicated between) caches: use
+ * {@link #withMember(String, boolean)} to get an updated membership.
+ * 
+ * @version $Id$
+ * @since 9.16.3
+ */
+public class LDAPMembership implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, Boolean> groups;
+
+    /**
+     * Create a membership which will be filled one group at a time.
+     */
+    public LDAPMembership()
+    {
+        this.groups = Collections.emptyMap();
+    }
+
+    /**
+     * The membership of the groups which are not part of the passed set is still unknown: {@code memberOf} does not
+     * cover all the kinds of groups (organizational units, uid based members, filters, etc.).
+     * 
+     * @param groups the normalized DNs of groups the user is known to be a member of
+     */
+    public LDAPMembership(Set<String> groups)
+    {
+        Map<String, Boolean> map = new HashMap<>();
+        for (String group : groups) {
+            map.put(group, Boolean.TRUE);
+        }
+
+        this.groups = Collections.unmodifiableMap(map);
+    }
+
+    private LDAPMembership(Map<String, Boolean> groups)
+    {
+        this.groups = Collections.unmodifiableMap(groups);
+    }
+
+    /**
+     * @param groupDN the normalized DN of the group
+     * @return true if the user is a member of the group, false if it's not, null if it's unknown
+     */
+    public Boolean isMember(String groupDN)
+    {
+        return this.groups.get(groupDN);
+    }
+
+    /**
+     * @param groupDN the normalized DN of the group
+     * @param member true if the user is a member of the group
+     * @return a new membership containing the passed group in addition to the groups of this membership
+     */
+    public LDAPMembership withMember(String groupDN, boolean member)
+    {
+        Map<String, Boolean> map = new HashMap<>(this.groups);
+        map.put(groupDN, member);
+
+        return new LDAPMembership(map);
+    }
+}
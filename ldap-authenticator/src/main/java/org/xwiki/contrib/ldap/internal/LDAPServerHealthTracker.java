@@ -0,0 +1,305 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+
+/**
+ * Keep track of the latency and availability of the LDAP servers to connect first to the fastest healthy one.
+ * <p>
+ * A server which fails to accept a connection is marked down and tried last until a background probe manages to open a
+ * socket to it again. The probe only checks that the server accepts TCP connections (it does not know the SSL and bind
+ * settings needed to talk LDAP with it): a server accepting connections but unable to serve LDAP requests is marked up
+ * again by the probe and marked down again by the next failed connection.
+ *
+ * @version $Id$
+ * @since 9.16.3
+ */
+@Component(roles = LDAPServerHealthTracker.class)
+@Singleton
+public class LDAPServerHealthTracker
+{
+    /**
+     * The weight of the last sample in the moving averages.
+     */
+    private static final double ALPHA = 0.3;
+
+    /**
+     * The latency in milliseconds added to the score of a server which always fails.
+     */
+    private static final double ERROR_PENALTY = 1000;
+
+    /**
+     * Timeout in milliseconds of the probes.
+     */
+    private static final int PROBE_TIMEOUT = 5000;
+
+    /**
+     * An LDAP server.
+     *
+     * @version $Id$
+     */
+    public static class Server
+    {
+        private final String host;
+
+        private final int port;
+
+        /**
+         * @param host the host of the server
+         * @param port the port of the server
+         */
+        public Server(String host, int port)
+        {
+            this.host = host;
+            this.port = port;
+        }
+
+        /**
+         * @return the host of the server
+         */
+        public String getHost()
+        {
+            return this.host;
+        }
+
+        /**
+         * @return the port of the server
+         */
+        public int getPort()
+        {
+            return this.port;
+        }
+
+        @Override
+        public String toString()
+        {
+            return this.host + ':' + this.port;
+        }
+    }
+
+    private static final class ServerHealth
+    {
+        private final Server server;
+
+        /**
+         * Moving average of the time in milliseconds needed to connect.
+         */
+        private double latency;
+
+        /**
+         * Moving average of the failures (between 0 and 1).
+         */
+        private double errorRate;
+
+        private boolean down;
+
+        private boolean probing;
+
+        private volatile long probeInterval;
+
+        ServerHealth(Server server)
+        {
+            this.server = server;
+        }
+
+        synchronized double getScore()
+        {
+            return this.latency + this.errorRate * ERROR_PENALTY;
+        }
+
+        synchronized boolean isDown()
+        {
+            return this.down;
+        }
+    }
+
+    /**
+     * The health of a server at a given time.
+     */
+    private static final class HealthSnapshot
+    {
+        private final Server server;
+
+        private final boolean down;
+
+        private final double score;
+
+        HealthSnapshot(Server server, boolean down, double score)
+        {
+            this.server = server;
+            this.down = down;
+            this.score = score;
+        }
+    }
+
+    @Inject
+    private LDAPExecutors executors;
+
+    @Inject
+    private Logger logger;
+
+    private final ConcurrentMap<String, ServerHealth> servers = new ConcurrentHashMap<>();
+
+    /**
+     * @param servers the servers to order, in the configured or discovered order
+     * @return the servers ordered by health: first the healthy ones from the fastest to the slowest, then the ones
+     *         marked down in their initial order
+     */
+    public List<Server> sort(List<Server> servers)
+    {
+        // Take a snapshot of the health of each server since it can be modified by other threads during the sort
+        List<HealthSnapshot> healths = new ArrayList<>(servers.size());
+        for (Server server : servers) {
+            ServerHealth health = getHealth(server);
+            synchronized (health) {
+                healths.add(new HealthSnapshot(server, health.down, health.getScore()));
+            }
+        }
+
+        // The sort is stable so servers never used yet (score 0) keep their initial order
+        healths.sort(Comparator.comparing((HealthSnapshot health) -> health.down)
+            .thenComparingDouble(health -> health.score));
+
+        List<Server> sorted = new ArrayList<>(healths.size());
+        for (HealthSnapshot health : healths) {
+            sorted.add(health.server);
+        }
+
+        return sorted;
+    }
+
+    /**
+     * @param server the server to which a connection was opened
+     * @param latency the number of milliseconds needed to connect
+     */
+    public void onSuccess(Server server, long latency)
+    {
+        ServerHealth health = getHealth(server);
+
+        synchronized (health) {
+            health.latency = health.latency == 0 ? latency : ALPHA * latency + (1 - ALPHA) * health.latency;
+            health.errorRate = (1 - ALPHA) * health.errorRate;
+
+            if (health.down) {
+                this.logger.info("LDAP server [{}] is up again", server);
+
+                health.down = false;
+            }
+        }
+    }
+
+    /**
+     * @param server the server to which a connection could not be opened
+     * @param cause the reason of the failure
+     * @param probeInterval the number of seconds between two probes of the server while it's marked down
+     */
+    public void onFailure(Server server, Throwable cause, long probeInterval)
+    {
+        ServerHealth health = getHealth(server);
+
+        boolean probe = false;
+        synchronized (health) {
+            health.errorRate = ALPHA + (1 - ALPHA) * health.errorRate;
+            health.probeInterval = TimeUnit.SECONDS.toMillis(probeInterval);
+
+            if (!health.down) {
+                this.logger.warn("LDAP server [{}] is marked down: {}", server,
+                    ExceptionUtils.getRootCauseMessage(cause));
+
+                health.down = true;
+            }
+
+            if (!health.probing) {
+                health.probing = true;
+                probe = true;
+            }
+        }
+
+        if (probe) {
+            scheduleProbe(health);
+        }
+    }
+
+    private ServerHealth getHealth(Server server)
+    {
+        return this.servers.computeIfAbsent(server.toString(), k -> new ServerHealth(server));
+    }
+
+    private void scheduleProbe(ServerHealth health)
+    {
+        try {
+            this.executors.getScheduler().schedule(() -> {
+                try {
+                    this.executors.getExecutor().execute(() -> probe(health));
+                } catch (RejectedExecutionException e) {
+                    stopProbing(health);
+                }
+            }, health.probeInterval, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            stopProbing(health);
+        }
+    }
+
+    private void stopProbing(ServerHealth health)
+    {
+        synchronized (health) {
+            health.probing = false;
+        }
+    }
+
+    private void probe(ServerHealth health)
+    {
+        if (!health.isDown()) {
+            // A connection succeeded in the meantime
+            stopProbing(health);
+
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(health.server.getHost(), health.server.getPort()), PROBE_TIMEOUT);
+
+            stopProbing(health);
+            onSuccess(health.server, System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            this.logger.debug("LDAP server [{}] is still down", health.server, e);
+
+            scheduleProbe(health);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.naming.Context;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+
+/**
+ * Discover LDAP servers through DNS SRV records and keep the result in cache.
+ * <p>
+ * The JNDI DNS provider does not expose the TTL of the records so the result is kept for the configured
+ * {@link XWikiLDAPConfig#getServiceDiscoveryTTL()}. It's refreshed in the background shortly before it expires and
+ * kept when the DNS server cannot be reached for up to {@link XWikiLDAPConfig#getServiceDiscoveryStaleTTL()}.
+ *
+ * @version $Id$
+ * @since 9.16.3
+ */
+@Component(roles = LDAPServiceDiscovery.class)
+@Singleton
+public class LDAPServiceDiscovery
+{
+    /**
+     * The result is refreshed in the background once this part of its TTL is elapsed.
+     */
+    private static final double REFRESH_AHEAD_RATIO = 0.75;
+
+    private static final String SRV = "SRV";
+
+    private static final class CachedLookup
+    {
+        /**
+         * The records sorted by priority, empty if the DNS server does not know the service.
+         */
+        private final SortedMap<Integer, List<SRVRecord>> records;
+
+        /**
+         * The date of the last successful lookup.
+         */
+        private final long resolutionDate;
+
+        /**
+         * The date of the last lookup attempt.
+         */
+        private final long checkDate;
+
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        CachedLookup(SortedMap<Integer, List<SRVRecord>> records, long resolutionDate, long checkDate)
+        {
+            this.records = records;
+            this.resolutionDate = resolutionDate;
+            this.checkDate = checkDate;
+        }
+
+        List<SRVRecord> shuffle()
+        {
+            if (this.records.isEmpty()) {
+                return null;
+            }
+
+            // The weighted shuffle is done on each call so that the load is distributed between servers with the
+            // same priority
+            List<SRVRecord> sortedWeightedRecordList = new ArrayList<>();
+            for (List<SRVRecord> priorityRecords : this.records.values()) {
+                sortedWeightedRecordList.addAll(SRVRecord.efraimidisWeightedShuffle(priorityRecords));
+            }
+
+            return sortedWeightedRecordList;
+        }
+    }
+
+    @Inject
+    private LDAPExecutors executors;
+
+    @Inject
+    private Logger logger;
+
+    private final ConcurrentMap<String, CachedLookup> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Performs an SRV record lookup on <code>_ldap._tcp.realm</code> or <code>_ldaps._tcp.realm</code> if ssl is
+     * enabled.
+     * 
+     * @param realm the realm for which SRV records should be looked up.
+     * @param ldaps if true, service discovery uses <code>_ldaps._tcp</code>, if false <code>_ldap._tcp</code> is used.
+     * @param configuration the LDAP configuration
+     * @return a list of SRV records sorted by priority/weight, null if SRV lookup failed or returned an empty result.
+     */
+    public List<SRVRecord> discover(String realm, boolean ldaps, XWikiLDAPConfig configuration)
+    {
+        String service = ldaps ? "_ldaps" : "_ldap";
+        String proto = "_tcp";
+        String lookup = service + "." + proto + "." + realm;
+
+        long ttl = TimeUnit.SECONDS.toMillis(configuration.getServiceDiscoveryTTL());
+        long staleTTL = TimeUnit.SECONDS.toMillis(configuration.getServiceDiscoveryStaleTTL());
+
+        long now = now();
+
+        CachedLookup cachedLookup = ttl > 0 ? this.cache.get(lookup) : null;
+        if (cachedLookup == null || now - cachedLookup.checkDate >= ttl) {
+            cachedLookup = resolve(lookup, cachedLookup, ttl, staleTTL);
+        } else if (now - cachedLookup.checkDate >= ttl * REFRESH_AHEAD_RATIO) {
+            refresh(lookup, cachedLookup, ttl, staleTTL);
+        }
+
+        return cachedLookup != null ? cachedLookup.shuffle() : null;
+    }
+
+    /**
+     * Forget all the discovered services.
+     */
+    public void clear()
+    {
+        this.cache.clear();
+    }
+
+    private void refresh(String lookup, CachedLookup cachedLookup, long ttl, long staleTTL)
+    {
+        // Only one refresh at a time for a given service
+        if (cachedLookup.refreshing.compareAndSet(false, true)) {
+            try {
+                this.executors.getExecutor().execute(() -> resolve(lookup, cachedLookup, ttl, staleTTL));
+            } catch (RejectedExecutionException e) {
+                cachedLookup.refreshing.set(false);
+
+                this.logger.debug("Failed to schedule the refresh of the SRV records of [{}]", lookup, e);
+            }
+        }
+    }
+
+    private CachedLookup resolve(String lookup, CachedLookup previous, long ttl, long staleTTL)
+    {
+        long now = now();
+
+        CachedLookup cachedLookup;
+        try {
+            cachedLookup = new CachedLookup(lookup(lookup), now, now);
+
+            prefetch(cachedLookup);
+        } catch (NamingException e) {
+            if (previous != null && !previous.records.isEmpty() && now - previous.resolutionDate < ttl + staleTTL) {
+                this.logger.warn("DNS lookup of [{}] failed, reusing the SRV records found [{}] seconds ago: {}",
+                    lookup, TimeUnit.MILLISECONDS.toSeconds(now - previous.resolutionDate),
+                    ExceptionUtils.getRootCauseMessage(e));
+
+                // Don't retry the lookup for each connection while the DNS server is unreachable
+                cachedLookup = new CachedLookup(previous.records, previous.resolutionDate, now);
+            } else {
+                this.logger.debug("DNS lookup failed.", e);
+
+                cachedLookup = null;
+            }
+        }
+
+        if (ttl > 0) {
+            if (cachedLookup != null) {
+                this.cache.put(lookup, cachedLookup);
+            } else {
+                this.cache.remove(lookup);
+            }
+        }
+
+        return cachedLookup;
+    }
+
+    long now()
+    {
+        return System.currentTimeMillis();
+    }
+
+    SortedMap<Integer, List<SRVRecord>> lookup(String lookup) throws NamingException
+    {
+        Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.dns.DnsContextFactory");
+        Attributes attributes;
+        DirContext ctx = new InitialDirContext(env);
+        try {
+            attributes = ctx.getAttributes(lookup, new String[] {SRV});
+        } catch (NameNotFoundException e) {
+            this.logger.debug("No SRV record for {} found.", lookup);
+            return Collections.emptySortedMap();
+        } finally {
+            ctx.close();
+        }
+
+        Attribute attribute = attributes.get(SRV);
+        if (attribute == null) {
+            this.logger.debug("No SRV record found in {}.", lookup);
+            return Collections.emptySortedMap();
+        }
+
+        // organise entries by priority so a weighted shuffle can be performed for all entries with a given priority
+        SortedMap<Integer, List<SRVRecord>> priorityMap = new TreeMap<>();
+        for (int i = 0; i < attribute.size(); i++) {
+            try {
+                Object value = attribute.get(i);
+                if (value != null) {
+                    SRVRecord srvRecord = new SRVRecord(value.toString().split(" "));
+                    this.logger.trace("SRV record found: {}", srvRecord);
+                    priorityMap.computeIfAbsent(srvRecord.getPriority(), k -> new ArrayList<>()).add(srvRecord);
+                }
+            } catch (NamingException e) {
+                this.logger.debug("Unable to get {}-th value from attributes.", i, e);
+            } catch (IllegalArgumentException e) {
+                this.logger.debug("Unable to create SRVRecord object.", e);
+            }
+        }
+
+        return priorityMap;
+    }
+
+    /**
+     * Resolve the servers addresses in the background so that they are already in the JVM DNS cache when connecting.
+     */
+    private void prefetch(CachedLookup cachedLookup)
+    {
+        Set<String> targets = new HashSet<>();
+        for (List<SRVRecord> records : cachedLookup.records.values()) {
+            for (SRVRecord srvRecord : records) {
+                targets.add(srvRecord.getTarget());
+            }
+        }
+
+        for (String target : targets) {
+            try {
+                this.executors.getExecutor().execute(() -> {
+                    try {
+                        InetAddress.getAllByName(target);
+                    } catch (UnknownHostException e) {
+                        this.logger.debug("Failed to resolve LDAP server [{}]", target, e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                this.logger.debug("Failed to schedule the resolution of LDAP server [{}]", target, e);
+            }
+        }
+    }
+}
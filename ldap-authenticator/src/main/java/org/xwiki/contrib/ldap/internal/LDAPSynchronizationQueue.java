@@ -0,0 +1,173 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+
+/**
+ * The users synchronizations executed in the background after the login. Several synchronizations of the same user
+ * waiting to be executed are merged into the last one.
+ * 
+ * @version $Id$
+ * @since 9.16.3
+ */
+@Component(roles = LDAPSynchronizationQueue.class)
+@Singleton
+public class LDAPSynchronizationQueue implements Disposable
+{
+    /**
+     * The number of users synchronized at the same time.
+     */
+    private static final int THREADS = 2;
+
+    @Inject
+    private Logger logger;
+
+    private ThreadPoolExecutor executor;
+
+    private int queueSize;
+
+    /**
+     * The last synchronization waiting to be executed for each user.
+     */
+    private final Map<String, Supplier<Boolean>> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong submitted = new AtomicLong();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Queue the synchronization of a user, replacing the one already waiting for the same user.
+     * 
+     * @param key the identifier of the user
+     * @param maxQueueSize the maximum number of synchronizations waiting to be executed
+     * @param task the synchronization, returns false if it failed
+     * @return false if the queue is full, in which case the caller is expected to execute the synchronization itself
+     */
+    public synchronized boolean submit(String key, int maxQueueSize, Supplier<Boolean> task)
+    {
+        this.submitted.incrementAndGet();
+
+        if (this.pending.put(key, task) != null) {
+            // The already queued synchronization will execute this task
+            this.coalesced.incrementAndGet();
+
+            return true;
+        }
+
+        try {
+            getExecutor(maxQueueSize).execute(() -> run(key));
+        } catch (RejectedExecutionException e) {
+            this.pending.remove(key);
+            this.rejected.incrementAndGet();
+
+            return false;
+        }
+
+        return true;
+    }
+
+    private void run(String key)
+    {
+        Supplier<Boolean> task = this.pending.remove(key);
+
+        if (task != null) {
+            try {
+                if (task.get()) {
+                    this.completed.incrementAndGet();
+                } else {
+                    this.failed.incrementAndGet();
+                }
+            } catch (Exception e) {
+                this.failed.incrementAndGet();
+
+                this.logger.warn("Failed to synchronize LDAP user [{}]: {}", key, ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+    }
+
+    private ThreadPoolExecutor getExecutor(int maxQueueSize)
+    {
+        if (this.executor == null || this.queueSize != maxQueueSize) {
+            if (this.executor != null) {
+                // Let the queued synchronizations finish
+                this.executor.shutdown();
+            }
+
+            this.executor = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(maxQueueSize, 1)),
+                new BasicThreadFactory.Builder().namingPattern("LDAP user synchronization %d").daemon(true).build());
+            this.queueSize = maxQueueSize;
+        }
+
+        return this.executor;
+    }
+
+    /**
+     * @return the number of synchronizations currently waiting, submitted, merged with a waiting one, rejected because
+     *         the queue was full (and executed during the login), completed and failed
+     */
+    public Map<String, Long> getStatistics()
+    {
+        Map<String, Long> statistics = new LinkedHashMap<>();
+
+        statistics.put("queued", (long) this.pending.size());
+        statistics.put("submitted", this.submitted.get());
+        statistics.put("coalesced", this.coalesced.get());
+        statistics.put("rejected", this.rejected.get());
+        statistics.put("completed", this.completed.get());
+        statistics.put("failed", this.failed.get());
+
+        return statistics;
+    }
+
+    @Override
+    public synchronized void dispose() throws ComponentLifecycleException
+    {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+            this.executor = null;
+        }
+    }
+}
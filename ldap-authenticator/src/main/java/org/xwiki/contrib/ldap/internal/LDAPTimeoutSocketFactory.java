@@ -0,0 +1,80 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import com.novell.ldap.LDAPSocketFactory;
+
+/**
+ * Create sockets which give up connecting (and negotiating SSL) after a given delay instead of waiting for the TCP
+ * timeout of the operating system.
+ *
+ * @version $Id$
+ * @since 9.16.3
+ */
+public class LDAPTimeoutSocketFactory implements LDAPSocketFactory
+{
+    private final int timeout;
+
+    private final SSLSocketFactory sslFactory;
+
+    /**
+     * @param timeout the maximum number of milliseconds to wait for the connection to be established
+     * @param sslFactory the factory used to wrap the connected socket in a SSL socket, null for a plain socket
+     */
+    public LDAPTimeoutSocketFactory(int timeout, SSLSocketFactory sslFactory)
+    {
+        this.timeout = timeout;
+        this.sslFactory = sslFactory;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException
+    {
+        Socket socket = new Socket();
+
+        try {
+            socket.connect(new InetSocketAddress(host, port), this.timeout);
+
+            if (this.sslFactory != null) {
+                SSLSocket sslSocket = (SSLSocket) this.sslFactory.createSocket(socket, host, port, true);
+
+                // Don't wait forever for a server which accepted the connection but does not answer
+                sslSocket.setSoTimeout(this.timeout);
+                sslSocket.startHandshake();
+                sslSocket.setSoTimeout(0);
+
+                return sslSocket;
+            }
+        } catch (IOException e) {
+            socket.close();
+
+            throw e;
+        }
+
+        return socket;
+    }
+}
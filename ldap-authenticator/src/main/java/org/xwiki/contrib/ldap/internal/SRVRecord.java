@@ -0,0 +1,139 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * This class encapsulates an SRV record.
+ * 
+ * @version $Id$
+ * @since 9.16.3
+ * @see <a href="https://tools.ietf.org/html/rfc2782">RFC 2782: A DNS RR for specifying the location of services
+ *      (DNS SRV)</a>
+ */
+public class SRVRecord
+{
+    private static final int ATTRIBUTES_SIZE = 4;
+
+    private static final String SEPARATOR = " ";
+
+    private final int priority;
+
+    private final int weight;
+
+    private final int port;
+
+    private final String target;
+
+    /**
+     * Creates an SRV Record from the given data.
+     *
+     * @param attributes A string array that contains priority, weight, port and name of the server (in that order)
+     */
+    public SRVRecord(String[] attributes)
+    {
+        if (attributes.length != ATTRIBUTES_SIZE) {
+            throw new IllegalArgumentException(
+                "attributes array needs exactly 4 entries: priority, weight, port and server name");
+        }
+
+        // format for an JNDI SRV record lookup is "0 100 389 dc1.example.com."
+        this.priority = Integer.parseInt(attributes[0]);
+        this.weight = Integer.parseInt(attributes[1]);
+        this.port = Integer.parseInt(attributes[2]);
+        this.target = attributes[3];
+    }
+
+    /**
+     * @return the priority of the target host, lower value means more preferred
+     */
+    public int getPriority()
+    {
+        return this.priority;
+    }
+
+    /**
+     * @return the relative weight for entries with the same priority
+     */
+    public int getWeight()
+    {
+        return this.weight;
+    }
+
+    /**
+     * @return the port that the service runs on
+     */
+    public int getPort()
+    {
+        return this.port;
+    }
+
+    /**
+     * @return the host running the service
+     */
+    public String getTarget()
+    {
+        return this.target;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+
+        builder.append(this.priority).append(SEPARATOR);
+        builder.append(this.weight).append(SEPARATOR);
+        builder.append(this.port).append(SEPARATOR);
+        builder.append(this.target);
+
+        return builder.toString();
+    }
+
+    /**
+     * Performs a weighted shuffle on a list of SRV records using Efraimidis/Spirakis fast parallel weighted random
+     * sampling algorithm A.
+     * 
+     * @param records a list of SRV records
+     * @return a list of SRV records, shuffled according to their weight
+     */
+    public static List<SRVRecord> efraimidisWeightedShuffle(List<SRVRecord> records)
+    {
+        List<Pair<SRVRecord, Double>> recordKeyList = new ArrayList<>(records.size());
+        for (SRVRecord record : records) {
+            // Math.radom() returns doubles < 1.0 so this is not entirely correct, but since key is always 0 for
+            // u < 1.0 and weight=0 it saves us from handling 0-weighted records separately (permissible by RFC 2782
+            // but weights need to be strictly positive reals for Efraimidis/Spirakis algorithm A to work)
+            double key = Math.pow(Math.random(), 1.0 / record.getWeight());
+            recordKeyList.add(Pair.of(record, key));
+        }
+        recordKeyList.sort((p1, p2) -> p2.getRight().compareTo(p1.getRight()));
+
+        List<SRVRecord> resultList = new ArrayList<>(records.size());
+        for (Pair<SRVRecord, Double> pair : recordKeyList) {
+            resultList.add(pair.getLeft());
+        }
+
+        return resultList;
+    }
+}
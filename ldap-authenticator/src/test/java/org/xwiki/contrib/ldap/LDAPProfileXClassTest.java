@@ -20,17 +20,22 @@
 package org.xwiki.contrib.ldap;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Map;
 
 import javax.inject.Provider;
 
@@ -80,6 +85,8 @@ public class LDAPProfileXClassTest
 
     private DocumentReference ldapClassRef;
 
+    private BaseClass ldapClass;
+
     @Before
     public void setUp() throws Exception
     {
@@ -102,7 +109,7 @@ public class LDAPProfileXClassTest
 
         XWikiDocument ldapClassDoc = mock(XWikiDocument.class);
         when(ldapClassDoc.getDocumentReference()).thenReturn(ldapClassRef);
-        BaseClass ldapClass = mock(BaseClass.class);
+        ldapClass = mock(BaseClass.class);
         when(ldapClass.getDocumentReference()).thenReturn(ldapClassRef);
         when(ldapClassDoc.getXClass()).thenReturn(ldapClass);
         when(ldapClass.apply(any(ElementInterface.class), anyBoolean())).thenReturn(false);
@@ -224,4 +231,57 @@ public class LDAPProfileXClassTest
         String result = ldapProfile.getDn(testDoc);
         assertNull(result);
     }
+
+    private XWikiDocument mockProfile(String fingerprint)
+    {
+        BaseObject ldapObj = mock(BaseObject.class);
+        when(ldapObj.getStringValue(LDAPProfileXClass.LDAP_XFIELD_DN)).thenReturn("cn=user,o=sevenSeas");
+        when(ldapObj.getStringValue(LDAPProfileXClass.LDAP_XFIELD_UID)).thenReturn("user");
+        when(ldapObj.getStringValue(LDAPProfileXClass.LDAP_XFIELD_FINGERPRINT)).thenReturn(fingerprint);
+        XWikiDocument testDoc = mock(XWikiDocument.class);
+        when(testDoc.getXObject(eq(ldapClassRef), eq(true), any(XWikiContext.class))).thenReturn(ldapObj);
+        when(testDoc.getXObject(LDAPProfileXClass.LDAPPROFILECLASS_REFERENCE)).thenReturn(ldapObj);
+
+        return testDoc;
+    }
+
+    @Test
+    public void getFingerprint()
+    {
+        assertEquals("abc", LDAPProfileXClass.getFingerprint(mockProfile("abc")));
+        assertNull(LDAPProfileXClass.getFingerprint(mockProfile("")));
+        assertNull(LDAPProfileXClass.getFingerprint(mock(XWikiDocument.class)));
+    }
+
+    @Test
+    public void updateLDAPObjectWithNewFingerprint()
+    {
+        XWikiDocument testDoc = mockProfile("old");
+
+        assertTrue(ldapProfile.updateLDAPObject(testDoc, "cn=user,o=sevenSeas", "user", "new"));
+
+        verify(ldapClass).fromMap(eq(Collections.singletonMap(LDAPProfileXClass.LDAP_XFIELD_FINGERPRINT, "new")),
+            any(BaseObject.class));
+    }
+
+    @Test
+    public void updateLDAPObjectWithSameFingerprint()
+    {
+        XWikiDocument testDoc = mockProfile("same");
+
+        assertFalse(ldapProfile.updateLDAPObject(testDoc, "cn=user,o=sevenSeas", "user", "same"));
+
+        verify(ldapClass, never()).fromMap(any(Map.class), any(BaseObject.class));
+    }
+
+    @Test
+    public void updateLDAPObjectWithoutFingerprint()
+    {
+        XWikiDocument testDoc = mockProfile("old");
+
+        // The stored fingerprint is kept when none is provided
+        assertFalse(ldapProfile.updateLDAPObject(testDoc, "cn=user,o=sevenSeas", "user", null));
+
+        verify(ldapClass, never()).fromMap(any(Map.class), any(BaseObject.class));
+    }
 }
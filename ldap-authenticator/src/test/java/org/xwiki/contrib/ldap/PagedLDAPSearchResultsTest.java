@@ -0,0 +1,216 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.contrib.ldap.internal.LDAPExecutors;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPControl;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPSearchConstraints;
+import com.novell.ldap.LDAPSearchResults;
+import com.novell.ldap.controls.LDAPPagedResultsResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyBoolean;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate the {@link java.util.stream.Stream} view of {@link PagedLDAPSearchResults}.
+ * 
+ * @version $Id$
+ */
+public class PagedLDAPSearchResultsTest
+{
+    private LDAPConnection ldapConnection;
+
+    private XWikiLDAPConnection connection;
+
+    private LDAPSearchResults results;
+
+    private final LDAPEntry entry1 = new LDAPEntry("cn=entry1");
+
+    private final LDAPEntry entry2 = new LDAPEntry("cn=entry2");
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @Before
+    public void before() throws Exception
+    {
+        this.ldapConnection = mock(LDAPConnection.class);
+        when(this.ldapConnection.getConstraints()).thenReturn(new LDAPSearchConstraints());
+
+        this.connection = mock(XWikiLDAPConnection.class);
+        when(this.connection.getConnection()).thenReturn(this.ldapConnection);
+
+        this.results = mock(LDAPSearchResults.class);
+        when(this.ldapConnection.search(anyString(), anyInt(), anyString(), (String[]) any(), anyBoolean(),
+            any(LDAPSearchConstraints.class))).thenReturn(this.results);
+
+        LDAPExecutors executors = mock(LDAPExecutors.class);
+        when(executors.getExecutor()).thenReturn(this.executor);
+        when(this.connection.getExecutors()).thenReturn(executors);
+    }
+
+    @After
+    public void after()
+    {
+        this.executor.shutdownNow();
+    }
+
+    private void mockEntries(LDAPEntry... entries) throws LDAPException
+    {
+        List<LDAPEntry> remaining = new ArrayList<>(Arrays.asList(entries));
+
+        when(this.results.hasMore()).thenAnswer(invocation -> !remaining.isEmpty());
+        when(this.results.next()).thenAnswer(invocation -> remaining.remove(0));
+    }
+
+    private PagedLDAPSearchResults search() throws LDAPException
+    {
+        return new PagedLDAPSearchResults(this.connection, "o=base", LDAPConnection.SCOPE_SUB, "(cn=*)", null, false,
+            10);
+    }
+
+    @Test
+    public void stream() throws Exception
+    {
+        mockEntries(this.entry1, this.entry2);
+
+        List<LDAPEntry> entries;
+        try (Stream<LDAPEntry> stream = search().stream()) {
+            entries = stream.collect(Collectors.toList());
+        }
+
+        assertEquals(Arrays.asList(this.entry1, this.entry2), entries);
+
+        verify(this.ldapConnection).abandon(this.results);
+    }
+
+    @Test
+    public void streamError() throws Exception
+    {
+        LDAPException exception = new LDAPException();
+
+        when(this.results.hasMore()).thenReturn(true);
+        when(this.results.next()).thenReturn(this.entry1).thenThrow(exception);
+
+        try (Stream<LDAPEntry> stream = search().stream()) {
+            stream.count();
+
+            fail("Should have failed");
+        } catch (UncheckedLDAPException e) {
+            assertSame(exception, e.getCause());
+        }
+    }
+
+    @Test
+    public void splitOnPage() throws Exception
+    {
+        mockEntries(this.entry1, this.entry2);
+
+        Spliterator<LDAPEntry> spliterator = search().spliterator();
+
+        Spliterator<LDAPEntry> page = spliterator.trySplit();
+
+        assertNotNull(page);
+        assertEquals(2, page.estimateSize());
+        assertFalse(spliterator.tryAdvance(entry -> fail("Should not have more entries")));
+    }
+
+    @Test
+    public void prefetchNotConsumed() throws Exception
+    {
+        mockEntries(this.entry1, this.entry2);
+
+        // Always announce a next page
+        LDAPPagedResultsResponse response = mock(LDAPPagedResultsResponse.class);
+        when(response.getCookie()).thenReturn(new byte[] {1});
+        when(this.results.getResponseControls()).thenReturn(new LDAPControl[] {response});
+
+        LDAPSearchConstraints constraints = new LDAPSearchConstraints();
+        constraints.setTimeLimit(100);
+        when(this.ldapConnection.getConstraints()).thenReturn(constraints);
+
+        PagedLDAPSearchResults results = new PagedLDAPSearchResults(this.connection, "o=base",
+            LDAPConnection.SCOPE_SUB, "(cn=*)", null, false, 10, 1);
+
+        // The search is abandoned when the prefetched pages are not consumed
+        verify(this.ldapConnection, timeout(5000)).abandon(this.results);
+
+        // The pages already received are still available
+        assertSame(this.entry1, results.next());
+        assertSame(this.entry2, results.next());
+
+        try (Stream<LDAPEntry> stream = results.stream()) {
+            stream.count();
+
+            fail("Should have failed");
+        } catch (UncheckedLDAPException e) {
+            assertEquals(LDAPException.LDAP_TIMEOUT, ((LDAPException) e.getCause()).getResultCode());
+        }
+    }
+
+    @Test
+    public void prefetchUnexpectedError() throws Exception
+    {
+        IllegalStateException error = new IllegalStateException();
+
+        when(this.results.hasMore()).thenReturn(true);
+        when(this.results.next()).thenReturn(this.entry1).thenThrow(error);
+
+        PagedLDAPSearchResults results = new PagedLDAPSearchResults(this.connection, "o=base",
+            LDAPConnection.SCOPE_SUB, "(cn=*)", null, false, 10, 1);
+
+        // The consumer is told about the error instead of waiting forever for the next page
+        try (Stream<LDAPEntry> stream = results.stream()) {
+            stream.count();
+
+            fail("Should have failed");
+        } catch (UncheckedLDAPException e) {
+            LDAPException cause = (LDAPException) e.getCause();
+            assertEquals(LDAPException.LOCAL_ERROR, cause.getResultCode());
+            assertSame(error, cause.getCause());
+        }
+    }
+}
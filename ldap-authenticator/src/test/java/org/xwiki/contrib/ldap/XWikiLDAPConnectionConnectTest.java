@@ -0,0 +1,190 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.contrib.ldap.internal.LDAPExecutors;
+import org.xwiki.contrib.ldap.internal.LDAPServerHealthTracker.Server;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPException;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyBoolean;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate the selection of the LDAP server by {@link XWikiLDAPConnection}.
+ *
+ * @version $Id$
+ */
+public class XWikiLDAPConnectionConnectTest
+{
+    private static final List<Server> SERVERS = Arrays.asList(new Server("server1", 389), new Server("server2", 389));
+
+    private XWikiLDAPConfig configuration;
+
+    private LDAPExecutors executors;
+
+    private XWikiLDAPConnection connection;
+
+    private LDAPConnection connection1;
+
+    private LDAPConnection connection2;
+
+    private final CountDownLatch unblock = new CountDownLatch(1);
+
+    @Before
+    public void before() throws LDAPException
+    {
+        this.configuration = mock(XWikiLDAPConfig.class);
+        when(this.configuration.getConnectParallelism()).thenReturn(2);
+        when(this.configuration.getConnectThreads()).thenReturn(10);
+
+        this.executors = new LDAPExecutors();
+
+        this.connection = spy(new XWikiLDAPConnection(this.configuration));
+        doReturn(this.executors).when(this.connection).getExecutors();
+
+        this.connection1 = mock(LDAPConnection.class);
+        this.connection2 = mock(LDAPConnection.class);
+        doReturn(this.connection1, this.connection2).when(this.connection).createConnection(anyBoolean(), any());
+    }
+
+    @After
+    public void after() throws Exception
+    {
+        this.unblock.countDown();
+
+        this.executors.dispose();
+    }
+
+    private void block(LDAPConnection ldapConnection) throws LDAPException
+    {
+        doAnswer(invocation -> {
+            this.unblock.await();
+
+            throw new LDAPException("Unreachable", LDAPException.CONNECT_ERROR, null);
+        }).when(ldapConnection).connect(anyString(), anyInt());
+    }
+
+    private void fail(LDAPConnection ldapConnection) throws LDAPException
+    {
+        doThrow(new LDAPException("Refused", LDAPException.CONNECT_ERROR, null)).when(ldapConnection)
+            .connect(anyString(), anyInt());
+    }
+
+    @Test
+    public void startNextAttemptAfterStagger() throws LDAPException
+    {
+        when(this.configuration.getConnectStagger()).thenReturn(50L);
+        block(this.connection1);
+
+        assertSame(this.connection2, this.connection.connect(SERVERS, false, null));
+
+        verify(this.connection2, never()).disconnect();
+
+        // The loser is closed as soon as it's done
+        verify(this.connection1, never()).disconnect();
+        this.unblock.countDown();
+        verify(this.connection1, timeout(5000)).disconnect();
+    }
+
+    @Test
+    public void startNextAttemptAfterFailure() throws LDAPException
+    {
+        when(this.configuration.getConnectParallelism()).thenReturn(1);
+        // Would make the test time out if the failure did not trigger the next attempt
+        when(this.configuration.getConnectStagger()).thenReturn(60000L);
+        fail(this.connection1);
+
+        assertSame(this.connection2, this.connection.connect(SERVERS, false, null));
+
+        verify(this.connection1).connect("server1", 389);
+        verify(this.connection2).connect("server2", 389);
+    }
+
+    @Test
+    public void abandonTimedOutAttempt() throws LDAPException
+    {
+        when(this.configuration.getConnectParallelism()).thenReturn(1);
+        when(this.configuration.getConnectStagger()).thenReturn(60000L);
+        when(this.configuration.getConnectTimeout()).thenReturn(100L);
+        block(this.connection1);
+
+        assertSame(this.connection2, this.connection.connect(SERVERS, false, null));
+
+        this.unblock.countDown();
+        verify(this.connection1, timeout(5000)).disconnect();
+        verify(this.connection2, never()).disconnect();
+    }
+
+    @Test(expected = LDAPException.class)
+    public void allAttemptsFailed() throws LDAPException
+    {
+        fail(this.connection1);
+        fail(this.connection2);
+
+        this.connection.connect(SERVERS, false, null);
+    }
+
+    @Test
+    public void connectFromCurrentThreadWhenNoThreadAvailable() throws LDAPException
+    {
+        when(this.configuration.getConnectThreads()).thenReturn(1);
+        block(this.connection1);
+
+        Thread currentThread = Thread.currentThread();
+        doAnswer(invocation -> {
+            assertSame(currentThread, Thread.currentThread());
+
+            return null;
+        }).when(this.connection2).connect(anyString(), anyInt());
+
+        assertSame(this.connection2, this.connection.connect(SERVERS, false, null));
+    }
+
+    @Test
+    public void noConnectThreads() throws LDAPException
+    {
+        when(this.configuration.getConnectThreads()).thenReturn(0);
+
+        assertSame(this.connection1,
+            this.connection.connect(Collections.singletonList(SERVERS.get(0)), false, null));
+    }
+}
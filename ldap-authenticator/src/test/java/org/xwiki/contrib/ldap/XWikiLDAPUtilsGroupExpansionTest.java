@@ -0,0 +1,184 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.contrib.ldap.internal.LDAPExecutors;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPAttributeSet;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+import com.xpn.xwiki.XWikiContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyBoolean;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate the resolution of the members of a group hierarchy by {@link XWikiLDAPUtils}.
+ *
+ * @version $Id$
+ */
+public class XWikiLDAPUtilsGroupExpansionTest
+{
+    private static final String GROUP1_DN = "cn=group1,o=sevenSeas";
+
+    private static final String GROUP2_DN = "cn=group2,o=sevenSeas";
+
+    private static final String GROUP3_DN = "cn=group3,o=sevenSeas";
+
+    private static final String USER1_DN = "cn=user1,o=sevenSeas";
+
+    private static final String USER2_DN = "cn=user2,o=sevenSeas";
+
+    private static final String USER3_DN = "cn=user3,o=sevenSeas";
+
+    private XWikiLDAPConnection connection;
+
+    private XWikiLDAPConfig configuration;
+
+    private XWikiLDAPUtils ldapUtils;
+
+    private LDAPExecutors executors;
+
+    private final ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+
+    @Before
+    public void before() throws LDAPException
+    {
+        this.connection = mock(XWikiLDAPConnection.class);
+
+        this.executors = mock(LDAPExecutors.class);
+        when(this.executors.getForkJoinPool(anyInt())).thenReturn(this.forkJoinPool);
+        when(this.connection.getExecutors()).thenReturn(this.executors);
+
+        this.configuration = mock(XWikiLDAPConfig.class);
+
+        this.ldapUtils = new XWikiLDAPUtils(this.connection, this.configuration);
+        this.ldapUtils.setUidAttributeName("cn");
+        this.ldapUtils.setBaseDN("o=sevenSeas");
+
+        // A hierarchy with a loop and a user reachable through several paths
+        mockGroup(GROUP1_DN, GROUP2_DN, USER1_DN);
+        mockGroup(GROUP2_DN, GROUP1_DN, USER2_DN, GROUP3_DN);
+        mockGroup(GROUP3_DN, USER1_DN, USER3_DN);
+        mockUser(USER1_DN, "user1");
+        mockUser(USER2_DN, "user2");
+        mockUser(USER3_DN, "user3");
+    }
+
+    @After
+    public void after()
+    {
+        this.forkJoinPool.shutdownNow();
+    }
+
+    private void mockGroup(String dn, String... members) throws LDAPException
+    {
+        LDAPAttributeSet attributes = new LDAPAttributeSet();
+        attributes.add(new LDAPAttribute("objectClass", "groupOfNames"));
+        attributes.add(new LDAPAttribute("member", members));
+
+        mockEntry(new LDAPEntry(dn, attributes));
+    }
+
+    private void mockUser(String dn, String uid) throws LDAPException
+    {
+        LDAPAttributeSet attributes = new LDAPAttributeSet();
+        attributes.add(new LDAPAttribute("objectClass", "inetOrgPerson"));
+        attributes.add(new LDAPAttribute("cn", uid));
+
+        mockEntry(new LDAPEntry(dn, attributes));
+    }
+
+    private void mockEntry(LDAPEntry entry) throws LDAPException
+    {
+        when(this.connection.searchPaginated(eq(entry.getDN()), eq(LDAPConnection.SCOPE_SUB), any(), any(),
+            anyBoolean())).thenAnswer(invocation -> {
+                PagedLDAPSearchResults result = mock(PagedLDAPSearchResults.class);
+                when(result.hasMore()).thenReturn(true, false);
+                when(result.next()).thenReturn(entry);
+
+                return result;
+            });
+    }
+
+    private void assertGroup1Members(Map<String, String> members, List<String> subgroups)
+    {
+        Map<String, String> expected = new HashMap<>();
+        expected.put(USER1_DN, "user1");
+        expected.put(USER2_DN, "user2");
+        expected.put(USER3_DN, "user3");
+        assertEquals(expected, members);
+
+        assertEquals(3, subgroups.size());
+        assertEquals(new HashSet<>(Arrays.asList(GROUP1_DN, GROUP2_DN, GROUP3_DN)), new HashSet<>(subgroups));
+    }
+
+    @Test
+    public void resolveInParallel() throws LDAPException
+    {
+        when(this.configuration.getGroupExpansionParallelism()).thenReturn(4);
+
+        Map<String, String> members = new HashMap<>();
+        List<String> subgroups = new ArrayList<>();
+        assertTrue(this.ldapUtils.resolveGroupMembers(GROUP1_DN, members, subgroups, mock(XWikiContext.class)));
+
+        assertGroup1Members(members, subgroups);
+
+        verify(this.executors).getForkJoinPool(4);
+
+        // Each entry is searched only once, whatever the number of paths leading to it
+        for (String dn : Arrays.asList(GROUP1_DN, GROUP2_DN, GROUP3_DN, USER1_DN, USER2_DN, USER3_DN)) {
+            verify(this.connection).searchPaginated(eq(dn), anyInt(), any(), any(), anyBoolean());
+        }
+    }
+
+    @Test
+    public void resolveSerially() throws LDAPException
+    {
+        Map<String, String> members = new HashMap<>();
+        List<String> subgroups = new ArrayList<>();
+        assertTrue(this.ldapUtils.resolveGroupMembers(GROUP1_DN, members, subgroups, mock(XWikiContext.class)));
+
+        assertGroup1Members(members, subgroups);
+
+        verify(this.executors, never()).getForkJoinPool(anyInt());
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.contrib.ldap.internal.LDAPGroupMembers;
+import org.xwiki.contrib.ldap.internal.LDAPGroupsCache;
+import org.xwiki.contrib.ldap.internal.LDAPGroupsWatermark;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPAttributeSet;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.web.Utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyBoolean;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate the refresh of the cached groups modified in the LDAP server by {@link XWikiLDAPUtils}.
+ *
+ * @version $Id$
+ */
+public class XWikiLDAPUtilsGroupsWatermarkTest
+{
+    private static final String BASE_DN = "o=sevenseas";
+
+    private static final String GROUP1_DN = "cn=group1,o=sevenseas";
+
+    private static final String GROUP2_DN = "cn=group2,o=sevenseas";
+
+    private static final String GROUP3_DN = "cn=group3,o=sevenseas";
+
+    private static final String PARENT_DN = "cn=parent,o=sevenseas";
+
+    private static final String TIME1 = "20261017120000Z";
+
+    private static final String TIME2 = "20261017130000Z";
+
+    @Rule
+    public MockitoComponentManagerRule mocker = new MockitoComponentManagerRule();
+
+    private XWikiLDAPConnection connection;
+
+    private XWikiLDAPConfig configuration;
+
+    private LDAPGroupsCache caches;
+
+    private XWikiLDAPUtils ldapUtils;
+
+    private XWikiContext context;
+
+    @Before
+    public void before() throws Exception
+    {
+        this.caches = this.mocker.registerMockComponent(LDAPGroupsCache.class);
+        Utils.setComponentManager(this.mocker);
+
+        this.connection = mock(XWikiLDAPConnection.class);
+
+        this.configuration = mock(XWikiLDAPConfig.class);
+        when(this.configuration.getCacheWatermarkAttribute()).thenReturn("modifyTimestamp");
+
+        this.ldapUtils = spy(new XWikiLDAPUtils(this.connection, this.configuration));
+        this.ldapUtils.setUidAttributeName("cn");
+        this.ldapUtils.setBaseDN(BASE_DN);
+
+        this.context = mock(XWikiContext.class);
+    }
+
+    private void mockWatermark(String value, String... groups)
+    {
+        when(this.caches.getWatermark(this.ldapUtils))
+            .thenReturn(new LDAPGroupsWatermark(value, new HashSet<>(Arrays.asList(groups))));
+    }
+
+    private void mockModifiedGroups(String... dnValues) throws LDAPException
+    {
+        LDAPEntry[] entries = new LDAPEntry[dnValues.length / 2];
+        for (int i = 0; i < entries.length; ++i) {
+            LDAPAttributeSet attributes = new LDAPAttributeSet();
+            attributes.add(new LDAPAttribute(this.configuration.getCacheWatermarkAttribute(), dnValues[i * 2 + 1]));
+            entries[i] = new LDAPEntry(dnValues[i * 2], attributes);
+        }
+
+        // One true for each entry, then false
+        Boolean[] hasMore = new Boolean[entries.length];
+        Arrays.fill(hasMore, true);
+        hasMore[entries.length - 1] = false;
+
+        PagedLDAPSearchResults result = mock(PagedLDAPSearchResults.class);
+        when(result.hasMore()).thenReturn(true, hasMore);
+        when(result.next()).thenReturn(entries[0], Arrays.copyOfRange(entries, 1, entries.length));
+
+        when(this.connection.searchPaginated(eq(BASE_DN), eq(LDAPConnection.SCOPE_SUB), anyString(), any(),
+            anyBoolean())).thenReturn(result);
+    }
+
+    private LDAPGroupsWatermark captureWatermark()
+    {
+        ArgumentCaptor<LDAPGroupsWatermark> captor = ArgumentCaptor.forClass(LDAPGroupsWatermark.class);
+        verify(this.caches).setWatermark(eq(this.ldapUtils), captor.capture());
+
+        return captor.getValue();
+    }
+
+    @Test
+    public void firstRunStartsFromNow() throws Exception
+    {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        long before = System.currentTimeMillis();
+        this.ldapUtils.refreshChangedGroupsFromLDAP(this.context);
+        long after = System.currentTimeMillis();
+
+        // Nothing to compare with yet
+        verify(this.connection, never()).searchPaginated(anyString(), anyInt(), anyString(), any(), anyBoolean());
+
+        LDAPGroupsWatermark watermark = captureWatermark();
+
+        // With a margin for the clocks differences between XWiki and the LDAP server
+        long time = format.parse(watermark.getValue()).getTime();
+        assertTrue(time >= before - TimeUnit.MINUTES.toMillis(5) - 1000);
+        assertTrue(time <= after - TimeUnit.MINUTES.toMillis(5));
+        assertTrue(watermark.getGroups().isEmpty());
+    }
+
+    @Test
+    public void firstRunStartsFromHighestCommittedUSN() throws Exception
+    {
+        when(this.configuration.getCacheWatermarkAttribute()).thenReturn("uSNChanged");
+
+        LDAPAttributeSet attributes = new LDAPAttributeSet();
+        attributes.add(new LDAPAttribute("highestCommittedUSN", "12345"));
+        LDAPConnection ldapConnection = mock(LDAPConnection.class);
+        when(ldapConnection.read(eq(""), any(String[].class))).thenReturn(new LDAPEntry("", attributes));
+        when(this.connection.getConnection()).thenReturn(ldapConnection);
+
+        this.ldapUtils.refreshChangedGroupsFromLDAP(this.context);
+
+        assertEquals("12345", captureWatermark().getValue());
+    }
+
+    @Test
+    public void searchFromWatermark() throws Exception
+    {
+        mockWatermark(TIME1, GROUP1_DN);
+        mockModifiedGroups(GROUP1_DN, TIME1, GROUP2_DN, TIME1, GROUP3_DN, TIME2);
+
+        this.ldapUtils.refreshChangedGroupsFromLDAP(this.context);
+
+        ArgumentCaptor<String> filter = ArgumentCaptor.forClass(String.class);
+        verify(this.connection).searchPaginated(eq(BASE_DN), eq(LDAPConnection.SCOPE_SUB), filter.capture(), any(),
+            anyBoolean());
+        assertTrue(filter.getValue().contains("(modifyTimestamp>=" + TIME1 + ")"));
+
+        // The first group was already taken into account, the second one has been modified at the same time
+        verify(this.caches).getGroupKeys(this.ldapUtils, new HashSet<>(Arrays.asList(GROUP2_DN, GROUP3_DN)));
+
+        LDAPGroupsWatermark watermark = captureWatermark();
+        assertEquals(TIME2, watermark.getValue());
+        assertEquals(Collections.singleton(GROUP3_DN), watermark.getGroups());
+    }
+
+    @Test
+    public void sameValue() throws Exception
+    {
+        mockWatermark(TIME1, GROUP1_DN);
+        mockModifiedGroups(GROUP1_DN, TIME1, GROUP2_DN, TIME1);
+
+        this.ldapUtils.refreshChangedGroupsFromLDAP(this.context);
+
+        verify(this.caches).getGroupKeys(this.ldapUtils, Collections.singleton(GROUP2_DN));
+
+        // Both groups are now known for that value
+        LDAPGroupsWatermark watermark = captureWatermark();
+        assertEquals(TIME1, watermark.getValue());
+        assertEquals(new HashSet<>(Arrays.asList(GROUP1_DN, GROUP2_DN)), watermark.getGroups());
+    }
+
+    @Test
+    public void nothingChanged() throws Exception
+    {
+        mockWatermark(TIME1, GROUP1_DN);
+        mockModifiedGroups(GROUP1_DN, TIME1);
+
+        this.ldapUtils.refreshChangedGroupsFromLDAP(this.context);
+
+        verify(this.caches, never()).getGroupKeys(any(), any());
+
+        LDAPGroupsWatermark watermark = captureWatermark();
+        assertEquals(TIME1, watermark.getValue());
+        assertEquals(Collections.singleton(GROUP1_DN), watermark.getGroups());
+    }
+
+    @Test
+    public void numericWatermark() throws Exception
+    {
+        when(this.configuration.getCacheWatermarkAttribute()).thenReturn("uSNChanged");
+        mockWatermark("999", GROUP1_DN);
+        mockModifiedGroups(GROUP2_DN, "1000");
+
+        this.ldapUtils.refreshChangedGroupsFromLDAP(this.context);
+
+        // Compared as numbers and not as strings
+        LDAPGroupsWatermark watermark = captureWatermark();
+        assertEquals("1000", watermark.getValue());
+        assertEquals(Collections.singleton(GROUP2_DN), watermark.getGroups());
+    }
+
+    @Test
+    public void reloadParentGroups() throws Exception
+    {
+        mockWatermark(TIME1, GROUP1_DN);
+        mockModifiedGroups(GROUP2_DN, TIME2);
+
+        // The modified group is a subgroup of a cached group
+        when(this.caches.getGroupKeys(this.ldapUtils, Collections.singleton(GROUP2_DN)))
+            .thenReturn(new HashSet<>(Arrays.asList(GROUP2_DN, PARENT_DN)));
+        doReturn(true).when(this.ldapUtils).resolveGroupMembers(anyString(), any(), any(), any());
+        Map<String, String> members = Collections.singletonMap("cn=new,o=sevenseas", "new");
+        when(this.caches.createGroupMembers(eq(this.ldapUtils), any(), any()))
+            .thenReturn(new LDAPGroupMembers(members));
+        when(this.caches.setGroupMembers(eq(this.ldapUtils), eq(PARENT_DN), any()))
+            .thenReturn(Collections.singletonMap("cn=old,o=sevenseas", "old"));
+
+        this.ldapUtils.refreshChangedGroupsFromLDAP(this.context);
+
+        verify(this.ldapUtils).resolveGroupMembers(eq(GROUP2_DN), any(), any(), eq(this.context));
+        verify(this.ldapUtils).resolveGroupMembers(eq(PARENT_DN), any(), any(), eq(this.context));
+        verify(this.caches).setGroupMembers(eq(this.ldapUtils), eq(PARENT_DN), eq(members));
+
+        // The cached groups of the added and removed members are forgotten
+        verify(this.caches).removeMemberships(this.ldapUtils,
+            new HashSet<>(Arrays.asList("cn=new,o=sevenseas", "cn=old,o=sevenseas")));
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPAttributeSet;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+import com.xpn.xwiki.XWikiContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyBoolean;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate the membership checks of {@link XWikiLDAPUtils} relying on the Active Directory
+ * LDAP_MATCHING_RULE_IN_CHAIN matching rule.
+ *
+ * @version $Id$
+ */
+public class XWikiLDAPUtilsInChainTest
+{
+    private static final String BASE_DN = "o=sevenSeas";
+
+    private static final String USER_DN = "cn=user,o=sevenSeas";
+
+    private static final String GROUP_DN = "cn=group,o=sevenSeas";
+
+    private static final String OU_DN = "ou=people,o=sevenSeas";
+
+    private static final String OU_USER_DN = "cn=user,ou=people,o=sevenSeas";
+
+    private XWikiLDAPConnection connection;
+
+    private XWikiLDAPUtils ldapUtils;
+
+    private XWikiContext context;
+
+    @Before
+    public void before() throws LDAPException
+    {
+        this.connection = mock(XWikiLDAPConnection.class);
+
+        XWikiLDAPConfig configuration = mock(XWikiLDAPConfig.class);
+        when(configuration.getGroupResolution()).thenReturn(XWikiLDAPConfig.GROUP_RESOLUTION_MATCHING_RULE_IN_CHAIN);
+
+        this.ldapUtils = spy(new XWikiLDAPUtils(this.connection, configuration));
+        this.ldapUtils.setUidAttributeName("cn");
+        this.ldapUtils.setBaseDN(BASE_DN);
+
+        this.context = mock(XWikiContext.class);
+
+        // The in chain searches don't find anything by default
+        PagedLDAPSearchResults empty = mock(PagedLDAPSearchResults.class);
+        when(this.connection.searchPaginated(anyString(), anyInt(), anyString(), any(), anyBoolean()))
+            .thenReturn(empty);
+
+        mockEntry(GROUP_DN, "groupOfUniqueNames");
+        mockEntry(OU_DN, "organizationalUnit");
+
+        // The members found when expanding the organizational unit
+        doReturn(Collections.singletonMap(OU_USER_DN.toLowerCase(), "user")).when(this.ldapUtils)
+            .getGroupMembers(OU_DN, this.context);
+    }
+
+    private void mockEntry(String dn, String objectClass) throws LDAPException
+    {
+        LDAPAttributeSet attributes = new LDAPAttributeSet();
+        attributes.add(new LDAPAttribute("objectClass", objectClass));
+
+        when(this.connection.searchAsync(eq(dn), eq(LDAPConnection.SCOPE_BASE), any(), any(), anyInt()))
+            .thenReturn(CompletableFuture.completedFuture(Arrays.asList(new LDAPEntry(dn, attributes))));
+    }
+
+    private void mockInChainResult(String base, String dn) throws LDAPException
+    {
+        when(this.connection.searchPaginated(eq(base), anyInt(), anyString(), any(), anyBoolean()))
+            .thenAnswer(invocation -> {
+                PagedLDAPSearchResults result = mock(PagedLDAPSearchResults.class);
+                when(result.hasMore()).thenReturn(true, false);
+                when(result.next()).thenReturn(new LDAPEntry(dn));
+
+                return result;
+            });
+    }
+
+    @Test
+    public void member() throws Exception
+    {
+        mockInChainResult(USER_DN, USER_DN);
+
+        assertTrue(this.ldapUtils.isMemberOfGroup(USER_DN, GROUP_DN, this.context));
+        assertEquals(USER_DN, this.ldapUtils.isInGroup(null, USER_DN, GROUP_DN, this.context));
+
+        verify(this.ldapUtils, never()).getGroupMembers(anyString(), any(XWikiContext.class));
+    }
+
+    @Test
+    public void notMember() throws Exception
+    {
+        assertFalse(this.ldapUtils.isMemberOfGroup(USER_DN, GROUP_DN, this.context));
+        assertNull(this.ldapUtils.isInGroup(null, USER_DN, GROUP_DN, this.context));
+        assertNull(this.ldapUtils.isUidInGroup("user", GROUP_DN, this.context));
+
+        // The group is a group so the in chain search is enough
+        verify(this.ldapUtils, never()).getGroupMembers(anyString(), any(XWikiContext.class));
+    }
+
+    @Test
+    public void uidMember() throws Exception
+    {
+        mockInChainResult(BASE_DN, USER_DN);
+
+        assertEquals(USER_DN, this.ldapUtils.isUidInGroup("user", GROUP_DN, this.context));
+    }
+
+    @Test
+    public void organizationalUnit() throws Exception
+    {
+        // The in chain matching rule does not know the members of an organizational unit
+        assertTrue(this.ldapUtils.isMemberOfGroup(OU_USER_DN, OU_DN, this.context));
+        assertEquals(OU_USER_DN, this.ldapUtils.isInGroup(null, OU_USER_DN, OU_DN, this.context));
+        assertEquals(OU_USER_DN.toLowerCase(), this.ldapUtils.isUidInGroup("user", OU_DN, this.context));
+
+        verify(this.ldapUtils, never()).getGroupMembers(GROUP_DN, this.context);
+    }
+}
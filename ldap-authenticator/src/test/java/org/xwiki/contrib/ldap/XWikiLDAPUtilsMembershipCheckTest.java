@@ -0,0 +1,171 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPAttributeSet;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+import com.xpn.xwiki.XWikiContext;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate the membership checks of {@link XWikiLDAPUtils} which don't retrieve all the members of the group.
+ *
+ * @version $Id$
+ */
+public class XWikiLDAPUtilsMembershipCheckTest
+{
+    private static final String USER_DN = "cn=user,o=sevenSeas";
+
+    private static final String GROUP_DN = "cn=group,o=sevenSeas";
+
+    private static final String PARENT_GROUP_DN = "cn=parent,o=sevenSeas";
+
+    private static final String OU_DN = "ou=people,o=sevenSeas";
+
+    private static final String OU_USER_DN = "cn=user,ou=people,o=sevenSeas";
+
+    private static final String MEMBEROF = "memberOf";
+
+    private static final String OBJECTCLASS = "objectClass";
+
+    private XWikiLDAPConnection connection;
+
+    private XWikiLDAPUtils ldapUtils;
+
+    @Before
+    public void before() throws LDAPException
+    {
+        this.connection = mock(XWikiLDAPConnection.class);
+
+        XWikiLDAPConfig configuration = mock(XWikiLDAPConfig.class);
+        when(configuration.isGroupMembershipCheck()).thenReturn(true);
+
+        this.ldapUtils = new XWikiLDAPUtils(this.connection, configuration);
+        this.ldapUtils.setResolveSubgroups(true);
+
+        when(this.connection.compareAsync(anyString(), anyString(), anyString()))
+            .thenReturn(CompletableFuture.completedFuture(false));
+    }
+
+    private void mockMemberOf(String dn, String... groups) throws LDAPException
+    {
+        LDAPAttributeSet attributes = new LDAPAttributeSet();
+        attributes.add(new LDAPAttribute(MEMBEROF, groups));
+
+        mockEntry(dn, attributes);
+    }
+
+    private void mockGroup(String dn, String... groups) throws LDAPException
+    {
+        LDAPAttributeSet attributes = new LDAPAttributeSet();
+        attributes.add(new LDAPAttribute(OBJECTCLASS, "groupOfUniqueNames"));
+        if (groups.length > 0) {
+            attributes.add(new LDAPAttribute(MEMBEROF, groups));
+        }
+
+        mockEntry(dn, attributes);
+    }
+
+    private void mockEntry(String dn, LDAPAttributeSet attributes) throws LDAPException
+    {
+        when(this.connection.searchAsync(eq(dn), eq(LDAPConnection.SCOPE_BASE), any(), any(), anyInt()))
+            .thenReturn(CompletableFuture.completedFuture(Arrays.asList(new LDAPEntry(dn, attributes))));
+    }
+
+    @Test
+    public void directMember() throws Exception
+    {
+        when(this.connection.compareAsync(GROUP_DN, "member", USER_DN))
+            .thenReturn(CompletableFuture.completedFuture(true));
+
+        assertTrue(this.ldapUtils.isMemberOfGroup(USER_DN, GROUP_DN, mock(XWikiContext.class)));
+
+        verify(this.connection, never()).searchAsync(anyString(), anyInt(), any(), any(), anyInt());
+    }
+
+    @Test
+    public void nestedMember() throws Exception
+    {
+        mockMemberOf(USER_DN, GROUP_DN);
+        mockGroup(GROUP_DN, PARENT_GROUP_DN);
+        mockGroup(PARENT_GROUP_DN);
+
+        assertTrue(this.ldapUtils.isMemberOfGroup(USER_DN, PARENT_GROUP_DN, mock(XWikiContext.class)));
+    }
+
+    @Test
+    public void notMember() throws Exception
+    {
+        mockMemberOf(USER_DN, GROUP_DN);
+        mockGroup(GROUP_DN, GROUP_DN);
+        mockGroup(PARENT_GROUP_DN);
+
+        assertFalse(this.ldapUtils.isMemberOfGroup(USER_DN, PARENT_GROUP_DN, mock(XWikiContext.class)));
+    }
+
+    @Test
+    public void notDirectMemberWithoutSubgroups() throws Exception
+    {
+        this.ldapUtils.setResolveSubgroups(false);
+        mockMemberOf(USER_DN, GROUP_DN);
+        mockGroup(PARENT_GROUP_DN);
+
+        assertFalse(this.ldapUtils.isMemberOfGroup(USER_DN, PARENT_GROUP_DN, mock(XWikiContext.class)));
+    }
+
+    @Test
+    public void organizationalUnit() throws Exception
+    {
+        LDAPAttributeSet attributes = new LDAPAttributeSet();
+        attributes.add(new LDAPAttribute(OBJECTCLASS, "organizationalUnit"));
+        mockEntry(OU_DN, attributes);
+
+        // The members of an organizational unit are found by expanding it
+        XWikiContext context = mock(XWikiContext.class);
+        XWikiLDAPUtils utils = spy(this.ldapUtils);
+        doReturn(Collections.singletonMap(OU_USER_DN.toLowerCase(), "user")).when(utils).getGroupMembers(OU_DN, context);
+
+        assertTrue(utils.isMemberOfGroup(OU_USER_DN, OU_DN, context));
+
+        verify(utils).getGroupMembers(OU_DN, context);
+    }
+}
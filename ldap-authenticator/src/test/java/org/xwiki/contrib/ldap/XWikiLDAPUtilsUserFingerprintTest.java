@@ -0,0 +1,223 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate the skipping of the LDAP users which did not change since their last synchronization by
+ * {@link XWikiLDAPUtils}.
+ *
+ * @version $Id$
+ */
+public class XWikiLDAPUtilsUserFingerprintTest
+{
+    private static final String USER_DN = "cn=user,o=sevenSeas";
+
+    private XWikiLDAPConfig configuration;
+
+    private XWikiLDAPUtils ldapUtils;
+
+    private XWikiContext context;
+
+    private final Map<String, String> mappings = new HashMap<>();
+
+    @Before
+    public void before() throws Exception
+    {
+        this.configuration = mock(XWikiLDAPConfig.class);
+        when(this.configuration.getUserFingerprint()).thenReturn(XWikiLDAPConfig.USER_FINGERPRINT_DIGEST);
+        when(this.configuration.getUserMappings(any())).thenAnswer(invocation -> new HashMap<>(this.mappings));
+        when(this.configuration.getLDAPParam(anyString(), anyString()))
+            .thenAnswer(invocation -> invocation.getArguments()[1]);
+        when(this.configuration.getLDAPParam(eq("ldap_update_user"), anyString(), any(XWikiContext.class)))
+            .thenReturn("1");
+
+        this.mappings.put("givenname", "first_name");
+        this.mappings.put("sn", "last_name");
+        this.mappings.put("mail", "email");
+
+        this.ldapUtils = spy(new XWikiLDAPUtils(mock(XWikiLDAPConnection.class), this.configuration));
+        doNothing().when(this.ldapUtils).updateUserFromLDAP(any(), any(), any(), any(), any());
+
+        this.context = mock(XWikiContext.class);
+    }
+
+    private static List<XWikiLDAPSearchAttribute> attributes(String... nameValues)
+    {
+        XWikiLDAPSearchAttribute[] attributes = new XWikiLDAPSearchAttribute[nameValues.length / 2];
+        for (int i = 0; i < attributes.length; ++i) {
+            attributes[i] = new XWikiLDAPSearchAttribute(nameValues[i * 2], nameValues[i * 2 + 1]);
+        }
+
+        return Arrays.asList(attributes);
+    }
+
+    private XWikiDocument userProfile(String fingerprint)
+    {
+        BaseObject ldapObject = mock(BaseObject.class);
+        when(ldapObject.getStringValue(LDAPProfileXClass.LDAP_XFIELD_FINGERPRINT))
+            .thenReturn(fingerprint != null ? fingerprint : "");
+
+        XWikiDocument userProfile = mock(XWikiDocument.class);
+        when(userProfile.getXObject(LDAPProfileXClass.LDAPPROFILECLASS_REFERENCE)).thenReturn(ldapObject);
+
+        return userProfile;
+    }
+
+    @Test
+    public void skipUnchangedUser() throws Exception
+    {
+        List<XWikiLDAPSearchAttribute> attributes = attributes("givenName", "John", "sn", "Doe");
+        XWikiDocument userProfile = userProfile(this.ldapUtils.getUserFingerprint(attributes, USER_DN));
+
+        this.ldapUtils.syncUser(userProfile, attributes, USER_DN, "user", this.context);
+
+        verify(this.ldapUtils, never()).updateUserFromLDAP(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    public void updateChangedUser() throws Exception
+    {
+        XWikiDocument userProfile =
+            userProfile(this.ldapUtils.getUserFingerprint(attributes("givenName", "John", "sn", "Doe"), USER_DN));
+        List<XWikiLDAPSearchAttribute> attributes = attributes("givenName", "Jane", "sn", "Doe");
+
+        this.ldapUtils.syncUser(userProfile, attributes, USER_DN, "user", this.context);
+
+        verify(this.ldapUtils).updateUserFromLDAP(userProfile, attributes, USER_DN, "user", this.context);
+    }
+
+    @Test
+    public void updateUserWithoutFingerprint() throws Exception
+    {
+        XWikiDocument userProfile = userProfile(null);
+        List<XWikiLDAPSearchAttribute> attributes = attributes("givenName", "John", "sn", "Doe");
+
+        this.ldapUtils.syncUser(userProfile, attributes, USER_DN, "user", this.context);
+
+        verify(this.ldapUtils).updateUserFromLDAP(userProfile, attributes, USER_DN, "user", this.context);
+    }
+
+    @Test
+    public void digestIgnoresOrder()
+    {
+        assertEquals(
+            this.ldapUtils.getUserFingerprint(attributes("givenName", "John", "sn", "Doe", "mail", "a@b.c"), USER_DN),
+            this.ldapUtils.getUserFingerprint(attributes("mail", "a@b.c", "sn", "Doe", "givenName", "John"), USER_DN));
+
+        // Multiple values of the same attribute
+        assertEquals(
+            this.ldapUtils.getUserFingerprint(attributes("mail", "a@b.c", "mail", "d@e.f"), USER_DN),
+            this.ldapUtils.getUserFingerprint(attributes("mail", "d@e.f", "mail", "a@b.c"), USER_DN));
+    }
+
+    @Test
+    public void digestIgnoresNotSynchronizedAttributes()
+    {
+        assertEquals(this.ldapUtils.getUserFingerprint(attributes("givenName", "John", "sn", "Doe"), USER_DN),
+            this.ldapUtils.getUserFingerprint(attributes("givenName", "John", "sn", "Doe", "description", "other"),
+                USER_DN));
+    }
+
+    @Test
+    public void digestChangesWithMapping()
+    {
+        List<XWikiLDAPSearchAttribute> attributes = attributes("givenName", "John", "sn", "Doe");
+
+        String fingerprint = this.ldapUtils.getUserFingerprint(attributes, USER_DN);
+
+        this.mappings.put("sn", "first_name");
+        this.mappings.put("givenname", "last_name");
+
+        assertNotEquals(fingerprint, this.ldapUtils.getUserFingerprint(attributes, USER_DN));
+    }
+
+    @Test
+    public void digestChangesWithDN()
+    {
+        List<XWikiLDAPSearchAttribute> attributes = attributes("givenName", "John", "sn", "Doe");
+
+        assertNotEquals(this.ldapUtils.getUserFingerprint(attributes, USER_DN),
+            this.ldapUtils.getUserFingerprint(attributes, "cn=other,o=sevenSeas"));
+    }
+
+    @Test
+    public void attribute()
+    {
+        when(this.configuration.getUserFingerprint()).thenReturn("modifyTimestamp");
+
+        String fingerprint = this.ldapUtils.getUserFingerprint(
+            attributes("givenName", "John", "modifyTimestamp", "20261017120000Z"), USER_DN);
+
+        assertNotNull(fingerprint);
+
+        // Only the configured attribute matters
+        assertEquals(fingerprint, this.ldapUtils.getUserFingerprint(
+            attributes("givenName", "Jane", "modifytimestamp", "20261017120000Z"), USER_DN));
+        assertNotEquals(fingerprint, this.ldapUtils.getUserFingerprint(
+            attributes("givenName", "John", "modifyTimestamp", "20261017130000Z"), USER_DN));
+
+        // But the way the user is synchronized too
+        this.mappings.remove("mail");
+        assertNotEquals(fingerprint, this.ldapUtils.getUserFingerprint(
+            attributes("givenName", "John", "modifyTimestamp", "20261017120000Z"), USER_DN));
+    }
+
+    @Test
+    public void attributeMissing()
+    {
+        when(this.configuration.getUserFingerprint()).thenReturn("uSNChanged");
+
+        assertNull(this.ldapUtils.getUserFingerprint(attributes("givenName", "John"), USER_DN));
+    }
+
+    @Test
+    public void disabled()
+    {
+        when(this.configuration.getUserFingerprint()).thenReturn("");
+
+        assertNull(this.ldapUtils.getUserFingerprint(attributes("givenName", "John"), USER_DN));
+    }
+}
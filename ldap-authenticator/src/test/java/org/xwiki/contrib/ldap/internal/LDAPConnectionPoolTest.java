@@ -0,0 +1,198 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.contrib.ldap.internal.LDAPConnectionPool.PooledConnection;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPException;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link LDAPConnectionPool}.
+ *
+ * @version $Id$
+ */
+public class LDAPConnectionPoolTest
+{
+    private static final String KEY = LDAPConnectionPool.createKey("host", 389, false, null, false, "cn=admin", "pass");
+
+    private static final String BIND_DN = "cn=admin";
+
+    @Rule
+    public MockitoComponentMockingRule<LDAPConnectionPool> mocker =
+        new MockitoComponentMockingRule<>(LDAPConnectionPool.class);
+
+    private LDAPConnectionPool.Settings settings;
+
+    @Before
+    public void before() throws Exception
+    {
+        LDAPExecutors executors = this.mocker.getInstance(LDAPExecutors.class);
+        when(executors.getScheduler()).thenReturn(mock(ScheduledExecutorService.class));
+
+        XWikiLDAPConfig configuration = mock(XWikiLDAPConfig.class);
+        when(configuration.getConnectionPoolMaxSize()).thenReturn(1);
+        when(configuration.getConnectionPoolMaxWait()).thenReturn(0L);
+        when(configuration.getConnectionPoolIdleTimeout()).thenReturn(300);
+        when(configuration.getConnectionPoolMaxLifetime()).thenReturn(3600);
+        when(configuration.isConnectionPoolValidateOnBorrow()).thenReturn(true);
+
+        this.settings = new LDAPConnectionPool.Settings(configuration);
+    }
+
+    private LDAPConnection mockConnection()
+    {
+        LDAPConnection connection = mock(LDAPConnection.class);
+        when(connection.isConnected()).thenReturn(true);
+        when(connection.isBound()).thenReturn(true);
+
+        return connection;
+    }
+
+    @Test
+    public void reuseReleasedConnection() throws Exception
+    {
+        LDAPConnection connection = mockConnection();
+
+        PooledConnection first =
+            this.mocker.getComponentUnderTest().borrow(KEY, BIND_DN, this.settings, () -> connection);
+        this.mocker.getComponentUnderTest().release(first, true);
+
+        PooledConnection second = this.mocker.getComponentUnderTest().borrow(KEY, BIND_DN, this.settings, () -> {
+            fail("Should have reused the idle connection");
+
+            return null;
+        });
+
+        assertSame(connection, second.getConnection());
+    }
+
+    @Test
+    public void discardNotReusableConnection() throws Exception
+    {
+        LDAPConnection connection1 = mockConnection();
+        LDAPConnection connection2 = mockConnection();
+
+        PooledConnection first =
+            this.mocker.getComponentUnderTest().borrow(KEY, BIND_DN, this.settings, () -> connection1);
+        this.mocker.getComponentUnderTest().release(first, false);
+
+        verify(connection1).disconnect();
+
+        PooledConnection second =
+            this.mocker.getComponentUnderTest().borrow(KEY, BIND_DN, this.settings, () -> connection2);
+
+        assertSame(connection2, second.getConnection());
+    }
+
+    @Test
+    public void replaceInvalidConnection() throws Exception
+    {
+        LDAPConnection connection1 = mockConnection();
+        when(connection1.read(anyString(), any(String[].class))).thenThrow(new LDAPException());
+        LDAPConnection connection2 = mockConnection();
+
+        PooledConnection first =
+            this.mocker.getComponentUnderTest().borrow(KEY, BIND_DN, this.settings, () -> connection1);
+        this.mocker.getComponentUnderTest().release(first, true);
+
+        PooledConnection second =
+            this.mocker.getComponentUnderTest().borrow(KEY, BIND_DN, this.settings, () -> connection2);
+
+        assertNotSame(first, second);
+        assertSame(connection2, second.getConnection());
+    }
+
+    @Test
+    public void reuseNotBoundCredentialsConnection() throws Exception
+    {
+        LDAPConnection connection = mockConnection();
+        when(connection.isBound()).thenReturn(false);
+
+        PooledConnection first =
+            this.mocker.getComponentUnderTest().borrow(KEY, null, this.settings, () -> connection);
+        this.mocker.getComponentUnderTest().release(first, true);
+
+        PooledConnection second = this.mocker.getComponentUnderTest().borrow(KEY, null, this.settings, () -> {
+            fail("Should have reused the idle connection");
+
+            return null;
+        });
+
+        assertSame(connection, second.getConnection());
+    }
+
+    @Test(expected = LDAPException.class)
+    public void exhaustedPool() throws Exception
+    {
+        this.mocker.getComponentUnderTest().borrow(KEY, BIND_DN, this.settings, this::mockConnection);
+        this.mocker.getComponentUnderTest().borrow(KEY, BIND_DN, this.settings, this::mockConnection);
+    }
+
+    @Test
+    public void releaseAfterClear() throws Exception
+    {
+        LDAPConnection connection1 = mockConnection();
+        LDAPConnection connection2 = mockConnection();
+
+        PooledConnection first =
+            this.mocker.getComponentUnderTest().borrow(KEY, BIND_DN, this.settings, () -> connection1);
+
+        this.mocker.getComponentUnderTest().clear();
+
+        PooledConnection second =
+            this.mocker.getComponentUnderTest().borrow(KEY, BIND_DN, this.settings, () -> connection2);
+
+        // The connection of the cleared pool must not end up in the new one
+        this.mocker.getComponentUnderTest().release(first, true);
+
+        verify(connection1).disconnect();
+
+        try {
+            this.mocker.getComponentUnderTest().borrow(KEY, BIND_DN, this.settings, this::mockConnection);
+
+            fail("The new pool should not contain more than its maximum size");
+        } catch (LDAPException e) {
+            // expected
+        }
+
+        this.mocker.getComponentUnderTest().release(second, true);
+
+        assertSame(connection2,
+            this.mocker.getComponentUnderTest().borrow(KEY, BIND_DN, this.settings, this::mockConnection)
+                .getConnection());
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.securityfilter.realm.SimplePrincipal;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link LDAPCredentialsCache}.
+ *
+ * @version $Id$
+ */
+public class LDAPCredentialsCacheTest
+{
+    private static final String KEY = "xwiki:john";
+
+    @Rule
+    public MockitoComponentMockingRule<LDAPCredentialsCache> mocker =
+        new MockitoComponentMockingRule<>(LDAPCredentialsCache.class);
+
+    private XWikiLDAPConfig configuration;
+
+    @Before
+    public void before() throws Exception
+    {
+        Map<Object, Object> entries = new HashMap<>();
+        Cache<Object> cache = mock(Cache.class);
+        when(cache.get(anyString())).thenAnswer(invocation -> entries.get(invocation.getArguments()[0]));
+        doAnswer(invocation -> entries.put(invocation.getArguments()[0], invocation.getArguments()[1])).when(cache)
+            .set(anyString(), any());
+        doAnswer(invocation -> entries.remove(invocation.getArguments()[0])).when(cache).remove(anyString());
+
+        CacheManager cacheManager = this.mocker.getInstance(CacheManager.class);
+        when(cacheManager.createNewLocalCache(any())).thenReturn(cache);
+
+        this.configuration = mock(XWikiLDAPConfig.class);
+        when(this.configuration.getAuthCacheExpiration()).thenReturn(60);
+        when(this.configuration.getAuthCacheSize()).thenReturn(100);
+    }
+
+    @Test
+    public void samePassword() throws Exception
+    {
+        Principal principal = new SimplePrincipal("xwiki:XWiki.john");
+        LDAPCredentialsCache credentialsCache = this.mocker.getComponentUnderTest();
+
+        assertNull(credentialsCache.get(this.configuration, KEY, "secret"));
+
+        credentialsCache.set(this.configuration, KEY, "secret", principal);
+
+        assertSame(principal, credentialsCache.get(this.configuration, KEY, "secret"));
+    }
+
+    @Test
+    public void wrongPassword() throws Exception
+    {
+        LDAPCredentialsCache credentialsCache = this.mocker.getComponentUnderTest();
+
+        credentialsCache.set(this.configuration, KEY, "secret", new SimplePrincipal("xwiki:XWiki.john"));
+
+        assertNull(credentialsCache.get(this.configuration, KEY, "other"));
+
+        // The wrong password invalidated the cached authentication
+        assertNull(credentialsCache.get(this.configuration, KEY, "secret"));
+    }
+
+    @Test
+    public void disabled() throws Exception
+    {
+        when(this.configuration.getAuthCacheExpiration()).thenReturn(0);
+        LDAPCredentialsCache credentialsCache = this.mocker.getComponentUnderTest();
+
+        credentialsCache.set(this.configuration, KEY, "secret", new SimplePrincipal("xwiki:XWiki.john"));
+
+        assertNull(credentialsCache.get(this.configuration, KEY, "secret"));
+    }
+}
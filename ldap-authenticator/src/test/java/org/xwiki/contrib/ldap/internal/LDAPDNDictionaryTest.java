@@ -0,0 +1,78 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Validate {@link LDAPDNDictionary}.
+ *
+ * @version $Id$
+ */
+public class LDAPDNDictionaryTest
+{
+    private static final String DN = "cn=john,ou=people,o=sevenseas";
+
+    @Test
+    public void shareEntries()
+    {
+        LDAPDNDictionary dictionary = new LDAPDNDictionary();
+
+        LDAPGroupMembers group1 = new LDAPGroupMembers(dictionary, Collections.singletonMap(DN, "jdoe"));
+        LDAPGroupMembers group2 = new LDAPGroupMembers(dictionary, Collections.singletonMap(DN, "jdoe"));
+
+        assertEquals(1, dictionary.getSize());
+        assertEquals("jdoe", group1.get(DN));
+        assertEquals("jdoe", group2.get(DN));
+        assertEquals(Collections.singletonMap(DN, "jdoe"), group2);
+
+        group1.release();
+        group1.release();
+        assertEquals(0, dictionary.getUnused());
+
+        group2.release();
+        assertEquals(1, dictionary.getUnused());
+    }
+
+    @Test
+    public void grow()
+    {
+        LDAPDNDictionary dictionary = new LDAPDNDictionary();
+
+        int[] ids = new int[1000];
+        for (int i = 0; i < ids.length; ++i) {
+            ids[i] = dictionary.add(Collections.singletonMap("cn=user" + i + ",o=sevenseas", "user" + i))[0];
+        }
+
+        for (int i = 0; i < ids.length; ++i) {
+            assertEquals(ids[i], dictionary.getId("cn=user" + i + ",o=sevenseas"));
+            assertEquals(ids[i], dictionary.findUid("user" + i, ids));
+            assertEquals(ids[i], dictionary.findRDN("cn=user" + i, ids));
+        }
+
+        assertArrayEquals(new int[] {-1, -1},
+            new int[] {dictionary.getId("cn=other,o=sevenseas"), dictionary.findUid("user0", new int[0])});
+    }
+}
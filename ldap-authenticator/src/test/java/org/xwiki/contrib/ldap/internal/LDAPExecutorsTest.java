@@ -0,0 +1,64 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Validate {@link LDAPExecutors}.
+ *
+ * @version $Id$
+ */
+public class LDAPExecutorsTest
+{
+    private final LDAPExecutors executors = new LDAPExecutors();
+
+    @After
+    public void after() throws Exception
+    {
+        this.executors.dispose();
+    }
+
+    @Test
+    public void forkJoinPoolPerParallelism()
+    {
+        ForkJoinPool pool2 = this.executors.getForkJoinPool(2);
+
+        assertEquals(2, pool2.getParallelism());
+        assertSame(pool2, this.executors.getForkJoinPool(2));
+
+        ForkJoinPool pool3 = this.executors.getForkJoinPool(3);
+
+        assertEquals(3, pool3.getParallelism());
+        assertNotSame(pool2, pool3);
+
+        // A parallelism change must not stop the tasks using the previous pool
+        assertFalse(pool2.isShutdown());
+        assertSame(pool2, this.executors.getForkJoinPool(2));
+    }
+}
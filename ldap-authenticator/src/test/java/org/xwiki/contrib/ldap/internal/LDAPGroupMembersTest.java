@@ -0,0 +1,75 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Validate {@link LDAPGroupMembers}.
+ *
+ * @version $Id$
+ */
+public class LDAPGroupMembersTest
+{
+    private static final String JOHN_DN = "cn=john,ou=people,o=sevenseas";
+
+    private static final String JANE_DN = "uid=jane ,ou=people,o=sevenseas";
+
+    private LDAPGroupMembers createMembers()
+    {
+        Map<String, String> members = new HashMap<>();
+        members.put(JOHN_DN, "jdoe");
+        members.put(JANE_DN, null);
+
+        return new LDAPGroupMembers(members);
+    }
+
+    @Test
+    public void findUid()
+    {
+        LDAPGroupMembers members = createMembers();
+
+        assertEquals(JOHN_DN, members.findUid("uid", "JDoe"));
+        assertEquals(JANE_DN, members.findUid("uid", "Jane"));
+        assertNull(members.findUid("cn", "jane"));
+    }
+
+    @Test
+    public void findDN()
+    {
+        LDAPGroupMembers members = createMembers();
+
+        assertEquals(JOHN_DN, members.findDN("CN=John,OU=People,O=SevenSeas"));
+        assertEquals(JOHN_DN, members.findDN("cn=john, ou=people, o=sevenseas"));
+        assertNull(members.findDN("cn=jane,ou=people,o=sevenseas"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void immutable()
+    {
+        createMembers().put("cn=other", "other");
+    }
+}
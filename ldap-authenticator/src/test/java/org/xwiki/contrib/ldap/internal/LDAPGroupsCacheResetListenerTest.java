@@ -0,0 +1,65 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link LDAPGroupsCacheResetListener}.
+ *
+ * @version $Id$
+ */
+public class LDAPGroupsCacheResetListenerTest
+{
+    @Rule
+    public MockitoComponentMockingRule<LDAPGroupsCacheResetListener> mocker =
+        new MockitoComponentMockingRule<>(LDAPGroupsCacheResetListener.class);
+
+    @Test
+    public void remoteReset() throws Exception
+    {
+        when(this.mocker.getInstance(RemoteObservationManagerContext.class).isRemoteState()).thenReturn(true);
+
+        this.mocker.getComponentUnderTest().onEvent(new LDAPGroupsCacheResetEvent(), null, null);
+
+        // The reset received from the cluster should not be sent back to it
+        LDAPGroupsCache caches = this.mocker.getInstance(LDAPGroupsCache.class);
+        verify(caches).resetLocal();
+        verify(caches, never()).reset();
+    }
+
+    @Test
+    public void localReset() throws Exception
+    {
+        this.mocker.getComponentUnderTest().onEvent(new LDAPGroupsCacheResetEvent(), null, null);
+
+        // Already done by the code which sent the event
+        LDAPGroupsCache caches = this.mocker.getInstance(LDAPGroupsCache.class);
+        verify(caches, never()).resetLocal();
+        verify(caches, never()).reset();
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.contrib.ldap.XWikiLDAPConnection;
+import org.xwiki.contrib.ldap.XWikiLDAPUtils;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.novell.ldap.LDAPConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link LDAPGroupsCache}.
+ *
+ * @version $Id$
+ */
+public class LDAPGroupsCacheTest
+{
+    private static final String GROUP_DN = "cn=group,o=sevenseas";
+
+    @Rule
+    public MockitoComponentMockingRule<LDAPGroupsCache> mocker =
+        new MockitoComponentMockingRule<>(LDAPGroupsCache.class);
+
+    private XWikiLDAPUtils utils;
+
+    @Before
+    public void before() throws Exception
+    {
+        CacheManager cacheManager = this.mocker.getInstance(CacheManager.class);
+        when(cacheManager.<Map<String, String>>createNewCache(any())).thenReturn(mock(Cache.class));
+
+        LDAPConnection ldapConnection = mock(LDAPConnection.class);
+        when(ldapConnection.getHost()).thenReturn("host");
+        when(ldapConnection.getPort()).thenReturn(389);
+        XWikiLDAPConnection connection = mock(XWikiLDAPConnection.class);
+        when(connection.getConnection()).thenReturn(ldapConnection);
+
+        this.utils = mock(XWikiLDAPUtils.class);
+        when(this.utils.getUidAttributeName()).thenReturn("cn");
+        when(this.utils.getConnection()).thenReturn(connection);
+        when(this.utils.getConfiguration()).thenReturn(mock(XWikiLDAPConfig.class));
+    }
+
+    @Test
+    public void loadGroupOnce() throws Exception
+    {
+        Map<String, String> members = Collections.singletonMap("cn=john,o=sevenseas", "john");
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Map<String, String>> first =
+            CompletableFuture.supplyAsync(() -> getGroupMembers(() -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                await(release);
+
+                return members;
+            }));
+
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+
+        CompletableFuture<Map<String, String>> second = CompletableFuture.supplyAsync(() -> getGroupMembers(() -> {
+            loads.incrementAndGet();
+
+            return members;
+        }));
+
+        // Give the second thread a chance to reach the in-flight loading
+        Thread.sleep(100);
+        release.countDown();
+
+        assertSame(members, first.get(10, TimeUnit.SECONDS));
+        assertSame(members, second.get(10, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void notFound() throws Exception
+    {
+        when(this.utils.getConfiguration().getNegativeCacheExpiration()).thenReturn(60);
+        Cache<Boolean> cache = mock(Cache.class);
+        when(this.mocker.getInstance(CacheManager.class).<Boolean>createNewCache(any())).thenReturn(cache);
+
+        LDAPGroupsCache caches = this.mocker.getComponentUnderTest();
+
+        assertFalse(caches.isNotFound(this.utils, "uid:john"));
+
+        caches.setNotFound(this.utils, "uid:john");
+
+        verify(cache).set("uid:john", Boolean.TRUE);
+
+        when(cache.get("uid:john")).thenReturn(Boolean.TRUE);
+
+        assertTrue(caches.isNotFound(this.utils, "uid:john"));
+
+        Map<String, Long> statistics = caches.getStatistics().get("cn.host:389");
+        assertEquals(Long.valueOf(1), statistics.get("notFound"));
+        assertEquals(Long.valueOf(1), statistics.get("notFoundHits"));
+    }
+
+    @Test
+    public void rejectedRefresh() throws Exception
+    {
+        Cache<Map<String, String>> cache = mock(Cache.class);
+        when(this.mocker.getInstance(CacheManager.class).<Map<String, String>>createNewCache(any())).thenReturn(cache);
+
+        // Members which should be refreshed
+        Map<String, String> members = new LDAPGroupMembers(new LDAPDNDictionary(),
+            Collections.singletonMap("cn=john,o=sevenseas", "john"), Collections.emptySet(), 0, Long.MAX_VALUE);
+        when(cache.get(GROUP_DN)).thenReturn(members);
+
+        ExecutorService executor = mock(ExecutorService.class);
+        doThrow(RejectedExecutionException.class).when(executor).execute(any());
+        LDAPExecutors executors = this.mocker.getInstance(LDAPExecutors.class);
+        when(executors.getExecutor()).thenReturn(executor);
+
+        LDAPGroupsCache caches = this.mocker.getComponentUnderTest();
+
+        assertSame(members, caches.getGroupMembers(this.utils, GROUP_DN, () -> null, () -> members));
+
+        // The rejected refresh should not block the next loading of the group
+        Map<String, String> newMembers = Collections.singletonMap("cn=paul,o=sevenseas", "paul");
+        when(cache.get(GROUP_DN)).thenReturn(null);
+
+        CompletableFuture<Map<String, String>> loaded =
+            CompletableFuture.supplyAsync(() -> getGroupMembers(() -> newMembers));
+
+        assertSame(newMembers, loaded.get(10, TimeUnit.SECONDS));
+    }
+
+    private Cache<Map<String, String>> mockGroupCache() throws Exception
+    {
+        Cache<Map<String, String>> cache = mock(Cache.class);
+        when(this.mocker.getInstance(CacheManager.class).<Map<String, String>>createNewCache(any())).thenReturn(cache);
+
+        return cache;
+    }
+
+    private ExecutorService mockExecutor() throws Exception
+    {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        when(this.mocker.getInstance(LDAPExecutors.class).getExecutor()).thenReturn(executor);
+
+        return executor;
+    }
+
+    private static LDAPGroupMembers groupMembers(String uid, long refreshDate, long expirationDate)
+    {
+        return new LDAPGroupMembers(new LDAPDNDictionary(),
+            Collections.singletonMap("cn=" + uid + ",o=sevenseas", uid), Collections.emptySet(), refreshDate,
+            expirationDate);
+    }
+
+    @Test
+    public void refreshAfterSoftExpiration() throws Exception
+    {
+        Cache<Map<String, String>> cache = mockGroupCache();
+        ExecutorService executor = mockExecutor();
+
+        Map<String, String> members = groupMembers("john", 0, Long.MAX_VALUE);
+        when(cache.get(GROUP_DN)).thenReturn(members);
+        Map<String, String> refreshedMembers = groupMembers("paul", Long.MAX_VALUE, Long.MAX_VALUE);
+
+        LDAPGroupsCache caches = this.mocker.getComponentUnderTest();
+
+        // The cached members are returned right away and reloaded in the background
+        assertSame(members, caches.getGroupMembers(this.utils, GROUP_DN, () -> {
+            throw new AssertionError("Should not be loaded");
+        }, () -> refreshedMembers));
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        verify(cache).set(GROUP_DN, refreshedMembers);
+    }
+
+    @Test
+    public void reloadAfterHardExpiration() throws Exception
+    {
+        Cache<Map<String, String>> cache = mockGroupCache();
+
+        when(cache.get(GROUP_DN)).thenReturn(groupMembers("john", 0, 0));
+        Map<String, String> loadedMembers = groupMembers("paul", Long.MAX_VALUE, Long.MAX_VALUE);
+
+        LDAPGroupsCache caches = this.mocker.getComponentUnderTest();
+
+        // Expired members are never returned
+        assertSame(loadedMembers, caches.getGroupMembers(this.utils, GROUP_DN, () -> loadedMembers, () -> {
+            throw new AssertionError("Should not be refreshed");
+        }));
+
+        verify(cache).set(GROUP_DN, loadedMembers);
+    }
+
+    @Test
+    public void failedRefresh() throws Exception
+    {
+        Cache<Map<String, String>> cache = mockGroupCache();
+        mockExecutor();
+
+        Map<String, String> members = groupMembers("john", 0, Long.MAX_VALUE);
+        when(cache.get(GROUP_DN)).thenReturn(members);
+
+        CountDownLatch refreshing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Supplier<Map<String, String>> refresher = () -> {
+            refreshing.countDown();
+            await(release);
+
+            // For example when no connection could be opened
+            return null;
+        };
+
+        LDAPGroupsCache caches = this.mocker.getComponentUnderTest();
+
+        assertSame(members, caches.getGroupMembers(this.utils, GROUP_DN, () -> null, refresher));
+        assertTrue(refreshing.await(10, TimeUnit.SECONDS));
+
+        // The cached members expire while they are being refreshed
+        when(cache.get(GROUP_DN)).thenReturn(groupMembers("john", 0, 0));
+        Map<String, String> loadedMembers = Collections.singletonMap("cn=paul,o=sevenseas", "paul");
+
+        CompletableFuture<Map<String, String>> loaded = CompletableFuture.supplyAsync(() -> {
+            try {
+                return caches.getGroupMembers(this.utils, GROUP_DN, () -> loadedMembers, refresher);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        // Give the thread a chance to wait for the running refresh
+        Thread.sleep(100);
+        release.countDown();
+
+        // The failed refresh should not be taken as "not a group"
+        assertSame(loadedMembers, loaded.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void jitter() throws Exception
+    {
+        XWikiLDAPConfig configuration = this.utils.getConfiguration();
+        when(configuration.getCacheRefresh()).thenReturn(100);
+        when(configuration.getCacheExpiration()).thenReturn(200);
+
+        LDAPGroupsCache caches = this.mocker.getComponentUnderTest();
+        Map<String, String> members = Collections.singletonMap("cn=john,o=sevenseas", "john");
+
+        // Without jitter
+        long before = System.currentTimeMillis();
+        LDAPGroupMembers groupMembers = caches.createGroupMembers(this.utils, members, Collections.emptyList());
+        long after = System.currentTimeMillis();
+
+        assertTrue(groupMembers.getRefreshDate() >= before + 100000 && groupMembers.getRefreshDate() <= after + 100000);
+        assertTrue(groupMembers.getExpirationDate() >= before + 200000
+            && groupMembers.getExpirationDate() <= after + 200000);
+
+        // With 50% jitter the dates are spread between half and the full configured time
+        when(configuration.getCacheJitter()).thenReturn(50);
+
+        boolean spread = false;
+        for (int i = 0; i < 100; ++i) {
+            before = System.currentTimeMillis();
+            groupMembers = caches.createGroupMembers(this.utils, members, Collections.emptyList());
+            after = System.currentTimeMillis();
+
+            assertTrue(groupMembers.getRefreshDate() >= before + 50000
+                && groupMembers.getRefreshDate() <= after + 100000);
+            assertTrue(groupMembers.getExpirationDate() >= before + 100000
+                && groupMembers.getExpirationDate() <= after + 200000);
+
+            spread |= groupMembers.getRefreshDate() < before + 90000;
+        }
+        assertTrue(spread);
+    }
+
+    @Test
+    public void resetLocal() throws Exception
+    {
+        this.mocker.getComponentUnderTest().resetLocal();
+
+        verify(this.mocker.getInstance(ObservationManager.class), never()).notify(any(), any());
+
+        this.mocker.getComponentUnderTest().reset();
+
+        verify(this.mocker.getInstance(ObservationManager.class)).notify(any(LDAPGroupsCacheResetEvent.class), any());
+    }
+
+    private Map<String, String> getGroupMembers(Supplier<Map<String, String>> loader)
+    {
+        try {
+            return this.mocker.getComponentUnderTest().getGroupMembers(this.utils, GROUP_DN, loader);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void await(CountDownLatch latch)
+    {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
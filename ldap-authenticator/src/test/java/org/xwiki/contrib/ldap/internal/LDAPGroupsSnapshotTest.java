@@ -0,0 +1,90 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Validate {@link LDAPGroupsSnapshot}.
+ *
+ * @version $Id$
+ */
+public class LDAPGroupsSnapshotTest
+{
+    private static final String CACHE_KEY = "cn.host:389";
+
+    private static final String GROUP_DN = "cn=group,o=sevenseas";
+
+    private static final String OLD_GROUP_DN = "cn=old,o=sevenseas";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void saveAndLoad() throws Exception
+    {
+        LDAPGroupsSnapshot snapshot = new LDAPGroupsSnapshot(new File(this.folder.getRoot(), "groups.snapshot"));
+
+        Map<String, String> members = new HashMap<>();
+        members.put("cn=john,ou=people,o=sevenseas", "john");
+        members.put("cn=jane,ou=people,o=sevenseas", null);
+
+        long now = System.currentTimeMillis();
+        LDAPDNDictionary dictionary = new LDAPDNDictionary();
+        Map<String, LDAPGroupMembers> groups = new LinkedHashMap<>();
+        groups.put(GROUP_DN, new LDAPGroupMembers(dictionary, members, Collections.singleton(GROUP_DN), now + 1000,
+            now + 60000));
+        groups.put(OLD_GROUP_DN, new LDAPGroupMembers(dictionary, members, Collections.singleton(OLD_GROUP_DN),
+            now - 2000, now - 1000));
+
+        snapshot.save(CACHE_KEY, groups);
+
+        Map<String, LDAPGroupMembers> loadedGroups = snapshot.load(CACHE_KEY, new LDAPDNDictionary());
+
+        // The expired group is skipped
+        assertEquals(Collections.singleton(GROUP_DN), loadedGroups.keySet());
+
+        LDAPGroupMembers loadedMembers = loadedGroups.get(GROUP_DN);
+        assertEquals(members, loadedMembers);
+        assertEquals(Collections.singleton(GROUP_DN), loadedMembers.getGroups());
+        assertEquals(now + 1000, loadedMembers.getRefreshDate());
+        assertEquals(now + 60000, loadedMembers.getExpirationDate());
+
+        // Another LDAP server
+        assertTrue(snapshot.load("uid.other:389", new LDAPDNDictionary()).isEmpty());
+
+        snapshot.delete();
+
+        assertFalse(snapshot.getFile().exists());
+        assertTrue(snapshot.load(CACHE_KEY, new LDAPDNDictionary()).isEmpty());
+    }
+}
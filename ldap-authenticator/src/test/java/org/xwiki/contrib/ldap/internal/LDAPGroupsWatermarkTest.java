@@ -0,0 +1,65 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Validate {@link LDAPGroupsWatermark}.
+ *
+ * @version $Id$
+ */
+public class LDAPGroupsWatermarkTest
+{
+    @Test
+    public void compareNumbers()
+    {
+        assertTrue(LDAPGroupsWatermark.compare("999", "1000") < 0);
+        assertTrue(LDAPGroupsWatermark.compare("1000", "999") > 0);
+        assertEquals(0, LDAPGroupsWatermark.compare("0100", "100"));
+    }
+
+    @Test
+    public void compareGeneralizedTimes()
+    {
+        assertTrue(LDAPGroupsWatermark.compare("20261017120000Z", "20261017130000Z") < 0);
+        assertTrue(LDAPGroupsWatermark.compare("20261017130000Z", "20261017120000Z") > 0);
+        assertEquals(0, LDAPGroupsWatermark.compare("20261017120000Z", "20261017120000Z"));
+    }
+
+    @Test
+    public void isKnown()
+    {
+        LDAPGroupsWatermark watermark =
+            new LDAPGroupsWatermark("100", Collections.singleton("cn=group1,o=sevenseas"));
+
+        assertTrue(watermark.isKnown("cn=group1,o=sevenseas", "100"));
+        // Another group modified at the same time
+        assertFalse(watermark.isKnown("cn=group2,o=sevenseas", "100"));
+        // The same group modified again
+        assertFalse(watermark.isKnown("cn=group1,o=sevenseas", "101"));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.contrib.ldap.internal.LDAPServerHealthTracker.Server;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link LDAPServerHealthTracker}.
+ *
+ * @version $Id$
+ */
+public class LDAPServerHealthTrackerTest
+{
+    @Rule
+    public MockitoComponentMockingRule<LDAPServerHealthTracker> mocker =
+        new MockitoComponentMockingRule<>(LDAPServerHealthTracker.class);
+
+    private final Server server1 = new Server("server1", 389);
+
+    private final Server server2 = new Server("server2", 389);
+
+    private final Server server3 = new Server("server3", 389);
+
+    private final List<Server> servers = Arrays.asList(this.server1, this.server2, this.server3);
+
+    @Before
+    public void before() throws Exception
+    {
+        LDAPExecutors executors = this.mocker.getInstance(LDAPExecutors.class);
+        when(executors.getScheduler()).thenReturn(mock(ScheduledExecutorService.class));
+    }
+
+    @Test
+    public void keepInitialOrderWithoutStatistics() throws Exception
+    {
+        assertEquals(this.servers, this.mocker.getComponentUnderTest().sort(this.servers));
+    }
+
+    @Test
+    public void fastestFirst() throws Exception
+    {
+        this.mocker.getComponentUnderTest().onSuccess(this.server1, 200);
+        this.mocker.getComponentUnderTest().onSuccess(this.server2, 100);
+        this.mocker.getComponentUnderTest().onSuccess(this.server3, 50);
+
+        assertEquals(Arrays.asList(this.server3, this.server2, this.server1),
+            this.mocker.getComponentUnderTest().sort(this.servers));
+    }
+
+    @Test
+    public void downServersLast() throws Exception
+    {
+        this.mocker.getComponentUnderTest().onSuccess(this.server1, 10);
+        this.mocker.getComponentUnderTest().onSuccess(this.server2, 100);
+        this.mocker.getComponentUnderTest().onSuccess(this.server3, 500);
+
+        this.mocker.getComponentUnderTest().onFailure(this.server1, new Exception(), 30);
+
+        assertEquals(Arrays.asList(this.server2, this.server3, this.server1),
+            this.mocker.getComponentUnderTest().sort(this.servers));
+
+        this.mocker.getComponentUnderTest().onSuccess(this.server1, 10);
+
+        assertEquals(Arrays.asList(this.server2, this.server1, this.server3),
+            this.mocker.getComponentUnderTest().sort(this.servers));
+    }
+}
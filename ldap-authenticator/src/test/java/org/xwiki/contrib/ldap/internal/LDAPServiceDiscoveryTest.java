@@ -0,0 +1,247 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+
+import javax.naming.NamingException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link LDAPServiceDiscovery}.
+ *
+ * @version $Id$
+ */
+public class LDAPServiceDiscoveryTest
+{
+    private static final String REALM = "sevenseas.org";
+
+    private static final String LOOKUP = "_ldap._tcp.sevenseas.org";
+
+    private static final long SECOND = 1000L;
+
+    @Rule
+    public MockitoComponentMockingRule<LDAPServiceDiscovery> mocker =
+        new MockitoComponentMockingRule<>(LDAPServiceDiscovery.class);
+
+    private LDAPServiceDiscovery discovery;
+
+    private XWikiLDAPConfig configuration;
+
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    private long now;
+
+    @Before
+    public void before() throws Exception
+    {
+        ExecutorService executor = mock(ExecutorService.class);
+        doAnswer(invocation -> this.tasks.add((Runnable) invocation.getArguments()[0])).when(executor)
+            .execute(any(Runnable.class));
+        LDAPExecutors executors = this.mocker.getInstance(LDAPExecutors.class);
+        when(executors.getExecutor()).thenReturn(executor);
+
+        this.configuration = mock(XWikiLDAPConfig.class);
+        when(this.configuration.getServiceDiscoveryTTL()).thenReturn(100L);
+        when(this.configuration.getServiceDiscoveryStaleTTL()).thenReturn(1000L);
+
+        this.discovery = spy(this.mocker.getComponentUnderTest());
+        doAnswer(invocation -> this.now).when(this.discovery).now();
+        mockLookup(record(0, 100, "ldap1.sevenseas.org"));
+    }
+
+    private static SRVRecord record(int priority, int weight, String target)
+    {
+        return new SRVRecord(new String[] {String.valueOf(priority), String.valueOf(weight), "389", target});
+    }
+
+    private void mockLookup(SRVRecord... records) throws NamingException
+    {
+        SortedMap<Integer, List<SRVRecord>> priorityMap = new TreeMap<>();
+        for (SRVRecord srvRecord : records) {
+            priorityMap.computeIfAbsent(srvRecord.getPriority(), k -> new ArrayList<>()).add(srvRecord);
+        }
+
+        doReturn(priorityMap).when(this.discovery).lookup(anyString());
+    }
+
+    private String discoverTarget()
+    {
+        List<SRVRecord> records = this.discovery.discover(REALM, false, this.configuration);
+
+        return records != null ? records.get(0).getTarget() : null;
+    }
+
+    @Test
+    public void reuseDuringTTL() throws Exception
+    {
+        assertEquals("ldap1.sevenseas.org", discoverTarget());
+
+        mockLookup(record(0, 100, "ldap2.sevenseas.org"));
+
+        this.now = 50 * SECOND;
+        assertEquals("ldap1.sevenseas.org", discoverTarget());
+        verify(this.discovery).lookup(LOOKUP);
+
+        // Expired
+        this.now = 100 * SECOND;
+        assertEquals("ldap2.sevenseas.org", discoverTarget());
+        verify(this.discovery, times(2)).lookup(LOOKUP);
+    }
+
+    @Test
+    public void noCache() throws Exception
+    {
+        when(this.configuration.getServiceDiscoveryTTL()).thenReturn(0L);
+
+        discoverTarget();
+        discoverTarget();
+
+        verify(this.discovery, times(2)).lookup(LOOKUP);
+    }
+
+    @Test
+    public void refreshAhead() throws Exception
+    {
+        discoverTarget();
+
+        mockLookup(record(0, 100, "ldap2.sevenseas.org"));
+        this.tasks.clear();
+
+        // Not yet 75% of the TTL
+        this.now = 74 * SECOND;
+        assertEquals("ldap1.sevenseas.org", discoverTarget());
+        assertTrue(this.tasks.isEmpty());
+
+        // The cached records are returned while they are refreshed in the background
+        this.now = 75 * SECOND;
+        assertEquals("ldap1.sevenseas.org", discoverTarget());
+        assertEquals(1, this.tasks.size());
+
+        // Only one refresh at a time
+        this.now = 76 * SECOND;
+        discoverTarget();
+        assertEquals(1, this.tasks.size());
+
+        verify(this.discovery).lookup(LOOKUP);
+
+        this.tasks.get(0).run();
+
+        verify(this.discovery, times(2)).lookup(LOOKUP);
+
+        // The refreshed records are used right away and are valid for a full TTL
+        this.now = 150 * SECOND;
+        assertEquals("ldap2.sevenseas.org", discoverTarget());
+        verify(this.discovery, times(2)).lookup(LOOKUP);
+    }
+
+    @Test
+    public void staleIfError() throws Exception
+    {
+        discoverTarget();
+
+        doThrow(new NamingException()).when(this.discovery).lookup(anyString());
+
+        // The DNS server is not reachable anymore
+        this.now = 100 * SECOND;
+        assertEquals("ldap1.sevenseas.org", discoverTarget());
+        verify(this.discovery, times(2)).lookup(LOOKUP);
+
+        // The failed lookup is not retried for each call
+        this.now = 150 * SECOND;
+        assertEquals("ldap1.sevenseas.org", discoverTarget());
+        verify(this.discovery, times(2)).lookup(LOOKUP);
+
+        // Too old, even as a fallback
+        this.now = 1100 * SECOND;
+        assertNull(discoverTarget());
+    }
+
+    @Test
+    public void errorWithoutPreviousResult() throws Exception
+    {
+        doThrow(new NamingException()).when(this.discovery).lookup(anyString());
+
+        assertNull(discoverTarget());
+    }
+
+    @Test
+    public void unknownService() throws Exception
+    {
+        doReturn(Collections.emptySortedMap()).when(this.discovery).lookup(anyString());
+
+        assertNull(discoverTarget());
+
+        // Also cached
+        this.now = 50 * SECOND;
+        assertNull(discoverTarget());
+        verify(this.discovery).lookup(LOOKUP);
+    }
+
+    @Test
+    public void weightedSelection() throws Exception
+    {
+        mockLookup(record(0, 90, "heavy.sevenseas.org"), record(0, 10, "light.sevenseas.org"),
+            record(10, 100, "backup.sevenseas.org"));
+
+        int heavyFirst = 0;
+        for (int i = 0; i < 1000; ++i) {
+            List<SRVRecord> records = this.discovery.discover(REALM, false, this.configuration);
+
+            assertEquals(3, records.size());
+            // The priority always comes first
+            assertEquals("backup.sevenseas.org", records.get(2).getTarget());
+
+            if (records.get(0).getTarget().equals("heavy.sevenseas.org")) {
+                ++heavyFirst;
+            }
+        }
+
+        // The records are shuffled on each call, according to their weight
+        assertTrue("Unexpected distribution: " + heavyFirst, heavyFirst > 800 && heavyFirst < 980);
+
+        // Without searching again
+        verify(this.discovery).lookup(LOOKUP);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Validate {@link LDAPSynchronizationQueue}.
+ *
+ * @version $Id$
+ */
+public class LDAPSynchronizationQueueTest
+{
+    @Rule
+    public MockitoComponentMockingRule<LDAPSynchronizationQueue> mocker =
+        new MockitoComponentMockingRule<>(LDAPSynchronizationQueue.class);
+
+    @Test
+    public void coalesceAndReject() throws Exception
+    {
+        LDAPSynchronizationQueue queue = this.mocker.getComponentUnderTest();
+
+        // Keep all the threads busy
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        Supplier<Boolean> blocking = () -> {
+            started.countDown();
+            try {
+                return release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                return false;
+            }
+        };
+        assertTrue(queue.submit("user1", 1, blocking));
+        assertTrue(queue.submit("user2", 1, blocking));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        AtomicInteger first = new AtomicInteger();
+        AtomicInteger last = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+        assertTrue(queue.submit("user3", 1, () -> first.incrementAndGet() > 0));
+        assertTrue(queue.submit("user3", 1, () -> {
+            last.incrementAndGet();
+            done.countDown();
+
+            return true;
+        }));
+
+        // The queue is full
+        assertFalse(queue.submit("user4", 1, () -> true));
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        assertEquals(0, first.get());
+        assertEquals(1, last.get());
+
+        Map<String, Long> statistics = queue.getStatistics();
+        assertEquals(Long.valueOf(5), statistics.get("submitted"));
+        assertEquals(Long.valueOf(1), statistics.get("coalesced"));
+        assertEquals(Long.valueOf(1), statistics.get("rejected"));
+    }
+}
@@ -252,6 +252,69 @@ public class XWikiLDAPUtilsTest extends AbstractLDAPTestCase
         assertNull("Should return null if group does not exist [" + wrongGroupMembers + "]", wrongGroupMembers);
     }
 
+    /**
+     * Test {@link XWikiLDAPUtils#getGroupMembers(String, XWikiContext)} with nested groups and groups containing each
+     * other.
+     * 
+     * @throws XWikiException error when getting group members from cache.
+     */
+    @Test
+    public void testGetGroupMembersWithCycle() throws XWikiException
+    {
+        assertNestedGroupMembers();
+    }
+
+    /**
+     * Test {@link XWikiLDAPUtils#getGroupMembers(String, XWikiContext)} when the groups are expanded level by level.
+     * 
+     * @throws XWikiException error when getting group members from cache.
+     */
+    @Test
+    public void testGetGroupMembersBreadthFirst() throws XWikiException
+    {
+        this.mocker.getMockXWikiCfg().setProperty("xwiki.authentication.ldap.group_expansion_batch_size", "2");
+
+        assertNestedGroupMembers();
+    }
+
+    /**
+     * Test {@link XWikiLDAPUtils#getGroupMembers(String, XWikiContext)} when the subgroups are expanded concurrently.
+     * 
+     * @throws XWikiException error when getting group members from cache.
+     */
+    @Test
+    public void testGetGroupMembersInParallel() throws XWikiException
+    {
+        this.mocker.getMockXWikiCfg().setProperty("xwiki.authentication.ldap.group_expansion_parallelism", "4");
+
+        assertNestedGroupMembers();
+    }
+
+    private void assertNestedGroupMembers() throws XWikiException
+    {
+        Map<String, String> topGroupMembers =
+            this.ldapUtils.getGroupMembers(LDAPTestSetup.TOPGROUP_DN, this.mocker.getXWikiContext());
+
+        assertEquals(LDAPTestSetup.TOPGROUP_MEMBERS, topGroupMembers.keySet());
+
+        Map<String, String> cycleGroupMembers =
+            this.ldapUtils.getGroupMembers(LDAPTestSetup.CYCLEGROUPA_DN, this.mocker.getXWikiContext());
+
+        assertEquals(LDAPTestSetup.CYCLEGROUP_MEMBERS, cycleGroupMembers.keySet());
+
+        cycleGroupMembers =
+            this.ldapUtils.getGroupMembers(LDAPTestSetup.CYCLEGROUPB_DN, this.mocker.getXWikiContext());
+
+        assertEquals(LDAPTestSetup.CYCLEGROUP_MEMBERS, cycleGroupMembers.keySet());
+
+        // Same result when starting from a filter
+        XWikiLDAPUtils.resetGroupCache();
+
+        cycleGroupMembers = this.ldapUtils.getGroupMembers("(cn=Cycle group A)", this.mocker.getXWikiContext());
+
+        assertEquals(LDAPTestSetup.CYCLEGROUP_MEMBERS, cycleGroupMembers.keySet());
+    }
+
     /**
      * Test {@link XWikiLDAPUtils#isUidInGroup(String, String, XWikiContext)} by passing CN value.
      * 
@@ -251,6 +251,27 @@ public class LDAPTestSetup
         TOPGROUP_MEMBERS_NORESOLVE.add("cn=Cornelius Buckley,ou=people,o=sevenSeas".toLowerCase());
     }
 
+    /**
+     * The LDAP DN of group Cycle group A, member of its own subgroup Cycle group B.
+     */
+    public static final String CYCLEGROUPA_DN = "cn=Cycle group A,ou=crews,ou=groups,o=sevenSeas";
+
+    /**
+     * The LDAP DN of group Cycle group B, member of its own subgroup Cycle group A.
+     */
+    public static final String CYCLEGROUPB_DN = "cn=Cycle group B,ou=crews,ou=groups,o=sevenSeas";
+
+    /**
+     * The LDAP members of groups Cycle group A and Cycle group B.
+     */
+    public static final Set<String> CYCLEGROUP_MEMBERS = new HashSet<String>();
+
+    static {
+        CYCLEGROUP_MEMBERS.addAll(TOPGROUP_MEMBERS);
+
+        CYCLEGROUP_MEMBERS.add(OTHERUSERWITHPOINTS_DN.toLowerCase());
+    }
+
     // ///
 
     /**